@@ -0,0 +1,107 @@
+package com.deejay;
+
+import org.openjdk.jmh.annotations.*;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the HTML classification hot path on the captured shell pages and on
+ * synthetic result pages, next to the former substring approach as a baseline.
+ *
+ * Run with: mvn -Pbench test-compile exec:exec
+ * Pass other JMH options with -Djmh.args="-prof gc -tu ns ClassificationBenchmark.hasResults"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ClassificationBenchmark {
+
+    @Param({"dtw004", "qv002", "nbastwax016", "rawqtroo3",
+            "synthetic-1", "synthetic-10", "synthetic-100", "synthetic-1000"})
+    public String page;
+
+    private String html;
+
+    @Setup
+    public void load() throws IOException {
+        if (page.startsWith("synthetic-")) {
+            html = syntheticResultPage(Integer.parseInt(page.substring("synthetic-".length())));
+        } else {
+            try (InputStream in = ClassificationBenchmark.class.getResourceAsStream("/" + page + ".html")) {
+                html = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+            }
+        }
+    }
+
+    /**
+     * Builds a content.php style result page listing the given number of products
+     */
+    static String syntheticResultPage(int products) {
+        StringBuilder sb = new StringBuilder("<!DOCTYPE html>\n<html><body>\n<div class=\"product-list\">\n");
+        for (int i = 0; i < products; i++) {
+            sb.append("<article class=\"product\" id=\"p").append(i).append("\">\n");
+            sb.append("  <a href=\"/REC").append(i).append("\"><img src=\"/pics/images/m/rec").append(i)
+              .append(".jpg\" alt=\"Artist ").append(i).append(" - Title\"></a>\n");
+            sb.append("  <div class=\"artist\"><h2>Artist ").append(i).append("</h2></div>\n");
+            sb.append("  <div class=\"title\"><h3>Title ").append(i).append("</h3></div>\n");
+            sb.append("  <div class=\"price\">12,99 &euro;</div>\n");
+            sb.append("  <a class=\"cart\" href=\"/addCart/").append(100000 + i).append("\">Add to Cart</a>\n");
+            sb.append("</article>\n");
+        }
+        return sb.append("</div>\n</body></html>\n").toString();
+    }
+
+    @Benchmark
+    public boolean hasResults() {
+        return Checker.hasResults(html);
+    }
+
+    @Benchmark
+    public int countProducts() {
+        return CodeAnalyzer.countProducts(html);
+    }
+
+    @Benchmark
+    public int extractProducts() {
+        return ProductExtractor.extract(html, null).products;
+    }
+
+    @Benchmark
+    public CodeAnalyzer.AnalysisResult analyzeContent() {
+        return CodeAnalyzer.analyzeContent("BENCH", html);
+    }
+
+    @Benchmark
+    public boolean substringHasResults() {
+        if (html.contains("Sorry, we didn´t find a matching Entry.")) {
+            return false;
+        }
+        return html.contains("/pics/images/m/") || html.contains("/addCart/")
+            || html.contains("class=\"product-list\"") || html.contains("class='product-list'");
+    }
+
+    @Benchmark
+    public int substringCountProducts() {
+        int imageCount = 0;
+        int cartCount = 0;
+        if (html.contains("/pics/images/m/")) {
+            for (String line : html.split("\n")) {
+                if (line.contains("/pics/images/m/") && line.contains("alt=")) imageCount++;
+            }
+        }
+        if (html.contains("/addCart/")) {
+            for (String line : html.split("\n")) {
+                if (line.contains("/addCart/")) cartCount++;
+            }
+        }
+        boolean list = html.contains("class=\"product-list\"") || html.contains("class='product-list'");
+        if (imageCount > 0 && cartCount > 0) return Math.min(imageCount, cartCount);
+        if (imageCount > 0) return imageCount;
+        if (cartCount > 0) return cartCount;
+        return list ? 1 : 0;
+    }
+}
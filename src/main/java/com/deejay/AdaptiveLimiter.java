@@ -0,0 +1,203 @@
+package com.deejay;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Adaptive concurrency limit with a requests per second ceiling, replacing fixed pool sizes and sleeps.
+ *
+ * The number of lookups allowed in flight follows AIMD: it grows by about one per round
+ * trip while latency stays stable, is cut in half on timeouts, 429/503 responses and
+ * transport errors, and is trimmed when the recent p95 latency rises well above the best
+ * p95 seen so far. Independently, a token bucket caps the rate at which lookups start.
+ */
+public class AdaptiveLimiter {
+    private static final int WINDOW = 50;
+    private static final double LATENCY_TOLERANCE = 2.0;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final double maxPerSecond;
+    private final double burst;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+    private final long[] latencies = new long[WINDOW];
+
+    private double limit;
+    private int inFlight;
+    private double tokens;
+    private long lastRefill = System.nanoTime();
+    private long lastDecrease = System.nanoTime() - TimeUnit.MINUTES.toNanos(1);
+    private int samples;
+    private long recentP95;
+    private long baselineP95 = Long.MAX_VALUE;
+
+    /**
+     * Outcome of a lookup as far as server load is concerned
+     */
+    public enum Outcome {
+        /** Completed normally, latency counts towards the p95 */
+        SUCCESS,
+        /** Timeout, 429/503 or transport error: back off */
+        DROPPED,
+        /** Failed for reasons unrelated to load, e.g. a 404 */
+        IGNORED
+    }
+
+    /**
+     * @param minLimit lowest in-flight limit the controller backs off to
+     * @param initialLimit in-flight limit to start with
+     * @param maxLimit highest in-flight limit the controller grows to
+     * @param maxPerSecond maximum lookups started per second, 0 for no rate limit
+     */
+    public AdaptiveLimiter(int minLimit, int initialLimit, int maxLimit, double maxPerSecond) {
+        this.minLimit = Math.max(1, minLimit);
+        this.maxLimit = Math.max(this.minLimit, maxLimit);
+        this.limit = Math.min(this.maxLimit, Math.max(this.minLimit, initialLimit));
+        this.maxPerSecond = maxPerSecond;
+        this.burst = Math.max(1, maxPerSecond);
+        this.tokens = burst;
+    }
+
+    /**
+     * A constant limit without rate control
+     */
+    public static AdaptiveLimiter fixed(int limit) {
+        return new AdaptiveLimiter(limit, limit, limit, 0);
+    }
+
+    /**
+     * Limiter configured by --min-concurrency, --concurrency (initial), --max-concurrency and --max-rps
+     */
+    public static AdaptiveLimiter fromOptions(RunOptions options, int defaultMax) {
+        int max = options.getInt("max-concurrency", defaultMax);
+        return new AdaptiveLimiter(
+                options.getInt("min-concurrency", 1),
+                options.getInt("concurrency", Math.min(4, max)),
+                max,
+                Double.parseDouble(options.get("max-rps", "10")));
+    }
+
+    /**
+     * Blocks until the concurrency limit and the rate limit both admit another lookup
+     */
+    public void acquire() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (true) {
+                if (inFlight >= (int) limit) {
+                    changed.await();
+                    continue;
+                }
+                long wait = takeToken();
+                if (wait == 0) {
+                    inFlight++;
+                    return;
+                }
+                changed.awaitNanos(wait);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Takes a token from the bucket, or returns the nanos until one is available
+     */
+    private long takeToken() {
+        if (maxPerSecond <= 0) {
+            return 0;
+        }
+        long now = System.nanoTime();
+        tokens = Math.min(burst, tokens + (now - lastRefill) * maxPerSecond / 1e9);
+        lastRefill = now;
+        if (tokens >= 1) {
+            tokens -= 1;
+            return 0;
+        }
+        return Math.max(1, (long) ((1 - tokens) * 1e9 / maxPerSecond));
+    }
+
+    /**
+     * Reports a finished lookup and adjusts the limit
+     */
+    public void release(Outcome outcome, long latencyNanos) {
+        lock.lock();
+        try {
+            inFlight--;
+            long now = System.nanoTime();
+            switch (outcome) {
+                case DROPPED -> {
+                    // At most one cut per window of recent latency so one burst of failures does not collapse the limit
+                    long cooldown = Math.max(TimeUnit.MILLISECONDS.toNanos(200), recentP95);
+                    if (now - lastDecrease > cooldown) {
+                        limit = Math.max(minLimit, limit / 2);
+                        lastDecrease = now;
+                    }
+                }
+                case SUCCESS -> {
+                    latencies[samples++ % WINDOW] = latencyNanos;
+                    if (samples % WINDOW == 0) {
+                        updateP95();
+                    }
+                    if (recentP95 > 0 && recentP95 > baselineP95 * LATENCY_TOLERANCE) {
+                        if (now - lastDecrease > recentP95) {
+                            limit = Math.max(minLimit, limit * 0.9);
+                            lastDecrease = now;
+                        }
+                    } else if (inFlight + 1 >= (int) limit) {
+                        // Only grow while the current limit is actually used
+                        limit = Math.min(maxLimit, limit + 1 / limit);
+                    }
+                }
+                case IGNORED -> { }
+            }
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void updateP95() {
+        long[] sorted = latencies.clone();
+        Arrays.sort(sorted);
+        recentP95 = sorted[(int) (WINDOW * 0.95) - 1];
+        // The baseline drifts up slowly so a permanently slower server is accepted eventually
+        baselineP95 = baselineP95 == Long.MAX_VALUE ? recentP95 : Math.min(recentP95, (long) (baselineP95 * 1.05) + 1);
+    }
+
+    public int getLimit() {
+        lock.lock();
+        try {
+            return (int) limit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getMaxLimit() {
+        return maxLimit;
+    }
+
+    public int getInFlight() {
+        lock.lock();
+        try {
+            return inFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public String summary() {
+        lock.lock();
+        try {
+            return String.format("Concurrency limit: %d (range %d-%d), p95 latency: %d ms, max rate: %s/s",
+                    (int) limit, minLimit, maxLimit, TimeUnit.NANOSECONDS.toMillis(recentP95),
+                    maxPerSecond > 0 ? String.valueOf(maxPerSecond) : "unlimited");
+        } finally {
+            lock.unlock();
+        }
+    }
+}
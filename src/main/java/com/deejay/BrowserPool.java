@@ -0,0 +1,353 @@
+package com.deejay;
+
+import com.microsoft.playwright.*;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pool of thread-confined browsers for the Playwright fallback.
+ *
+ * Playwright objects must not be shared between threads, so every worker thread owns its
+ * own Playwright and Browser. Each worker keeps a bounded ring of BrowserContext/Page slots
+ * that are reused across codes in turn and recycled after a number of uses, when a lookup
+ * fails transiently or when the page crashes. A worker runs one task at a time, so more
+ * pages per browser spread the uses (and the state a site leaves in a context) over several
+ * contexts rather than adding concurrency.
+ */
+public class BrowserPool implements AutoCloseable {
+    private final Options options;
+    private final ExecutorService executor;
+    private final ThreadLocal<Worker> worker = new ThreadLocal<>();
+
+    public BrowserPool(Options options) {
+        this.options = options;
+        AtomicInteger threadCount = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(options.workers, r -> {
+            Thread t = new Thread(() -> {
+                try {
+                    r.run();
+                } finally {
+                    // Playwright must be closed on the thread that created it
+                    Worker w = worker.get();
+                    if (w != null) {
+                        w.close();
+                        worker.remove();
+                    }
+                }
+            }, "browser-worker-" + threadCount.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Runs a task on one of the worker threads with a warm page of that worker's browser.
+     * The page is recycled if the task throws, returns a transient ERROR or the page crashed.
+     */
+    public <T> CompletableFuture<T> submit(PageTask<T> task) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        executor.execute(() -> {
+            try {
+                future.complete(currentWorker().run(task));
+            } catch (Throwable e) {
+                future.completeExceptionally(e);
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Launches the browser and opens the pages of every worker thread ahead of the first task,
+     * so a long-lived process pays for Playwright and Chromium startup once, up front
+     */
+    public void warmUp() {
+        // Every task holds its thread until all have started, so each worker gets exactly one
+        CountDownLatch started = new CountDownLatch(options.workers);
+        List<CompletableFuture<Void>> tasks = new ArrayList<>();
+        for (int i = 0; i < options.workers; i++) {
+            tasks.add(CompletableFuture.runAsync(() -> {
+                started.countDown();
+                try {
+                    started.await(1, TimeUnit.MINUTES);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                currentWorker().warmUp();
+            }, executor));
+        }
+        CompletableFuture.allOf(tasks.toArray(new CompletableFuture<?>[0])).join();
+    }
+
+    /**
+     * Lookups report timeouts and failed navigations as an ERROR result rather than throwing,
+     * so the limiter and the recycle policy look at the result itself
+     */
+    static AdaptiveLimiter.Outcome outcome(Object result) {
+        if (result instanceof CodeAnalyzer.AnalysisResult analysis
+                && analysis.resultType == CodeAnalyzer.ResultType.ERROR) {
+            return analysis.transientFailure ? AdaptiveLimiter.Outcome.DROPPED : AdaptiveLimiter.Outcome.IGNORED;
+        }
+        return AdaptiveLimiter.Outcome.SUCCESS;
+    }
+
+    private Worker currentWorker() {
+        Worker w = worker.get();
+        if (w == null) {
+            w = new Worker(options);
+            worker.set(w);
+        }
+        return w;
+    }
+
+    @Override
+    public void close() {
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(30, TimeUnit.SECONDS)) {
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Work to run against a pooled page
+     */
+    @FunctionalInterface
+    public interface PageTask<T> {
+        T run(Page page) throws Exception;
+    }
+
+    /**
+     * Pool size and recycle policy
+     */
+    public static class Options {
+        private int workers = 8;
+        private int pagesPerBrowser = 2;
+        private int maxUsesPerPage = 50;
+        private boolean headless = true;
+        private ResourceBlocker resourceBlocker;
+        private AdaptiveLimiter limiter;
+        private Duration readyTimeout = Checker.READY_TIMEOUT;
+        private String baseUrl = Checker.BASE_URL;
+
+        public static Options from(RunOptions run, int defaultWorkers) {
+            int workers = run.getInt("workers", defaultWorkers);
+            return new Options()
+                    .setWorkers(workers)
+                    .setLimiter(AdaptiveLimiter.fromOptions(run, workers))
+                    .setPagesPerBrowser(run.getInt("pages-per-browser", 2))
+                    .setMaxUsesPerPage(run.getInt("recycle-after", 50))
+                    .setHeadless(!run.has("headed"))
+                    .setReadyTimeout(run.getDuration("ready-timeout", Checker.READY_TIMEOUT))
+                    .setBaseUrl(Checker.baseUrl(run))
+                    .setResourceBlocker(ResourceBlocker.fromOptions(run));
+        }
+
+        public Options setWorkers(int workers) {
+            this.workers = Math.max(1, workers);
+            return this;
+        }
+
+        /**
+         * Contexts each worker's browser keeps open and uses in turn
+         */
+        public Options setPagesPerBrowser(int pagesPerBrowser) {
+            this.pagesPerBrowser = Math.max(1, pagesPerBrowser);
+            return this;
+        }
+
+        public Options setMaxUsesPerPage(int maxUsesPerPage) {
+            this.maxUsesPerPage = Math.max(1, maxUsesPerPage);
+            return this;
+        }
+
+        public Options setHeadless(boolean headless) {
+            this.headless = headless;
+            return this;
+        }
+
+        /**
+         * Request interception installed on every context the pool creates, or null for none
+         */
+        public Options setResourceBlocker(ResourceBlocker resourceBlocker) {
+            this.resourceBlocker = resourceBlocker;
+            return this;
+        }
+
+        /**
+         * Limiter every task passes before it navigates, or null to run as fast as the workers allow
+         */
+        public Options setLimiter(AdaptiveLimiter limiter) {
+            this.limiter = limiter;
+            return this;
+        }
+
+        /**
+         * Single deadline per code covering navigation and waiting for the iframe to be ready
+         */
+        public Options setReadyTimeout(Duration readyTimeout) {
+            this.readyTimeout = readyTimeout;
+            return this;
+        }
+
+        /**
+         * Site root the shell pages are loaded from, e.g. https://deejay.de/
+         */
+        public Options setBaseUrl(String baseUrl) {
+            this.baseUrl = baseUrl.endsWith("/") ? baseUrl : baseUrl + "/";
+            return this;
+        }
+
+        public String getBaseUrl() {
+            return baseUrl;
+        }
+
+        public int getWorkers() {
+            return workers;
+        }
+
+        public Duration getReadyTimeout() {
+            return readyTimeout;
+        }
+
+        public AdaptiveLimiter getLimiter() {
+            return limiter;
+        }
+
+        public ResourceBlocker getResourceBlocker() {
+            return resourceBlocker;
+        }
+    }
+
+    /**
+     * Browser and page slots owned by a single worker thread
+     */
+    private static class Worker {
+        private final Options options;
+        private final Slot[] slots;
+        private Playwright playwright;
+        private Browser browser;
+        private int next;
+
+        Worker(Options options) {
+            this.options = options;
+            this.slots = new Slot[options.pagesPerBrowser];
+        }
+
+        <T> T run(PageTask<T> task) throws Exception {
+            int index = next;
+            next = (next + 1) % slots.length;
+            Slot current = acquire(index);
+            AdaptiveLimiter limiter = options.limiter;
+            if (limiter != null) {
+                limiter.acquire();
+            }
+            long start = System.nanoTime();
+            AdaptiveLimiter.Outcome outcome = AdaptiveLimiter.Outcome.DROPPED;
+            try {
+                T result = task.run(current.page);
+                outcome = outcome(result);
+                if (outcome == AdaptiveLimiter.Outcome.DROPPED) {
+                    current.crashed = true;
+                }
+                return result;
+            } catch (Exception e) {
+                current.crashed = true;
+                throw e;
+            } finally {
+                if (limiter != null) {
+                    limiter.release(outcome, System.nanoTime() - start);
+                }
+                if (current.crashed || current.page.isClosed() || current.uses >= options.maxUsesPerPage) {
+                    current.close();
+                    slots[index] = null;
+                }
+            }
+        }
+
+        void warmUp() {
+            if (browser == null || !browser.isConnected()) {
+                launch();
+            }
+            for (int i = 0; i < slots.length; i++) {
+                if (slots[i] == null) {
+                    slots[i] = newSlot();
+                }
+            }
+        }
+
+        private Slot acquire(int index) {
+            if (browser == null || !browser.isConnected()) {
+                launch();
+            }
+            if (slots[index] == null) {
+                slots[index] = newSlot();
+            }
+            slots[index].uses++;
+            return slots[index];
+        }
+
+        private Slot newSlot() {
+            BrowserContext context = browser.newContext();
+            if (options.resourceBlocker != null) {
+                options.resourceBlocker.install(context);
+            }
+            return new Slot(context);
+        }
+
+        private void launch() {
+            close();
+            playwright = Playwright.create();
+            browser = playwright.chromium().launch(new BrowserType.LaunchOptions()
+                    .setHeadless(options.headless)
+                    .setArgs(Arrays.asList("--no-sandbox", "--disable-dev-shm-usage")));
+        }
+
+        void close() {
+            for (int i = 0; i < slots.length; i++) {
+                if (slots[i] != null) {
+                    slots[i].close();
+                    slots[i] = null;
+                }
+            }
+            try {
+                if (browser != null) browser.close();
+                if (playwright != null) playwright.close();
+            } catch (Exception e) {
+                System.out.println("Error closing browser: " + e.getMessage());
+            }
+            browser = null;
+            playwright = null;
+        }
+    }
+
+    /**
+     * A reusable context and page together with its use count
+     */
+    private static class Slot {
+        final BrowserContext context;
+        final Page page;
+        int uses;
+        volatile boolean crashed;
+
+        Slot(BrowserContext context) {
+            this.context = context;
+            this.page = context.newPage();
+            this.page.onCrash(p -> crashed = true);
+        }
+
+        void close() {
+            try {
+                context.close();
+            } catch (Exception e) {
+                System.out.println("Error closing browser context: " + e.getMessage());
+            }
+        }
+    }
+}
@@ -3,120 +3,377 @@ package com.deejay;
 import com.microsoft.playwright.*;
 import java.io.*;
 import java.nio.file.*;
+import java.time.Duration;
 import java.util.*;
 import java.util.concurrent.*;
 
 public class Checker {
-    // Robust product/result detection logic using iframe content
+    public static final String BASE_URL = "https://deejay.de/";
+    public static final Duration READY_TIMEOUT = Duration.ofSeconds(10);
+
+    /**
+     * True once the content.php frame is usable: its DOMContentLoaded has fired, or the 'Sorry'
+     * message is already in it. A product marker does not end the wait, the products are only
+     * counted once the whole document is parsed.
+     */
+    static final String IFRAME_READY = """
+            () => {
+                const frame = document.querySelector('iframe#myIframe');
+                const doc = frame && frame.contentDocument;
+                if (!doc || !doc.location.href.includes('content.php?param=')) {
+                    return false;
+                }
+                return doc.readyState !== 'loading'
+                    || (doc.body !== null && doc.body.textContent.includes('Sorry, we didn'));
+            }""";
+
+    /**
+     * True if the content.php iframe of a navigated shell page lists products.
+     * A frame that is not ready in time or cannot be read throws instead of reading as no results.
+     */
     public static boolean hasResultsFromIframe(Page page) {
-        try {
-            // Wait for iframe to appear with shorter timeout
-            page.waitForSelector("iframe#myIframe", new Page.WaitForSelectorOptions().setTimeout(8000));
-            Frame iframe = page.frameByUrl(url -> url.contains("content.php?param="));
-            if (iframe == null) {
-                System.out.println("Iframe not found!");
-                return false;
-            }
-            String iframeHtml = iframe.content();
-            // Check for 'Sorry' message
-            if (iframeHtml.contains("Sorry, we didn´t find a matching Entry.")) {
-                return false;
-            }
-            // Check for product indicators
-            boolean hasProductImage = iframeHtml.contains("/pics/images/m/");
-            boolean hasProductLink = iframeHtml.contains("/addCart/");
-            boolean hasProductList = iframeHtml.contains("class=\"product-list\"") || iframeHtml.contains("class='product-list'");
-            return hasProductImage || hasProductLink || hasProductList;
-        } catch (Exception e) {
-            System.out.println("Error checking iframe: " + e.getMessage());
+        Frame iframe = waitForIframe(page, READY_TIMEOUT);
+        if (iframe == null) {
             return false;
         }
+        try {
+            return IframeSummary.of(iframe).hasResults();
+        } catch (PlaywrightException e) {
+            Metrics.count("evaluate_fallbacks");
+            return hasResults(iframeContent(iframe));
+        }
+    }
+
+    /**
+     * Waits until the content.php iframe is ready and returns it, or null if the ready page has
+     * no such frame. Throws TimeoutError if it is not ready in time. There is no fixed delay,
+     * the wait ends as soon as the frame is usable.
+     */
+    static Frame waitForIframe(Page page, Duration timeout) {
+        long start = Metrics.start();
+        try {
+            page.waitForFunction(IFRAME_READY, null, new Page.WaitForFunctionOptions()
+                    .setTimeout(Math.max(1, timeout.toMillis()))
+                    .setPollingInterval(25));
+        } catch (TimeoutError e) {
+            Metrics.count("timeouts");
+            throw e;
+        }
+        Metrics.stage("wait_iframe", start);
+        Frame iframe = page.frameByUrl(url -> url.contains("content.php?param="));
+        if (iframe == null) {
+            System.out.println("Iframe not found!");
+        }
+        return iframe;
+    }
+
+    /**
+     * The serialized document of a frame. A frame that cannot be read, e.g. because it was
+     * detached or navigated away, throws a PlaywrightException, a transient ERROR for the lookup.
+     */
+    static String iframeContent(Frame iframe) {
+        long start = Metrics.start();
+        String content = iframe.content();
+        Metrics.stage("iframe_content", start);
+        return content;
     }
 
     // Static method to parse HTML content and detect results (useful for testing)
     public static boolean hasResults(String html) {
-        // Check for 'Sorry' message
-        if (html.contains("Sorry, we didn´t find a matching Entry.")) {
-            return false;
+        // One pass over the HTML for the 'Sorry' message and all product indicators,
+        // the same classifier as the lookups, so results.txt and this method always agree
+        return IndicatorScanner.scan(html).hasResults();
+    }
+
+    /**
+     * Formats the results.txt line for a content.php response
+     */
+    static String describe(String code, ContentFetcher.FetchResult fetched, Throwable error) {
+        return describe(CodeAnalyzer.analyzeFetched(code, fetched, error));
+    }
+
+    /**
+     * Formats the results.txt line for an analysis result
+     */
+    static String describe(CodeAnalyzer.AnalysisResult result) {
+        if (result.resultType == CodeAnalyzer.ResultType.ERROR) {
+            return result.code + ": ERROR - " + result.description;
         }
-        // Check for product indicators
-        boolean hasProductImage = html.contains("/pics/images/m/");
-        boolean hasProductLink = html.contains("/addCart/");
-        boolean hasProductList = html.contains("class=\"product-list\"") || html.contains("class='product-list'");
-        return hasProductImage || hasProductLink || hasProductList;
-    }
-
-    public static void main(String[] args) throws IOException {
-        // Read codes from codes.txt, ignore lines starting with 'Processing:' and empty lines
-        List<String> codes = new ArrayList<>();
-        try (BufferedReader br = Files.newBufferedReader(Paths.get("codes.txt"))) {
-            String line;
-            while ((line = br.readLine()) != null) {
-                line = line.trim();
-                if (!line.isEmpty() && !line.startsWith("Processing:")) {
-                    codes.add(line);
-                }
+        return result.code + ": " + (result.isFound() ? "FOUND" : "NOT FOUND");
+    }
+
+    /**
+     * Checks and analyzes every code of the input with one lookup each and writes
+     * results.txt, code_analysis_results.txt and, with --sources, results_sources.tsv
+     */
+    public static void main(String[] args) throws Exception {
+        RunOptions options = RunOptions.parse(args);
+        if (options.has("worker")) {
+            runWorker(options);
+            return;
+        }
+        Shard shard = Shard.fromOptions(options);
+        Files.createDirectories(Paths.get(options.get("output-dir", ".")));
+        if (options.has("coordinator")) {
+            runCoordinator(options, shard);
+            return;
+        }
+        if (options.has("watch")) {
+            runWatch(options, shard);
+            return;
+        }
+        if (options.has("daemon")) {
+            runDaemon(options);
+            return;
+        }
+
+        long written;
+        CodeSources sources = new CodeSources(shard, options.has("sources"));
+        Metrics.Exporter metrics = Metrics.export(options);
+        try (metrics;
+             LookupEngine engine = LookupEngine.fromOptions(options);
+             CodeInput input = CodeInput.fromOptions(options)) {
+            System.out.println("Processing " + input.getSpec() + (shard.isAll() ? "" : " (shard " + shard + ")")
+                    + " with parallel processing" + mode(options) + "...");
+            if (engine.getJournal().completedCount() > 0) {
+                System.out.println("Resuming: " + engine.getJournal().completedCount()
+                        + " codes already in the journal");
             }
+            written = engine.run(sources.unique(input), reportStages(options, input, shard, sources));
+            engine.summary().forEach(System.out::println);
         }
-        
-        System.out.println("Processing " + codes.size() + " codes with parallel processing...");
-        
-        // More aggressive parallel processing
-        int maxConcurrent = 8; // Increased from 4 to 8 parallel browser instances
-        ExecutorService executor = Executors.newFixedThreadPool(maxConcurrent);
-        List<Future<String>> futures = new ArrayList<>();
-        
-        try (Playwright playwright = Playwright.create()) {
-            for (String code : codes) {
-                Future<String> future = executor.submit(() -> {
-                    try (Browser browser = playwright.chromium().launch(new BrowserType.LaunchOptions()
-                            .setHeadless(true)
-                            .setArgs(Arrays.asList("--no-sandbox", "--disable-dev-shm-usage")))) {
-                        Page page = browser.newPage();
-                        try {
-                            String url = "https://deejay.de/" + code;
-                            page.navigate(url);
-                            // Use proper element waiting instead of fixed delays
-                            boolean hasResults = hasResultsFromIframe(page);
-                            String result = code + ": " + (hasResults ? "FOUND" : "NOT FOUND");
-                            System.out.println(result);
-                            return result;
-                        } finally {
-                            page.close();
-                        }
-                    } catch (Exception e) {
-                        String result = code + ": ERROR - " + e.getMessage();
-                        System.out.println(result);
-                        return result;
-                    }
-                });
-                futures.add(future);
+
+        System.out.println("Processing complete! " + written + " codes written to results.txt and "
+                + "code_analysis_results.txt, " + sources.duplicateCount() + " duplicate lines skipped");
+    }
+
+    /**
+     * Serves the input to --worker processes on --port (default 7311) and writes the usual
+     * reports from their results. Leases not answered within --lease-timeout (default 2m)
+     * are handed to another worker.
+     */
+    static void runCoordinator(RunOptions options, Shard shard) throws Exception {
+        long written;
+        CodeSources sources = new CodeSources(shard, options.has("sources"));
+        Metrics.Exporter metrics = Metrics.export(options);
+        try (metrics;
+             ResultCache cache = ResultCache.fromOptions(options);
+             RunJournal journal = RunJournal.fromOptions(options, outputPath(options, "results.txt").toString());
+             CodeInput input = CodeInput.fromOptions(options);
+             Coordinator coordinator = new Coordinator(options.getInt("port", Coordinator.DEFAULT_PORT),
+                     sources.unique(input), cache, journal,
+                     options.getDuration("lease-timeout", Duration.ofMinutes(2)))) {
+            System.out.println("Coordinating " + input.getSpec() + (shard.isAll() ? "" : " (shard " + shard + ")")
+                    + " on port " + coordinator.getPort() + ", waiting for workers...");
+            written = coordinator.run(reportStages(options, input, shard, sources));
+            System.out.println("Cache hits: " + cache.getHits() + ", leases re-queued: " + coordinator.getRequeued());
+        }
+
+        System.out.println("Processing complete! " + written + " codes written to results.txt and "
+                + "code_analysis_results.txt, " + sources.duplicateCount() + " duplicate lines skipped");
+    }
+
+    /**
+     * Looks up codes leased from a coordinator given by --connect=host:port until it has none left.
+     * Reports, cache and journal are kept by the coordinator.
+     */
+    static void runWorker(RunOptions options) throws Exception {
+        long written;
+        Metrics.Exporter metrics = Metrics.export(options);
+        try (metrics;
+             CoordinatorClient client = CoordinatorClient.fromOptions(options);
+             LookupEngine engine = LookupEngine.fromOptions(options, ResultCache.disabled(), null)) {
+            System.out.println("Working for coordinator " + options.get("connect", "127.0.0.1:" + Coordinator.DEFAULT_PORT)
+                    + (options.has("browser") ? " (browser mode)..." : "..."));
+            written = client.run(engine, List.of(new ResultStats(0,
+                    options.getDuration("progress-interval", Duration.ofSeconds(5)).toMillis())));
+            engine.summary().forEach(System.out::println);
+        }
+        System.out.println("Worker finished: " + written + " codes looked up");
+    }
+
+    /**
+     * Keeps re-checking every code of the input and reports each change of result type on
+     * stdout and, with --events=file, as JSON lines. Runs until Ctrl+C or for --watch-for.
+     * Cache entries never count as fresh here, every check revalidates them instead.
+     */
+    static void runWatch(RunOptions options, Shard shard) throws Exception {
+        ResultCache cache = options.has("no-cache") ? ResultCache.disabled()
+                : new ResultCache(Paths.get(options.get("cache", ResultCache.DEFAULT_FILE.toString())),
+                        Duration.ZERO, Duration.ZERO, Duration.ZERO);
+        String eventsFile = options.get("events", null);
+        // Ctrl+C stops the watcher, the hook then waits until cache and events file are closed
+        CountDownLatch finished = new CountDownLatch(1);
+        Thread hook = null;
+        Metrics.Exporter metrics = Metrics.export(options);
+        try (metrics;
+             LookupEngine engine = LookupEngine.fromOptions(options, cache, null);
+             BufferedWriter events = eventsFile == null ? null : Files.newBufferedWriter(Paths.get(eventsFile),
+                     StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+            Watcher watcher = new Watcher(engine::lookup, Watcher.Options.from(options), event -> {
+                System.out.println(event);
+                if (events != null) {
+                    events.write(event.toJson());
+                    events.newLine();
+                    events.flush();
+                }
+            });
+            try (CodeInput input = CodeInput.fromOptions(options)) {
+                Iterator<String> codes = new CodeSources(shard, false).unique(input);
+                while (codes.hasNext()) {
+                    watcher.add(codes.next());
+                }
+            }
+            System.out.println("Watching " + watcher.size() + " codes" + (shard.isAll() ? "" : " (shard " + shard + ")")
+                    + mode(options) + "...");
+            hook = new Thread(() -> {
+                watcher.stop();
+                try {
+                    finished.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }, "watch-shutdown");
+            Runtime.getRuntime().addShutdownHook(hook);
+            watcher.run(options.getDuration("watch-for", null));
+            System.out.println("Watch finished: " + watcher.getChecks() + " checks, "
+                    + watcher.getEvents() + " changes");
+            engine.summary().forEach(System.out::println);
+        } finally {
+            finished.countDown();
+            if (hook != null) {
+                try {
+                    Runtime.getRuntime().removeShutdownHook(hook);
+                } catch (IllegalStateException e) {
+                    // Already shutting down, the hook is running
+                }
             }
-            
-            // Collect results as they complete
-            try (BufferedWriter writer = Files.newBufferedWriter(Paths.get("results.txt"))) {
-                for (Future<String> future : futures) {
+        }
+    }
+
+    /**
+     * Keeps one warm engine serving lookups on 127.0.0.1:--port (default 7312) until Ctrl+C or
+     * POST /shutdown. Query it with DaemonClient or any HTTP client.
+     */
+    static void runDaemon(RunOptions options) throws Exception {
+        CountDownLatch finished = new CountDownLatch(1);
+        Thread hook = null;
+        Metrics.Exporter metrics = Metrics.export(options);
+        try (metrics;
+             LookupEngine engine = LookupEngine.fromOptions(options, ResultCache.fromOptions(options), null)) {
+            long start = System.nanoTime();
+            engine.warmUp();
+            try (Daemon daemon = new Daemon(engine, options.getInt("port", Daemon.DEFAULT_PORT))) {
+                System.out.println("Daemon ready on 127.0.0.1:" + daemon.getPort() + mode(options) + " after "
+                        + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms warm-up");
+                hook = new Thread(() -> {
+                    daemon.stop();
                     try {
-                        String result = future.get();
-                        writer.write(result);
-                        writer.newLine();
-                        writer.flush(); // Write immediately as results come in
-                    } catch (Exception e) {
-                        System.err.println("Error getting result: " + e.getMessage());
+                        finished.await(10, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
                     }
-                }
+                }, "daemon-shutdown");
+                Runtime.getRuntime().addShutdownHook(hook);
+                daemon.await();
             }
+            System.out.println("Daemon stopped");
+            engine.summary().forEach(System.out::println);
         } finally {
-            executor.shutdown();
-            try {
-                if (!executor.awaitTermination(30, TimeUnit.SECONDS)) { // Reduced timeout
-                    executor.shutdownNow();
+            finished.countDown();
+            if (hook != null) {
+                try {
+                    Runtime.getRuntime().removeShutdownHook(hook);
+                } catch (IllegalStateException e) {
+                    // Already shutting down, the hook is running
                 }
-            } catch (InterruptedException e) {
-                executor.shutdownNow();
             }
         }
-        
-        System.out.println("Processing complete!");
+    }
+
+    /**
+     * Progress, results.txt, the analysis report, the sources report and any --jsonl/--csv output.
+     * The progress line has an ETA only with --eta, which counts the input in a pass of its own.
+     */
+    private static List<LookupEngine.Stage> reportStages(RunOptions options, CodeInput input, Shard shard,
+                                                         CodeSources sources) throws IOException {
+        List<LookupEngine.Stage> stages = new ArrayList<>();
+        long expected = options.has("eta") && input.isRepeatable() ? countUnique(input.getSpec(), shard) : 0;
+        stages.add(new ResultStats(expected,
+                options.getDuration("progress-interval", Duration.ofSeconds(5)).toMillis()));
+        stages.add(new FoundReport(outputPath(options, "results.txt")));
+        stages.add(new CodeAnalyzer.AnalysisReport(outputPath(options, "code_analysis_results.txt")));
+        if (sources.isTrackingSources()) {
+            stages.add(sources.stage(outputPath(options, "results_sources.tsv")));
+        }
+        stages.addAll(ResultWriter.fromOptions(options));
+        return stages;
+    }
+
+    private static String mode(RunOptions options) {
+        if (options.get("replay", null) != null) {
+            return " (replaying " + options.get("replay", null) + ")";
+        }
+        String mode = options.has("browser") ? " (browser mode" : "";
+        if (options.get("record", null) != null) {
+            mode += (mode.isEmpty() ? " (" : ", ") + "recording into " + options.get("record", null);
+        }
+        return mode.isEmpty() ? mode : mode + ")";
+    }
+
+    /**
+     * Site root from --base-url (default https://deejay.de/), always ending in a slash.
+     * Point it at a local stub to measure or test without the real site.
+     */
+    static String baseUrl(RunOptions options) {
+        String baseUrl = options.get("base-url", BASE_URL);
+        return baseUrl.endsWith("/") ? baseUrl : baseUrl + "/";
+    }
+
+    /**
+     * Where a report file goes: --output-dir (default the working directory)
+     */
+    static Path outputPath(RunOptions options, String name) {
+        return Paths.get(options.get("output-dir", ".")).resolve(name).normalize();
+    }
+
+    /**
+     * Number of distinct canonical codes of a shard in the input, for progress and ETA
+     */
+    static long countUnique(String spec, Shard shard) throws IOException {
+        try (CodeInput input = CodeInput.open(spec)) {
+            Iterator<String> codes = new CodeSources(shard, false).unique(input);
+            long count = 0;
+            while (codes.hasNext()) {
+                codes.next();
+                count++;
+            }
+            return count;
+        }
+    }
+
+    /**
+     * Writes the FOUND / NOT FOUND line of every result to results.txt as it comes in
+     */
+    public static class FoundReport implements LookupEngine.Stage {
+        private final BufferedWriter writer;
+
+        public FoundReport(Path path) throws IOException {
+            this.writer = Files.newBufferedWriter(path);
+        }
+
+        @Override
+        public void accept(CodeAnalyzer.AnalysisResult analysis) throws IOException {
+            String result = describe(analysis);
+            System.out.println(result);
+            writer.write(result);
+            writer.newLine();
+            writer.flush(); // Write immediately as results come in
+        }
+
+        @Override
+        public void finish() throws IOException {
+            writer.close();
+        }
     }
 }
@@ -1,10 +1,13 @@
 package com.deejay;
 
 import com.microsoft.playwright.*;
+import com.microsoft.playwright.options.WaitUntilState;
 import java.io.*;
 import java.nio.file.*;
+import java.time.Duration;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.function.Supplier;
 
 public class CodeAnalyzer {
     
@@ -15,260 +18,284 @@ public class CodeAnalyzer {
      * @return AnalysisResult containing the findings
      */
     public static AnalysisResult analyzeCode(Page page, String code) {
+        return analyzeCode(page, code, Checker.READY_TIMEOUT);
+    }
+    
+    /**
+     * Analyzes a single code with one deadline for navigation and iframe readiness
+     * @param timeout Time allowed from navigation until the iframe is ready
+     */
+    public static AnalysisResult analyzeCode(Page page, String code, Duration timeout) {
+        return analyzeCode(page, code, timeout, null);
+    }
+    
+    /**
+     * Same as analyzeCode(page, code, timeout), also recording the iframe document into an archive
+     * @param archive may be null to record nothing
+     */
+    public static AnalysisResult analyzeCode(Page page, String code, Duration timeout, PageArchive archive) {
+        return analyzeCode(page, Checker.BASE_URL, code, timeout, archive);
+    }
+    
+    /**
+     * Same as analyzeCode(page, code, timeout, archive) against another site root
+     * @param baseUrl site root including the trailing slash, e.g. a local stub server
+     */
+    public static AnalysisResult analyzeCode(Page page, String baseUrl, String code, Duration timeout,
+                                             PageArchive archive) {
         try {
-            String url = "https://deejay.de/" + code;
+            String url = baseUrl + CodeCanonicalizer.urlSegment(code);
             System.out.println("Analyzing: " + url);
+            long deadline = System.nanoTime() + timeout.toNanos();
             
-            // Navigate to the page
-            page.navigate(url);
+            // Navigate to the page, only until the shell document is committed
+            long start = Metrics.start();
+            page.navigate(url, new Page.NavigateOptions()
+                .setWaitUntil(WaitUntilState.COMMIT)
+                .setTimeout(timeout.toMillis()));
+            Metrics.stage("navigate", start);
             
-            // Wait for the page to load
-            page.waitForLoadState();
+            // Same iframe handling as Checker, waiting for readiness signals within the remaining time
+            Frame iframe = Checker.waitForIframe(page, Duration.ofNanos(deadline - System.nanoTime()));
             
-            // Check if iframe exists and can be accessed
-            boolean iframeExists = checkIframeExists(page);
-            
-            if (!iframeExists) {
+            if (iframe == null) {
                 return new AnalysisResult(code, ResultType.STATIC_HTML_ONLY, 
                     "Iframe not found - only checking static HTML", 0);
             }
             
-            // Try to extract iframe content
-            String iframeContent = extractIframeContent(page);
-            
-            if (iframeContent == null || iframeContent.trim().isEmpty()) {
-                return new AnalysisResult(code, ResultType.STATIC_HTML_ONLY, 
-                    "Iframe content is empty - only checking static HTML", 0);
-            }
-            
-            // Check if iframe contains product indicators
-            boolean hasProducts = Checker.hasResults(iframeContent);
-            
-            if (!hasProducts) {
-                return new AnalysisResult(code, ResultType.STATIC_HTML_ONLY, 
-                    "Iframe contains no product indicators - only checking static HTML", 0);
+            // Classify inside the frame unless the document itself has to be recorded
+            if (archive == null) {
+                try {
+                    IframeSummary summary = IframeSummary.of(iframe);
+                    return classify(code, summary.hasResults(), summary.productCount());
+                } catch (PlaywrightException e) {
+                    Metrics.count("evaluate_fallbacks");
+                }
             }
             
-            // Count the number of products found
-            int productCount = countProducts(iframeContent);
+            // A frame that cannot be read throws, so it is retried rather than cached as not found
+            String iframeContent = Checker.iframeContent(iframe);
             
-            if (productCount == 1) {
-                return new AnalysisResult(code, ResultType.SINGLE_RESULT, 
-                    "Single product found in iframe", productCount);
-            } else if (productCount > 1) {
-                return new AnalysisResult(code, ResultType.MULTIPLE_RESULTS, 
-                    "Multiple products found in iframe", productCount);
-            } else {
-                return new AnalysisResult(code, ResultType.STATIC_HTML_ONLY, 
-                    "Iframe has product indicators but count is 0 - only checking static HTML", 0);
+            if (archive != null) {
+                archive.put(code, 200, iframeContent);
             }
+            return analyzeContent(code, iframeContent);
             
         } catch (Exception e) {
-            return new AnalysisResult(code, ResultType.ERROR, 
-                "Error analyzing code: " + e.getMessage(), 0);
+            // A timeout or a failed navigation is an ERROR, never a NOT FOUND
+            return errorResult(code, e);
         }
     }
     
     /**
-     * Checks if the iframe exists and is accessible
+     * Classifies the content.php iframe document of a code
+     * @param code The code the content belongs to
+     * @param iframeContent The iframe HTML, or null if it could not be read
+     * @return AnalysisResult containing the findings
      */
-    private static boolean checkIframeExists(Page page) {
-        try {
-            // Wait for iframe to appear with timeout
-            page.waitForSelector("iframe#myIframe", new Page.WaitForSelectorOptions().setTimeout(8000));
-            
-            // Try to get the iframe
-            Frame iframe = page.frameByUrl(url -> url.contains("content.php?param="));
-            return iframe != null;
-        } catch (Exception e) {
-            System.out.println("Iframe check failed: " + e.getMessage());
-            return false;
+    public static AnalysisResult analyzeContent(String code, String iframeContent) {
+        if (iframeContent == null || iframeContent.trim().isEmpty()) {
+            return new AnalysisResult(code, ResultType.STATIC_HTML_ONLY, 
+                "Iframe content is empty - only checking static HTML", 0);
         }
+        
+        // One pass over the document for every indicator
+        long start = Metrics.start();
+        IndicatorScanner.Indicators indicators = IndicatorScanner.scan(iframeContent);
+        Metrics.stage("classify", start);
+        
+        return classify(code, indicators.hasResults(), indicators.productCount());
     }
     
     /**
-     * Extracts the content from the iframe
+     * Result type and description from the indicators of an iframe, however they were found
      */
-    private static String extractIframeContent(Page page) {
-        try {
-            Frame iframe = page.frameByUrl(url -> url.contains("content.php?param="));
-            if (iframe == null) {
-                return null;
-            }
-            
-            // Wait a bit for iframe content to load
-            page.waitForTimeout(2000);
-            
-            return iframe.content();
-        } catch (Exception e) {
-            System.out.println("Iframe content extraction failed: " + e.getMessage());
-            return null;
+    static AnalysisResult classify(String code, boolean hasResults, int productCount) {
+        if (!hasResults) {
+            return new AnalysisResult(code, ResultType.STATIC_HTML_ONLY, 
+                "Iframe contains no product indicators - only checking static HTML", 0);
+        }
+        
+        if (productCount == 1) {
+            return new AnalysisResult(code, ResultType.SINGLE_RESULT, 
+                "Single product found in iframe", productCount);
+        } else if (productCount > 1) {
+            return new AnalysisResult(code, ResultType.MULTIPLE_RESULTS, 
+                "Multiple products found in iframe", productCount);
+        } else {
+            return new AnalysisResult(code, ResultType.STATIC_HTML_ONLY, 
+                "Iframe has product indicators but count is 0 - only checking static HTML", 0);
         }
     }
     
     /**
-     * Counts the number of products in the iframe content
+     * Classifies the outcome of a direct content.php request
      */
-    private static int countProducts(String iframeContent) {
-        if (iframeContent == null) return 0;
-        
-        int imageCount = 0;
-        int cartCount = 0;
-        int listCount = 0;
-        
-        // Count product images
-        if (iframeContent.contains("/pics/images/m/")) {
-            String[] lines = iframeContent.split("\n");
-            for (String line : lines) {
-                if (line.contains("/pics/images/m/") && line.contains("alt=")) {
-                    imageCount++;
-                }
-            }
-        }
-        
-        // Count add to cart links
-        if (iframeContent.contains("/addCart/")) {
-            String[] lines = iframeContent.split("\n");
-            for (String line : lines) {
-                if (line.contains("/addCart/")) {
-                    cartCount++;
-                }
-            }
+    static AnalysisResult analyzeFetched(String code, ContentFetcher.FetchResult fetched, Throwable error) {
+        if (error != null) {
+            return errorResult(code, error);
         }
-        
-        // Count product list containers
-        if (iframeContent.contains("class=\"product-list\"") || iframeContent.contains("class='product-list'")) {
-            listCount = 1; // At least one product list container
+        if (!fetched.isOk()) {
+            return new AnalysisResult(code, ResultType.ERROR, 
+                "Error analyzing code: HTTP " + fetched.statusCode, 0,
+                ContentFetcher.outcome(fetched, null) == AdaptiveLimiter.Outcome.DROPPED);
         }
-        
-        // More sophisticated counting logic
-        if (imageCount > 0 && cartCount > 0) {
-            // If we have both images and cart links, use the minimum count
-            return Math.min(imageCount, cartCount);
-        } else if (imageCount > 0) {
-            return imageCount;
-        } else if (cartCount > 0) {
-            return cartCount;
-        } else if (listCount > 0) {
-            // If we only have a product list container, assume at least 1 product
-            return 1;
+        if (fetched.indicators != null) {
+            // Classified while it streamed in
+            return classify(code, fetched.indicators.hasResults(), fetched.indicators.productCount());
         }
-        
-        return 0;
+        return analyzeContent(code, fetched.body);
     }
     
     /**
-     * Main method to analyze all codes from codes.txt
+     * ERROR result for a lookup that failed with an exception
      */
-    public static void main(String[] args) throws IOException {
-        // Read codes from codes.txt
-        List<String> codes = new ArrayList<>();
-        try (BufferedReader br = Files.newBufferedReader(Paths.get("codes.txt"))) {
-            String line;
-            while ((line = br.readLine()) != null) {
-                line = line.trim();
-                if (!line.isEmpty() && !line.startsWith("Processing:")) {
-                    codes.add(line);
-                }
-            }
-        }
-        
-        System.out.println("Analyzing " + codes.size() + " codes...");
-        System.out.println("=" .repeat(60));
-        
-        List<AnalysisResult> results = new ArrayList<>();
-        
-        try (Playwright playwright = Playwright.create()) {
-            try (Browser browser = playwright.chromium().launch(new BrowserType.LaunchOptions()
-                    .setHeadless(true)
-                    .setArgs(Arrays.asList("--no-sandbox", "--disable-dev-shm-usage")))) {
-                
-                Page page = browser.newPage();
-                
-                for (String code : codes) {
-                    AnalysisResult result = analyzeCode(page, code);
-                    results.add(result);
-                    
-                    // Print result immediately
-                    System.out.println(result);
-                    
-                    // Small delay between requests
-                    try {
-                        Thread.sleep(1000);
-                    } catch (InterruptedException e) {
-                        Thread.currentThread().interrupt();
-                        break;
-                    }
-                }
-                
-                page.close();
-            }
+    static AnalysisResult errorResult(String code, Throwable error) {
+        Metrics.count("errors");
+        Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+        return new AnalysisResult(code, ResultType.ERROR, 
+            "Error analyzing code: " + cause.getMessage(), 0, isTransient(cause));
+    }
+    
+    /**
+     * Timeouts and transport or browser failures are worth another try, anything else is not
+     */
+    static boolean isTransient(Throwable error) {
+        return error instanceof IOException || error instanceof TimeoutException
+            || error instanceof PlaywrightException;
+    }
+    
+    /**
+     * Takes a code from the journal of an interrupted run if it was finished there,
+     * otherwise runs the lookup and journals its result
+     */
+    static CompletableFuture<AnalysisResult> checkpointed(RunJournal journal, String code,
+                                                          Supplier<CompletableFuture<AnalysisResult>> lookup) {
+        AnalysisResult done = journal.completed(code);
+        if (done != null) {
+            Metrics.count("journal_hits");
+            return CompletableFuture.completedFuture(done);
         }
-        
-        // Print summary
-        printSummary(results);
-        
-        // Save detailed results to file
-        saveResultsToFile(results, "code_analysis_results.txt");
-        
-        System.out.println("\nAnalysis complete! Results saved to code_analysis_results.txt");
+        return lookup.get().thenApply(result -> {
+            journal.record(result);
+            return result;
+        });
     }
     
     /**
-     * Prints a summary of all results
+     * Serves a code from the cache while it is fresh, otherwise fetches and caches it.
+     * An expired entry is revalidated: on a 304 or an unchanged content hash its result is
+     * reused without parsing the document again. Without a cache nothing needs the document
+     * itself, so it is classified as it streams in.
      */
-    private static void printSummary(List<AnalysisResult> results) {
-        System.out.println("\n" + "=" .repeat(60));
-        System.out.println("ANALYSIS SUMMARY");
-        System.out.println("=" .repeat(60));
-        
-        Map<ResultType, Integer> counts = new HashMap<>();
-        for (ResultType type : ResultType.values()) {
-            counts.put(type, 0);
+    static CompletableFuture<AnalysisResult> lookup(ContentFetcher fetcher, ResultCache cache, String code) {
+        AnalysisResult cached = cache.get(code);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached);
         }
-        
-        for (AnalysisResult result : results) {
-            counts.put(result.resultType, counts.get(result.resultType) + 1);
+        ResultCache.Entry previous = cache.getEntry(code);
+        if (previous != null && !previous.hasValidators()) {
+            previous = null;
         }
+        ResultCache.Entry stale = previous;
+        CompletableFuture<ContentFetcher.FetchResult> fetch = stale == null
+                ? fetcher.fetch(code, null, null, cache.isEnabled())
+                : fetcher.fetch(code, stale.etag, stale.lastModified, true);
+        return fetch.handle((fetched, error) -> {
+            if (error != null) {
+                AnalysisResult result = errorResult(code, error);
+                cache.put(result, 0);
+                return result;
+            }
+            if (stale != null && fetched.isNotModified()) {
+                Metrics.count("not_modified");
+                cache.put(stale.toResult(code), 200, fetched.etag != null ? fetched.etag : stale.etag,
+                        fetched.lastModified != null ? fetched.lastModified : stale.lastModified, stale.contentHash);
+                return stale.toResult(code);
+            }
+            String hash = fetched.isOk() && fetched.body != null ? ContentFetcher.contentHash(fetched.body) : null;
+            AnalysisResult result;
+            if (stale != null && hash != null && hash.equals(stale.contentHash)) {
+                Metrics.count("content_unchanged");
+                result = stale.toResult(code);
+            } else {
+                result = analyzeFetched(code, fetched, null);
+            }
+            cache.put(result, fetched.statusCode, fetched.etag, fetched.lastModified, hash);
+            return result;
+        });
+    }
+    
+    /**
+     * Counts the number of products in the iframe content
+     */
+    public static int countProducts(String iframeContent) {
+        if (iframeContent == null) return 0;
         
-        System.out.printf("Total codes analyzed: %d%n", results.size());
-        System.out.printf("Single result: %d%n", counts.get(ResultType.SINGLE_RESULT));
-        System.out.printf("Multiple results: %d%n", counts.get(ResultType.MULTIPLE_RESULTS));
-        System.out.printf("Static HTML only: %d%n", counts.get(ResultType.STATIC_HTML_ONLY));
-        System.out.printf("Errors: %d%n", counts.get(ResultType.ERROR));
+        // Lines with a product image and alt text, lines with a cart link, in one pass
+        return IndicatorScanner.scan(iframeContent).productCount();
+    }
+    
+    /**
+     * Main method to analyze all codes from codes.txt.
+     * Runs the same single-pass engine as Checker, which writes both reports from one lookup per code.
+     */
+    public static void main(String[] args) throws Exception {
+        Checker.main(args);
     }
     
     /**
-     * Saves detailed results to a file
+     * Streams every result to code_analysis_results.txt as it arrives and appends the
+     * summary from running counters at the end of the run
      */
-    private static void saveResultsToFile(List<AnalysisResult> results, String filename) throws IOException {
-        try (BufferedWriter writer = Files.newBufferedWriter(Paths.get(filename))) {
+    public static class AnalysisReport implements LookupEngine.Stage {
+        private final Path path;
+        private final BufferedWriter writer;
+        private final ResultStats stats = new ResultStats(0, 0);
+        
+        public AnalysisReport(Path path) throws IOException {
+            this.path = path;
+            this.writer = Files.newBufferedWriter(path);
             writer.write("CODE ANALYSIS RESULTS\n");
             writer.write("=" .repeat(60) + "\n\n");
+        }
+        
+        @Override
+        public void accept(AnalysisResult result) throws IOException {
+            stats.accept(result);
+            writer.write(result.toString() + "\n");
+        }
+        
+        @Override
+        public void finish() throws IOException {
+            // Print summary
+            printSummary(stats);
             
-            for (AnalysisResult result : results) {
-                writer.write(result.toString() + "\n");
-            }
-            
-            // Add summary
+            // Add summary to the detailed results file
             writer.write("\n" + "=" .repeat(60) + "\n");
             writer.write("SUMMARY\n");
             writer.write("=" .repeat(60) + "\n");
-            
-            Map<ResultType, Integer> counts = new HashMap<>();
-            for (ResultType type : ResultType.values()) {
-                counts.put(type, 0);
+            for (String line : stats.summaryLines()) {
+                writer.write(line + "\n");
             }
-            
-            for (AnalysisResult result : results) {
-                counts.put(result.resultType, counts.get(result.resultType) + 1);
-            }
-            
-            writer.write(String.format("Total codes analyzed: %d%n", results.size()));
-            writer.write(String.format("Single result: %d%n", counts.get(ResultType.SINGLE_RESULT)));
-            writer.write(String.format("Multiple results: %d%n", counts.get(ResultType.MULTIPLE_RESULTS)));
-            writer.write(String.format("Static HTML only: %d%n", counts.get(ResultType.STATIC_HTML_ONLY)));
-            writer.write(String.format("Errors: %d%n", counts.get(ResultType.ERROR)));
+            writer.close();
+            System.out.println("Analysis results saved to " + path);
+        }
+        
+        public ResultStats getStats() {
+            return stats;
+        }
+    }
+    
+    /**
+     * Prints a summary of all results
+     */
+    private static void printSummary(ResultStats stats) {
+        System.out.println("\n" + "=" .repeat(60));
+        System.out.println("ANALYSIS SUMMARY");
+        System.out.println("=" .repeat(60));
+        for (String line : stats.summaryLines()) {
+            System.out.println(line);
         }
     }
     
@@ -290,12 +317,27 @@ public class CodeAnalyzer {
         public final ResultType resultType;
         public final String description;
         public final int productCount;
+        /** ERROR that may go away on its own: a timeout, a transport error or a 429/5xx */
+        public final boolean transientFailure;
         
         public AnalysisResult(String code, ResultType resultType, String description, int productCount) {
+            this(code, resultType, description, productCount, false);
+        }
+        
+        public AnalysisResult(String code, ResultType resultType, String description, int productCount,
+                              boolean transientFailure) {
             this.code = code;
             this.resultType = resultType;
             this.description = description;
             this.productCount = productCount;
+            this.transientFailure = transientFailure && resultType == ResultType.ERROR;
+        }
+        
+        /**
+         * True for results that Checker reports as FOUND
+         */
+        public boolean isFound() {
+            return resultType == ResultType.SINGLE_RESULT || resultType == ResultType.MULTIPLE_RESULTS;
         }
         
         @Override
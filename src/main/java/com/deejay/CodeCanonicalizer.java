@@ -0,0 +1,47 @@
+package com.deejay;
+
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.text.Normalizer;
+import java.util.Locale;
+
+/**
+ * Normal form of the catalog numbers read from codes.txt.
+ *
+ * The codes come from OCR of sleeve photos, so the same catalog number shows up in
+ * different cases, with stray spaces or with full-width and look-alike characters.
+ * The canonical form is NFKC normalized, free of whitespace, upper case and uses a plain
+ * slash; the shop search does not distinguish these spellings either.
+ */
+public final class CodeCanonicalizer {
+
+    private CodeCanonicalizer() {
+    }
+
+    /**
+     * Canonical form of a code, e.g. " wh 03／21 " becomes "WH03/21". Empty if nothing is left.
+     */
+    public static String canonical(String code) {
+        String normalized = Normalizer.normalize(code, Normalizer.Form.NFKC);
+        StringBuilder sb = new StringBuilder(normalized.length());
+        for (int i = 0; i < normalized.length(); i++) {
+            char c = normalized.charAt(i);
+            if (Character.isWhitespace(c) || Character.isSpaceChar(c)) {
+                continue;
+            }
+            if (c == '\u2044' || c == '\u2215' || c == '\\') {
+                // Fraction slash, division slash and backslash are OCR misreads of '/'
+                c = '/';
+            }
+            sb.append(c);
+        }
+        return sb.toString().toUpperCase(Locale.ROOT);
+    }
+
+    /**
+     * Code as a single URL path segment, e.g. WH03/21 becomes WH03%2F21
+     */
+    public static String urlSegment(String code) {
+        return URLEncoder.encode(code, StandardCharsets.UTF_8).replace("+", "%20");
+    }
+}
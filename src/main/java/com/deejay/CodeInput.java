@@ -0,0 +1,108 @@
+package com.deejay;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.stream.Stream;
+
+/**
+ * Lazily read lines of the code input: one file, every file of a directory, or stdin.
+ *
+ * Only one reader is open at a time and lines are handed out as they are read, so the
+ * lookups start right away and memory does not grow with the size of the input.
+ */
+public class CodeInput implements Iterator<String>, AutoCloseable {
+    private final String spec;
+    private final Iterator<Path> files;
+    private BufferedReader reader;
+    private String next;
+
+    private CodeInput(String spec, List<Path> files, BufferedReader stdin) {
+        this.spec = spec;
+        this.files = files.iterator();
+        this.reader = stdin;
+    }
+
+    /**
+     * Opens a file, a directory (its regular files in name order) or "-" for stdin
+     */
+    public static CodeInput open(String spec) throws IOException {
+        if (spec.equals("-")) {
+            return new CodeInput(spec, List.of(),
+                    new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8)));
+        }
+        Path path = Paths.get(spec);
+        if (!Files.isDirectory(path)) {
+            return new CodeInput(spec, List.of(path), null);
+        }
+        try (Stream<Path> entries = Files.list(path)) {
+            return new CodeInput(spec, entries
+                    .filter(Files::isRegularFile)
+                    .filter(p -> !p.getFileName().toString().startsWith("."))
+                    .sorted()
+                    .toList(), null);
+        }
+    }
+
+    /**
+     * Input from --input=&lt;file|dir|-&gt;, codes.txt if not given
+     */
+    public static CodeInput fromOptions(RunOptions options) throws IOException {
+        return open(options.get("input", "codes.txt"));
+    }
+
+    /**
+     * True unless the input is stdin, i.e. it can be opened and read again
+     */
+    public boolean isRepeatable() {
+        return !spec.equals("-");
+    }
+
+    public String getSpec() {
+        return spec;
+    }
+
+    @Override
+    public boolean hasNext() {
+        try {
+            while (next == null) {
+                if (reader == null) {
+                    if (!files.hasNext()) {
+                        return false;
+                    }
+                    reader = Files.newBufferedReader(files.next(), StandardCharsets.UTF_8);
+                }
+                next = reader.readLine();
+                if (next == null) {
+                    reader.close();
+                    reader = null;
+                    if (spec.equals("-")) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public String next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        String line = next;
+        next = null;
+        return line;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (reader != null && !spec.equals("-")) {
+            reader.close();
+        }
+        reader = null;
+    }
+}
@@ -0,0 +1,188 @@
+package com.deejay;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Where each canonical code came from in codes.txt.
+ *
+ * codes.txt is made of "Processing: &lt;image&gt;.JPG" blocks with the codes OCR'd from that
+ * image below them. While the lines are read, every code is canonicalized and only its
+ * first occurrence is passed on for lookup; later duplicates are remembered with their
+ * line and image so the single result can be reported for all of them.
+ *
+ * With a shard, codes owned by other shards are skipped before they are remembered, and
+ * without source tracking only the set of codes already seen is kept, so memory grows with
+ * the distinct codes of this shard and not with the input.
+ */
+public class CodeSources {
+    private static final String IMAGE_PREFIX = "Processing:";
+
+    private final Shard shard;
+    private final boolean trackSources;
+    private final Set<String> seen = new HashSet<>();
+    private final Map<String, List<Occurrence>> occurrences = new LinkedHashMap<>();
+    private final Map<String, CodeAnalyzer.AnalysisResult> results = new HashMap<>();
+    private int lines;
+    private int duplicates;
+
+    public CodeSources() {
+        this(Shard.ALL, true);
+    }
+
+    /**
+     * @param shard only codes owned by this shard are passed on
+     * @param trackSources remember line and image of every occurrence for the source report
+     */
+    public CodeSources(Shard shard, boolean trackSources) {
+        this.shard = shard;
+        this.trackSources = trackSources;
+    }
+
+    /**
+     * A code as it appeared on one line of codes.txt
+     */
+    public static class Occurrence {
+        public final int line;
+        public final String raw;
+        public final String image;
+
+        public Occurrence(int line, String raw, String image) {
+            this.line = line;
+            this.raw = raw;
+            this.image = image;
+        }
+    }
+
+    /**
+     * Canonical codes in order of first appearance, read lazily from the lines
+     */
+    public Iterator<String> unique(Iterator<String> lines) {
+        return new Iterator<>() {
+            private String image;
+            private String next;
+
+            @Override
+            public boolean hasNext() {
+                while (next == null && lines.hasNext()) {
+                    next = add(lines.next());
+                }
+                return next != null;
+            }
+
+            @Override
+            public String next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                String code = next;
+                next = null;
+                return code;
+            }
+
+            private String add(String line) {
+                int lineNumber;
+                synchronized (CodeSources.this) {
+                    lineNumber = ++CodeSources.this.lines;
+                }
+                line = line.trim();
+                if (line.startsWith(IMAGE_PREFIX)) {
+                    image = line.substring(IMAGE_PREFIX.length()).trim();
+                    return null;
+                }
+                String code = CodeCanonicalizer.canonical(line);
+                if (code.isEmpty() || !shard.owns(code)) {
+                    return null;
+                }
+                synchronized (CodeSources.this) {
+                    if (trackSources) {
+                        occurrences.computeIfAbsent(code, c -> new ArrayList<>(1))
+                                .add(new Occurrence(lineNumber, line, image));
+                    }
+                    if (seen.add(code)) {
+                        return code;
+                    }
+                    duplicates++;
+                    return null;
+                }
+            }
+        };
+    }
+
+    /**
+     * Reads all unique canonical codes of a codes.txt style file
+     */
+    public List<String> read(Path path) throws IOException {
+        List<String> codes = new ArrayList<>();
+        try (BufferedReader reader = Files.newBufferedReader(path)) {
+            unique(reader.lines().iterator()).forEachRemaining(codes::add);
+        }
+        return codes;
+    }
+
+    public synchronized List<Occurrence> occurrences(String code) {
+        return List.copyOf(occurrences.getOrDefault(code, List.of()));
+    }
+
+    /**
+     * Number of code lines that were dropped because their canonical code was already seen
+     */
+    public synchronized int duplicateCount() {
+        return duplicates;
+    }
+
+    public boolean isTrackingSources() {
+        return trackSources;
+    }
+
+    /**
+     * Remembers the result of a canonical code for the source report
+     */
+    public synchronized void record(CodeAnalyzer.AnalysisResult result) {
+        if (!trackSources) {
+            return;
+        }
+        results.put(result.code, result);
+    }
+
+    /**
+     * Stage that records every result and writes the source report at the end of the run
+     */
+    public LookupEngine.Stage stage(Path report) {
+        return new LookupEngine.Stage() {
+            @Override
+            public void accept(CodeAnalyzer.AnalysisResult result) {
+                record(result);
+            }
+
+            @Override
+            public void finish() throws IOException {
+                writeReport(report);
+            }
+        };
+    }
+
+    /**
+     * Writes one tab separated line per code line of the input: line, image, code as read,
+     * canonical code and result
+     */
+    public synchronized void writeReport(Path path) throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(path)) {
+            writer.write("line\timage\tcode\tcanonical\tresult");
+            writer.newLine();
+            Map<Occurrence, String> byLine = new TreeMap<>(Comparator.comparingInt(o -> o.line));
+            occurrences.forEach((code, seen) -> seen.forEach(occurrence -> byLine.put(occurrence, code)));
+            for (Map.Entry<Occurrence, String> entry : byLine.entrySet()) {
+                Occurrence occurrence = entry.getKey();
+                CodeAnalyzer.AnalysisResult result = results.get(entry.getValue());
+                String outcome = result == null ? "PENDING"
+                        : result.resultType == CodeAnalyzer.ResultType.ERROR ? "ERROR"
+                        : result.isFound() ? "FOUND" : "NOT FOUND";
+                writer.write(occurrence.line + "\t" + (occurrence.image == null ? "" : occurrence.image) + "\t"
+                        + occurrence.raw + "\t" + entry.getValue() + "\t" + outcome);
+                writer.newLine();
+            }
+        }
+    }
+}
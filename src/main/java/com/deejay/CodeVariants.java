@@ -0,0 +1,243 @@
+package com.deejay;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Spelling variants of a catalog number and the speculative probing of them.
+ *
+ * OCR'd codes often miss the form the site uses: MNR007 is listed as MNR007NOCOVER,
+ * RAWQTROO3 is RAWQTR003 and VAM08 may be VAM008. When a code comes back NOT FOUND its
+ * variants are looked up at once, most likely first; the first one that is FOUND wins, the
+ * probes still in flight are cancelled and those that have not started are dropped. The number
+ * of variants per code is capped by a budget.
+ */
+public class CodeVariants {
+    // Letters OCR confuses with digits, and the reverse
+    private static final String CONFUSABLE_LETTERS = "OILSBZ";
+    private static final String CONFUSABLE_DIGITS = "011582";
+    private static final String DIGITS_AS_LETTERS_FROM = "01582";
+    private static final String DIGITS_AS_LETTERS_TO = "OISBZ";
+
+    private static final ExecutorService PROBES = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "variant-probe");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final int budget;
+    private final int parallelism;
+    private final List<String> suffixes;
+
+    /**
+     * Probes every variant of a code at once: the budget is small and all of them go through the
+     * limiter, so a narrower window would only add round trips before a hit
+     * @param budget most variants probed per code
+     * @param suffixes label suffixes the site appends to some catalog numbers, e.g. NOCOVER
+     */
+    public CodeVariants(int budget, List<String> suffixes) {
+        this(budget, budget, suffixes);
+    }
+
+    /**
+     * @param budget most variants probed per code
+     * @param parallelism most probes of one code in flight at once
+     * @param suffixes label suffixes the site appends to some catalog numbers, e.g. NOCOVER
+     */
+    public CodeVariants(int budget, int parallelism, List<String> suffixes) {
+        this.budget = budget;
+        this.parallelism = Math.max(1, parallelism);
+        this.suffixes = suffixes;
+    }
+
+    /**
+     * --variants turns probing on; --variant-budget (default 8), --variant-parallelism
+     * (default the budget) and --variant-suffixes (default NOCOVER) tune it. Returns null when probing is off.
+     */
+    public static CodeVariants fromOptions(RunOptions options) {
+        if (!options.has("variants") && options.get("variant-budget", null) == null) {
+            return null;
+        }
+        List<String> suffixes = new ArrayList<>();
+        for (String suffix : options.get("variant-suffixes", "NOCOVER").split(",")) {
+            if (!suffix.isBlank()) {
+                suffixes.add(CodeCanonicalizer.canonical(suffix));
+            }
+        }
+        int budget = options.getInt("variant-budget", 8);
+        return new CodeVariants(budget, options.getInt("variant-parallelism", budget), suffixes);
+    }
+
+    /**
+     * Variants of a canonical code, most likely first, without the code itself
+     */
+    public List<String> candidates(String code) {
+        Set<String> variants = new LinkedHashSet<>();
+        int end = code.length();
+        int tail = end;
+        while (tail > 0 && Character.isLetter(code.charAt(tail - 1))) tail--;
+        int numberEnd = tail;
+        int numberStart = numberEnd;
+        while (numberStart > 0 && Character.isDigit(code.charAt(numberStart - 1))) numberStart--;
+
+        if (numberStart < numberEnd) {
+            String prefix = code.substring(0, numberStart);
+            String number = code.substring(numberStart, numberEnd);
+            String suffix = code.substring(numberEnd);
+
+            // Letters right before the number read as digits: RAWQTROO3 -> RAWQTRO03, RAWQTR003
+            StringBuilder digits = new StringBuilder(number);
+            for (int i = prefix.length() - 1; i > 0; i--) {
+                int confusable = CONFUSABLE_LETTERS.indexOf(prefix.charAt(i));
+                if (confusable < 0) {
+                    break;
+                }
+                digits.insert(0, CONFUSABLE_DIGITS.charAt(confusable));
+                variants.add(prefix.substring(0, i) + digits + suffix);
+            }
+
+            // Zero padding: VAM08 -> VAM008, VAM8, VAM0008
+            String stripped = number.replaceFirst("^0+(?=\\d)", "");
+            for (int width = 3; width <= 4; width++) {
+                if (stripped.length() < width) {
+                    variants.add(prefix + "0".repeat(width - stripped.length()) + stripped + suffix);
+                }
+            }
+            variants.add(prefix + stripped + suffix);
+        }
+
+        // Confusables inside a run: a letter between digits, a digit between letters
+        for (int i = 1; i < end - 1; i++) {
+            char c = code.charAt(i);
+            char before = code.charAt(i - 1);
+            char after = code.charAt(i + 1);
+            int letter = CONFUSABLE_LETTERS.indexOf(c);
+            int digit = DIGITS_AS_LETTERS_FROM.indexOf(c);
+            if (letter >= 0 && Character.isDigit(before) && Character.isDigit(after)) {
+                variants.add(code.substring(0, i) + CONFUSABLE_DIGITS.charAt(letter) + code.substring(i + 1));
+            } else if (digit >= 0 && Character.isLetter(before) && Character.isLetter(after)) {
+                variants.add(code.substring(0, i) + DIGITS_AS_LETTERS_TO.charAt(digit) + code.substring(i + 1));
+            }
+        }
+
+        // Label suffixes, added or taken off
+        for (String suffix : suffixes) {
+            if (code.endsWith(suffix) && code.length() > suffix.length()) {
+                variants.add(code.substring(0, code.length() - suffix.length()));
+            } else {
+                variants.add(code + suffix);
+            }
+        }
+
+        variants.remove(code);
+        List<String> candidates = new ArrayList<>(variants);
+        return candidates.size() > budget ? candidates.subList(0, budget) : candidates;
+    }
+
+    /**
+     * Probes the variants of a code that came back NOT FOUND, at most parallelism at a time.
+     * @param primary result of the code itself; anything but NOT FOUND is returned unchanged
+     * @param lookup looks up a single variant; its future is cancelled when another variant wins
+     * @return the first FOUND variant reported under the original code, otherwise primary
+     */
+    public CompletableFuture<CodeAnalyzer.AnalysisResult> probe(String code, CodeAnalyzer.AnalysisResult primary,
+            Function<String, CompletableFuture<CodeAnalyzer.AnalysisResult>> lookup) {
+        if (primary.resultType != CodeAnalyzer.ResultType.STATIC_HTML_ONLY) {
+            return CompletableFuture.completedFuture(primary);
+        }
+        List<String> candidates = candidates(code);
+        if (candidates.isEmpty()) {
+            return CompletableFuture.completedFuture(primary);
+        }
+        long start = Metrics.start();
+        Probing probing = new Probing(code, primary, candidates, lookup);
+        for (int i = 0; i < Math.min(parallelism, candidates.size()); i++) {
+            probing.startNext();
+        }
+        // The losers are cancelled before the caller sees the winner
+        return probing.winner.whenComplete((result, error) -> {
+            probing.cancelRunning();
+            Metrics.stage("variant_probe", start);
+        });
+    }
+
+    /**
+     * Variants of one code still to probe; each finished probe starts the next one and the
+     * probes still running when one wins are cancelled
+     */
+    private static final class Probing {
+        final String code;
+        final CodeAnalyzer.AnalysisResult primary;
+        final List<String> candidates;
+        final Function<String, CompletableFuture<CodeAnalyzer.AnalysisResult>> lookup;
+        final CompletableFuture<CodeAnalyzer.AnalysisResult> winner = new CompletableFuture<>();
+        final AtomicInteger next = new AtomicInteger();
+        final AtomicInteger pending;
+        final Set<CompletableFuture<CodeAnalyzer.AnalysisResult>> running = ConcurrentHashMap.newKeySet();
+
+        Probing(String code, CodeAnalyzer.AnalysisResult primary, List<String> candidates,
+                Function<String, CompletableFuture<CodeAnalyzer.AnalysisResult>> lookup) {
+            this.code = code;
+            this.primary = primary;
+            this.candidates = candidates;
+            this.lookup = lookup;
+            this.pending = new AtomicInteger(candidates.size());
+        }
+
+        void startNext() {
+            int index = next.getAndIncrement();
+            if (index >= candidates.size()) {
+                return;
+            }
+            String variant = candidates.get(index);
+            if (winner.isDone()) {
+                // Probes that have not started by the time another one won are dropped
+                Metrics.count("variant_probes_cancelled");
+                finished();
+                startNext();
+                return;
+            }
+            Metrics.count("variant_probes");
+            // The lookup may block on the limiter, so it never runs on the thread that finished a probe
+            CompletableFuture.supplyAsync(() -> track(lookup.apply(variant)), PROBES).thenCompose(result -> result)
+                    .whenComplete((result, error) -> {
+                        if (result != null && result.isFound() && winner.complete(new CodeAnalyzer.AnalysisResult(
+                                code, result.resultType, "Found as " + variant + ": " + result.description,
+                                result.productCount))) {
+                            Metrics.count("variant_hits");
+                        }
+                        finished();
+                        startNext();
+                    });
+        }
+
+        private CompletableFuture<CodeAnalyzer.AnalysisResult> track(
+                CompletableFuture<CodeAnalyzer.AnalysisResult> probe) {
+            running.add(probe);
+            probe.whenComplete((result, error) -> running.remove(probe));
+            if (winner.isDone()) {
+                // Another variant won while this one was being started
+                cancel(probe);
+            }
+            return probe;
+        }
+
+        void cancelRunning() {
+            running.forEach(Probing::cancel);
+        }
+
+        private static void cancel(CompletableFuture<CodeAnalyzer.AnalysisResult> probe) {
+            if (probe.cancel(true)) {
+                Metrics.count("variant_probes_cancelled");
+            }
+        }
+
+        private void finished() {
+            if (pending.decrementAndGet() == 0) {
+                winner.complete(primary);
+            }
+        }
+    }
+}
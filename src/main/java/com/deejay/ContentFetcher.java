@@ -0,0 +1,383 @@
+package com.deejay;
+
+import java.io.*;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.*;
+import java.nio.charset.*;
+import java.time.Duration;
+import java.util.Locale;
+import java.util.concurrent.*;
+
+/**
+ * Browserless fetch engine that requests the content.php iframe document directly.
+ *
+ * The shell page at https://deejay.de/&lt;code&gt; only hosts an iframe pointing at
+ * /content.php?param=%2F&lt;code&gt;, and that document is all the checkers read. A single
+ * HTTP/2 client keeps a few connections alive and multiplexes many lookups over them,
+ * so no browser is needed at all. Given the validators of an earlier response, a fetch is
+ * a conditional request that the site can answer with an empty 304 Not Modified. When
+ * nothing needs the document itself (no archive, no content hash), it is classified while
+ * it streams in and never held in memory as a whole.
+ */
+public class ContentFetcher implements AutoCloseable {
+    private final String baseUrl;
+    private final HttpClient client;
+    private final ExecutorService executor;
+    // Classifies streamed bodies; reading blocks, so it must not run on the client's threads
+    private final ExecutorService parsers;
+    private final AdaptiveLimiter limiter;
+    private final Duration requestTimeout;
+    private final SingleFlight<String, FetchResult> inFlight = new SingleFlight<>();
+    private volatile PageArchive archive;
+
+    public ContentFetcher() {
+        this(Checker.BASE_URL, new AdaptiveLimiter(1, 4, 32, 10), Duration.ofSeconds(15));
+    }
+
+    /**
+     * @param baseUrl site root including the trailing slash, e.g. https://deejay.de/
+     * @param maxInFlight fixed number of requests outstanding at once
+     * @param requestTimeout timeout for a single content.php request
+     */
+    public ContentFetcher(String baseUrl, int maxInFlight, Duration requestTimeout) {
+        this(baseUrl, AdaptiveLimiter.fixed(maxInFlight), requestTimeout);
+    }
+
+    /**
+     * @param baseUrl site root including the trailing slash, e.g. https://deejay.de/
+     * @param limiter controls how many requests are outstanding and how fast they start
+     * @param requestTimeout timeout for a single content.php request
+     */
+    public ContentFetcher(String baseUrl, AdaptiveLimiter limiter, Duration requestTimeout) {
+        this.baseUrl = baseUrl.endsWith("/") ? baseUrl : baseUrl + "/";
+        this.requestTimeout = requestTimeout;
+        this.limiter = limiter;
+        this.executor = Executors.newFixedThreadPool(4, r -> {
+            Thread t = new Thread(r, "content-fetcher");
+            t.setDaemon(true);
+            return t;
+        });
+        this.parsers = Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r, "content-parser");
+            t.setDaemon(true);
+            return t;
+        });
+        this.client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .connectTimeout(Duration.ofSeconds(10))
+                .executor(executor)
+                .build();
+    }
+
+    /**
+     * Builds the iframe document URL for a code, e.g. content.php?param=%2Fdtw004
+     */
+    public static String contentUrl(String baseUrl, String code) {
+        return baseUrl + "content.php?param=" + URLEncoder.encode("/" + code, StandardCharsets.UTF_8);
+    }
+
+    public String getBaseUrl() {
+        return baseUrl;
+    }
+
+    public AdaptiveLimiter getLimiter() {
+        return limiter;
+    }
+
+    /**
+     * Records every response into an archive for later replay, except throttling and transient
+     * failures. The caller keeps ownership of the archive.
+     */
+    public ContentFetcher setArchive(PageArchive archive) {
+        this.archive = archive;
+        return this;
+    }
+
+    /**
+     * Number of fetches that shared a request already in flight for the same canonical code
+     */
+    public long getCoalesced() {
+        return inFlight.getCoalesced();
+    }
+
+    /**
+     * Fetches the iframe document for a code asynchronously.
+     * Blocks the caller only while the limiter admits no further request. Concurrent
+     * fetches of the same canonical code with the same validators share one request.
+     */
+    public CompletableFuture<FetchResult> fetch(String code) {
+        return fetch(code, null, null);
+    }
+
+    /**
+     * Conditional fetch: sends If-None-Match and If-Modified-Since for the validators that
+     * are not null, so an unchanged document comes back as a 304 without a body
+     */
+    public CompletableFuture<FetchResult> fetch(String code, String etag, String lastModified) {
+        return fetch(code, etag, lastModified, true);
+    }
+
+    /**
+     * Conditional fetch that, with keepBody false, classifies the document while it is read and
+     * returns only its indicators (body is null). Without an archive nothing else needs it.
+     */
+    public CompletableFuture<FetchResult> fetch(String code, String etag, String lastModified, boolean keepBody) {
+        String canonical = CodeCanonicalizer.canonical(code);
+        boolean stream = !keepBody && archive == null;
+        // Only identical requests share a response: a 304 or a streamed result must never
+        // reach a caller that asked for something else
+        String key = canonical + "\t" + etag + "\t" + lastModified + (stream ? "\tstreamed" : "");
+        return inFlight.run(key, () -> send(canonical, etag, lastModified, stream));
+    }
+
+    /**
+     * Fetches the document with a request of its own, even if the same code is already in
+     * flight; used for hedged duplicates, which never need the body
+     */
+    public CompletableFuture<FetchResult> fetchUncoalesced(String code) {
+        return send(CodeCanonicalizer.canonical(code), null, null, archive == null);
+    }
+
+    private CompletableFuture<FetchResult> send(String code, String etag, String lastModified, boolean stream) {
+        long waitStart = Metrics.start();
+        try {
+            limiter.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return CompletableFuture.failedFuture(e);
+        }
+        Metrics.stage("limiter_wait", waitStart);
+        long start = System.nanoTime();
+        CompletableFuture<?> exchange;
+        CompletableFuture<FetchResult> sent;
+        try {
+            HttpRequest.Builder request = HttpRequest.newBuilder(URI.create(contentUrl(baseUrl, code)))
+                    .timeout(requestTimeout)
+                    .header("Referer", baseUrl + CodeCanonicalizer.urlSegment(code))
+                    .header("User-Agent", "Mozilla/5.0 (X11; Linux x86_64) deejay-checker")
+                    .GET();
+            if (etag != null) {
+                request.header("If-None-Match", etag);
+            }
+            if (lastModified != null) {
+                request.header("If-Modified-Since", lastModified);
+            }
+            if (stream) {
+                CompletableFuture<HttpResponse<InputStream>> streaming = client.sendAsync(request.build(),
+                        HttpResponse.BodyHandlers.ofInputStream());
+                exchange = streaming;
+                sent = streaming.thenApplyAsync(response -> classified(code, response, start), parsers);
+            } else {
+                CompletableFuture<HttpResponse<String>> buffered = client.sendAsync(request.build(),
+                        HttpResponse.BodyHandlers.ofString());
+                exchange = buffered;
+                sent = buffered.thenApply(response -> new FetchResult(code, response.statusCode(), response.body(),
+                        System.nanoTime() - start, response.headers().firstValue("ETag").orElse(null),
+                        response.headers().firstValue("Last-Modified").orElse(null)));
+            }
+        } catch (RuntimeException e) {
+            // Nothing was sent, so the permit goes back without counting towards the limit
+            limiter.release(AdaptiveLimiter.Outcome.IGNORED, System.nanoTime() - start);
+            return CompletableFuture.failedFuture(e);
+        }
+        CompletableFuture<FetchResult> done = sent.whenComplete((r, e) -> {
+            AdaptiveLimiter.Outcome outcome = outcome(r, e);
+            limiter.release(outcome, System.nanoTime() - start);
+            record(r, e, start);
+            PageArchive recorder = archive;
+            if (recorder != null && e == null && outcome != AdaptiveLimiter.Outcome.DROPPED && !r.isNotModified()
+                    && r.body != null) {
+                recorder.put(code, r.statusCode, r.body);
+            }
+        });
+        // Cancelling the fetch (a hedge that lost) aborts the exchange; the permit still goes
+        // back above, since the caller only ever sees a copy
+        CompletableFuture<FetchResult> result = done.copy();
+        result.whenComplete((r, e) -> {
+            if (result.isCancelled()) {
+                exchange.cancel(true);
+            }
+        });
+        return result;
+    }
+
+    private static void record(FetchResult result, Throwable error, long start) {
+        Metrics.stage("http_fetch", start);
+        if (error != null) {
+            Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+            Metrics.count(cause instanceof CancellationException ? "cancelled"
+                    : cause instanceof HttpTimeoutException ? "timeouts" : "transport_errors");
+            return;
+        }
+        Metrics.count(result.isOk() ? "http_ok" : result.isNotModified() ? "http_not_modified" : "http_errors");
+        if (result.indicators == null && result.body != null) {
+            // Bodies are plain ASCII HTML apart from a few characters, chars are close enough to bytes
+            Metrics.add("bytes_transferred", result.body.length());
+        }
+    }
+
+    /**
+     * Classifies a 200 body as it is read and closes the stream as soon as the page is settled;
+     * other responses are dropped unread. An empty body comes back as "" like a buffered one.
+     */
+    private static FetchResult classified(String code, HttpResponse<InputStream> response, long start) {
+        IndicatorScanner.Indicators indicators = null;
+        long bytes;
+        try (CountingInputStream body = new CountingInputStream(response.body())) {
+            if (response.statusCode() == 200) {
+                indicators = IndicatorScanner.scan(new InputStreamReader(body, charset(response)));
+            }
+            bytes = body.count;
+        } catch (IOException e) {
+            throw new CompletionException(e);
+        }
+        Metrics.add("bytes_transferred", bytes);
+        String etag = response.headers().firstValue("ETag").orElse(null);
+        String lastModified = response.headers().firstValue("Last-Modified").orElse(null);
+        long elapsed = System.nanoTime() - start;
+        if (indicators != null && bytes == 0) {
+            return new FetchResult(code, response.statusCode(), "", elapsed, etag, lastModified);
+        }
+        return new FetchResult(code, response.statusCode(), null, elapsed, etag, lastModified, indicators);
+    }
+
+    /**
+     * Charset named by the Content-Type header, UTF-8 if there is none or it is unknown
+     */
+    static Charset charset(HttpResponse<?> response) {
+        String type = response.headers().firstValue("Content-Type").orElse("");
+        int at = type.toLowerCase(Locale.ROOT).indexOf("charset=");
+        if (at < 0) {
+            return StandardCharsets.UTF_8;
+        }
+        String name = type.substring(at + "charset=".length()).split(";", 2)[0].trim().replace("\"", "");
+        try {
+            return Charset.forName(name);
+        } catch (IllegalArgumentException e) {
+            return StandardCharsets.UTF_8;
+        }
+    }
+
+    /**
+     * Counts the bytes read through it
+     */
+    private static final class CountingInputStream extends FilterInputStream {
+        long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                count += n;
+            }
+            return n;
+        }
+    }
+
+    /**
+     * Timeouts, transport errors and 429/502/503/504 responses mean the site wants us to slow down;
+     * a request we cancelled ourselves says nothing about the site
+     */
+    static AdaptiveLimiter.Outcome outcome(FetchResult result, Throwable error) {
+        Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+        if (cause instanceof CancellationException) {
+            return AdaptiveLimiter.Outcome.IGNORED;
+        }
+        if (error != null) {
+            return AdaptiveLimiter.Outcome.DROPPED;
+        }
+        return switch (result.statusCode) {
+            case 200, 304 -> AdaptiveLimiter.Outcome.SUCCESS;
+            case 429, 502, 503, 504 -> AdaptiveLimiter.Outcome.DROPPED;
+            default -> AdaptiveLimiter.Outcome.IGNORED;
+        };
+    }
+
+    /**
+     * 64-bit FNV-1a hash of a document as hex, to tell whether it changed without keeping it
+     */
+    public static String contentHash(String body) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0, n = body.length(); i < n; i++) {
+            hash ^= body.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return Long.toHexString(hash);
+    }
+
+    /**
+     * Fetches the iframe document for a code and waits for the response.
+     */
+    public FetchResult fetchSync(String code) throws Exception {
+        try {
+            return fetch(code).get();
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        }
+    }
+
+    @Override
+    public void close() {
+        parsers.shutdownNow();
+        executor.shutdownNow();
+    }
+
+    /**
+     * Response of a single content.php request
+     */
+    public static class FetchResult {
+        public final String code;
+        public final int statusCode;
+        /** The document, null if it was classified while streaming */
+        public final String body;
+        public final long elapsedNanos;
+        /** Validators of the response, null if the site sent none */
+        public final String etag;
+        public final String lastModified;
+        /** Classification of a streamed 200 body, null if the body was kept */
+        public final IndicatorScanner.Indicators indicators;
+
+        public FetchResult(String code, int statusCode, String body, long elapsedNanos) {
+            this(code, statusCode, body, elapsedNanos, null, null);
+        }
+
+        public FetchResult(String code, int statusCode, String body, long elapsedNanos, String etag,
+                           String lastModified) {
+            this(code, statusCode, body, elapsedNanos, etag, lastModified, null);
+        }
+
+        public FetchResult(String code, int statusCode, String body, long elapsedNanos, String etag,
+                           String lastModified, IndicatorScanner.Indicators indicators) {
+            this.code = code;
+            this.statusCode = statusCode;
+            this.body = body;
+            this.elapsedNanos = elapsedNanos;
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.indicators = indicators;
+        }
+
+        public boolean isOk() {
+            return statusCode == 200;
+        }
+
+        public boolean isNotModified() {
+            return statusCode == 304;
+        }
+    }
+}
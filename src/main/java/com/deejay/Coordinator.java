@@ -0,0 +1,269 @@
+package com.deejay;
+
+import java.io.*;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Work queue served over a local socket to any number of worker processes.
+ *
+ * The coordinator reads the input lazily, answers codes that the journal or the cache
+ * already know itself, and leases the rest one at a time to the workers that ask. A lease
+ * expires after --lease-timeout and is handed out again, and all leases of a worker whose
+ * connection drops are re-queued at once, so a dead or stuck worker never loses codes.
+ * Results come back over the same connection and go through the normal report stages.
+ *
+ * The protocol is line based UTF-8: a worker sends "LEASE" and gets "CODE &lt;code&gt;",
+ * "WAIT" (everything is leased, ask again shortly) or "DONE"; it sends
+ * "RESULT &lt;journal line&gt;" for every finished code, or "FAILED &lt;journal line&gt;"
+ * when the lookup ended in a transient error that must not be cached.
+ */
+public class Coordinator implements AutoCloseable {
+    static final int DEFAULT_PORT = 7311;
+    private static final int LOOKAHEAD = 64;
+
+    private final ServerSocket server;
+    private final Iterator<String> source;
+    private final ResultCache cache;
+    private final RunJournal journal;
+    private final long leaseNanos;
+    private final Deque<String> pending = new ArrayDeque<>();
+    private final Map<String, Lease> leased = new HashMap<>();
+    private final BlockingQueue<CodeAnalyzer.AnalysisResult> results = new LinkedBlockingQueue<>();
+    private final Set<Socket> connections = ConcurrentHashMap.newKeySet();
+    private final ThreadFactory threadFactory = ResultPipeline.threadFactory("coordinator");
+    private boolean sourceDone;
+    private long requeued;
+
+    private static class Lease {
+        final int worker;
+        final long deadline;
+
+        Lease(int worker, long deadline) {
+            this.worker = worker;
+            this.deadline = deadline;
+        }
+    }
+
+    /**
+     * Starts listening right away, workers may connect before run() is called
+     * @param port local port to listen on, 0 for any free port
+     * @param journal may be null to run without checkpoints
+     */
+    public Coordinator(int port, Iterator<String> source, ResultCache cache, RunJournal journal,
+                       Duration leaseTimeout) throws IOException {
+        this.server = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+        this.source = source;
+        this.cache = cache;
+        this.journal = journal;
+        this.leaseNanos = leaseTimeout.toNanos();
+        threadFactory.newThread(this::accept).start();
+    }
+
+    public int getPort() {
+        return server.getLocalPort();
+    }
+
+    /**
+     * Serves the queue until every code has a result, feeding results to the stages
+     * @return number of codes with a result
+     */
+    public long run(List<LookupEngine.Stage> stages) throws Exception {
+        long written = 0;
+        try {
+            while (true) {
+                refill();
+                CodeAnalyzer.AnalysisResult result = results.poll(200, TimeUnit.MILLISECONDS);
+                if (result != null) {
+                    for (LookupEngine.Stage stage : stages) {
+                        stage.accept(result);
+                    }
+                    written++;
+                } else if (isFinished() && results.isEmpty()) {
+                    break;
+                }
+            }
+        } finally {
+            for (LookupEngine.Stage stage : stages) {
+                stage.finish();
+            }
+            if (journal != null) {
+                journal.sync();
+            }
+        }
+        return written;
+    }
+
+    private void accept() {
+        int workers = 0;
+        while (!server.isClosed()) {
+            try {
+                Socket socket = server.accept();
+                int worker = ++workers;
+                connections.add(socket);
+                threadFactory.newThread(() -> serve(socket, worker)).start();
+            } catch (IOException e) {
+                // Closed
+            }
+        }
+    }
+
+    private void serve(Socket socket, int worker) {
+        try (socket;
+             BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+             Writer out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (line.equals("LEASE")) {
+                    out.write(lease(worker));
+                    out.write('\n');
+                    out.flush();
+                } else {
+                    CodeAnalyzer.AnalysisResult result = parseResultMessage(line);
+                    if (result != null) {
+                        complete(result);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            // Worker went away, its leases are re-queued below
+        } finally {
+            connections.remove(socket);
+            release(worker);
+        }
+    }
+
+    /**
+     * Message a worker sends for a finished code
+     */
+    static String resultMessage(CodeAnalyzer.AnalysisResult result) {
+        return (result.transientFailure ? "FAILED " : "RESULT ") + RunJournal.format(result);
+    }
+
+    /**
+     * Reads a message written by resultMessage(), or returns null if it is none
+     */
+    static CodeAnalyzer.AnalysisResult parseResultMessage(String line) {
+        if (line.startsWith("RESULT ")) {
+            return RunJournal.parse(line.substring("RESULT ".length()));
+        }
+        if (line.startsWith("FAILED ")) {
+            CodeAnalyzer.AnalysisResult result = RunJournal.parse(line.substring("FAILED ".length()));
+            return result == null ? null : new CodeAnalyzer.AnalysisResult(result.code, result.resultType,
+                    result.description, result.productCount, true);
+        }
+        return null;
+    }
+
+    /**
+     * Reply to a LEASE request
+     */
+    synchronized String lease(int worker) {
+        expire();
+        refill();
+        String code = pending.poll();
+        if (code != null) {
+            leased.put(code, new Lease(worker, System.nanoTime() + leaseNanos));
+            return "CODE " + code;
+        }
+        return isFinished() ? "DONE" : "WAIT";
+    }
+
+    /**
+     * Accepts the first result of a leased code, later duplicates are ignored
+     */
+    synchronized void complete(CodeAnalyzer.AnalysisResult result) {
+        String code = CodeCanonicalizer.canonical(result.code);
+        if (leased.remove(code) == null && !pending.remove(code)) {
+            return;
+        }
+        cache.put(result, result.resultType == CodeAnalyzer.ResultType.ERROR ? 0 : 200);
+        publish(result);
+    }
+
+    private void publish(CodeAnalyzer.AnalysisResult result) {
+        if (journal != null) {
+            journal.record(result);
+        }
+        results.add(result);
+    }
+
+    /**
+     * Puts all codes leased to a worker back at the front of the queue
+     */
+    synchronized void release(int worker) {
+        leased.entrySet().removeIf(entry -> {
+            if (entry.getValue().worker == worker) {
+                pending.addFirst(entry.getKey());
+                requeued++;
+                return true;
+            }
+            return false;
+        });
+    }
+
+    private synchronized void expire() {
+        long now = System.nanoTime();
+        leased.entrySet().removeIf(entry -> {
+            if (now - entry.getValue().deadline > 0) {
+                pending.addFirst(entry.getKey());
+                requeued++;
+                return true;
+            }
+            return false;
+        });
+    }
+
+    /**
+     * Reads ahead until enough codes are waiting for a worker. Codes the journal or the
+     * cache already know are answered right away and never leased.
+     */
+    private synchronized void refill() {
+        expire();
+        while (!sourceDone && pending.size() < LOOKAHEAD) {
+            if (!source.hasNext()) {
+                sourceDone = true;
+                break;
+            }
+            String code = CodeCanonicalizer.canonical(source.next());
+            CodeAnalyzer.AnalysisResult done = journal != null ? journal.completed(code) : null;
+            if (done != null) {
+                Metrics.count("journal_hits");
+                results.add(done);
+                continue;
+            }
+            CodeAnalyzer.AnalysisResult cached = cache.get(code);
+            if (cached != null) {
+                publish(cached);
+                continue;
+            }
+            pending.add(code);
+        }
+    }
+
+    synchronized boolean isFinished() {
+        return sourceDone && pending.isEmpty() && leased.isEmpty();
+    }
+
+    public synchronized long getRequeued() {
+        return requeued;
+    }
+
+    /**
+     * Codes leased to workers and not answered yet
+     */
+    public synchronized int getLeased() {
+        return leased.size();
+    }
+
+    @Override
+    public void close() throws IOException {
+        server.close();
+        for (Socket socket : connections) {
+            socket.close();
+        }
+    }
+}
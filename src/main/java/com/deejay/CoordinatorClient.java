@@ -0,0 +1,148 @@
+package com.deejay;
+
+import java.io.*;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.function.IntSupplier;
+
+/**
+ * Worker side of the coordinator protocol.
+ *
+ * Codes are leased from the coordinator one at a time, and only while fewer codes are out
+ * than the engine's limiter currently allows in flight, so a slow worker never sits on
+ * codes others could take. Every result is sent straight back. The worker keeps no reports, cache or journal of its own;
+ * the coordinator owns all of them.
+ */
+public class CoordinatorClient implements AutoCloseable {
+    private static final long WAIT_MILLIS = 500;
+
+    private final Socket socket;
+    private final BufferedReader in;
+    private final Writer out;
+    // Codes leased and not sent back yet
+    private int leased;
+
+    public CoordinatorClient(String host, int port) throws IOException {
+        this.socket = new Socket(host, port);
+        this.in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+        this.out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Parses --connect=host:port (default 127.0.0.1 and the default port)
+     */
+    public static CoordinatorClient fromOptions(RunOptions options) throws IOException {
+        String address = options.get("connect", "127.0.0.1:" + Coordinator.DEFAULT_PORT);
+        int colon = address.lastIndexOf(':');
+        if (colon < 0) {
+            return new CoordinatorClient(address, Coordinator.DEFAULT_PORT);
+        }
+        try {
+            return new CoordinatorClient(address.substring(0, colon), Integer.parseInt(address.substring(colon + 1)));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("--connect expects host:port but was: " + address);
+        }
+    }
+
+    /**
+     * Looks up leased codes until the coordinator has none left
+     * @return number of codes this worker looked up
+     */
+    public long run(LookupEngine engine, List<LookupEngine.Stage> stages) throws Exception {
+        List<LookupEngine.Stage> all = new ArrayList<>(stages);
+        all.add(this::send);
+        // No read-ahead: a queued lease would expire and be looked up twice. The pipeline has
+        // room for the limiter's maximum, so leases follow its current limit instead
+        AdaptiveLimiter limiter = engine.getLimiter();
+        return engine.run(leases(limiter != null ? limiter::getLimit : () -> Integer.MAX_VALUE), all, 0);
+    }
+
+    /**
+     * Codes as the coordinator hands them out; blocks while room() codes are already leased
+     * here or everything is leased elsewhere
+     */
+    Iterator<String> leases(IntSupplier room) {
+        return new Iterator<>() {
+            private String next;
+            private boolean done;
+
+            @Override
+            public boolean hasNext() {
+                while (next == null && !done) {
+                    if (!awaitRoom(room)) {
+                        done = true;
+                        break;
+                    }
+                    String reply = request();
+                    if (reply == null || reply.equals("DONE")) {
+                        done = true;
+                    } else if (reply.startsWith("CODE ")) {
+                        next = reply.substring("CODE ".length());
+                    } else {
+                        try {
+                            Thread.sleep(WAIT_MILLIS);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            done = true;
+                        }
+                    }
+                }
+                return next != null;
+            }
+
+            @Override
+            public String next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                String code = next;
+                next = null;
+                return code;
+            }
+        };
+    }
+
+    /**
+     * Waits until fewer than room() codes are leased; the limit is read again every wait
+     * @return false if interrupted
+     */
+    private synchronized boolean awaitRoom(IntSupplier room) {
+        while (leased >= room.getAsInt()) {
+            try {
+                wait(WAIT_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private synchronized String request() {
+        try {
+            out.write("LEASE\n");
+            out.flush();
+            String reply = in.readLine();
+            if (reply != null && reply.startsWith("CODE ")) {
+                leased++;
+            }
+            return reply;
+        } catch (IOException e) {
+            System.err.println("Lost connection to coordinator: " + e.getMessage());
+            return null;
+        }
+    }
+
+    private synchronized void send(CodeAnalyzer.AnalysisResult result) throws IOException {
+        out.write(Coordinator.resultMessage(result) + "\n");
+        out.flush();
+        leased--;
+        notifyAll();
+    }
+
+    @Override
+    public void close() throws IOException {
+        socket.close();
+    }
+}
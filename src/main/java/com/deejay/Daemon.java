@@ -0,0 +1,165 @@
+package com.deejay;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Long-lived lookup service on a local HTTP endpoint.
+ *
+ * The engine, its HTTP client or browser pool and the JIT stay warm between requests, so an
+ * ad-hoc lookup costs the round trip to the site and nothing else. Endpoints:
+ * <ul>
+ *   <li>{@code GET /lookup?code=A&code=B} or {@code POST /lookup} with one code per line:
+ *       streams one JSON line per code (as written by --jsonl) in completion order</li>
+ *   <li>{@code GET /status}: request counters and the engine summary</li>
+ *   <li>{@code POST /shutdown}: stops the daemon</li>
+ * </ul>
+ * The server only listens on the loopback interface.
+ */
+public class Daemon implements AutoCloseable {
+    public static final int DEFAULT_PORT = 7312;
+
+    private final LookupEngine engine;
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final CountDownLatch stopped = new CountDownLatch(1);
+    private final long started = System.nanoTime();
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong lookups = new AtomicLong();
+
+    /**
+     * Starts serving right away
+     * @param port 0 picks a free port
+     */
+    public Daemon(LookupEngine engine, int port) throws IOException {
+        this.engine = engine;
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        this.executor = Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r, "daemon-request");
+            t.setDaemon(true);
+            return t;
+        });
+        server.createContext("/lookup", this::handleLookup);
+        server.createContext("/status", this::handleStatus);
+        server.createContext("/shutdown", this::handleShutdown);
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Blocks until /shutdown is requested or stop() is called
+     */
+    public void await() throws InterruptedException {
+        stopped.await();
+    }
+
+    public void stop() {
+        stopped.countDown();
+    }
+
+    private void handleLookup(HttpExchange exchange) throws IOException {
+        requests.incrementAndGet();
+        List<String> codes = codes(exchange);
+        if (codes.isEmpty()) {
+            respond(exchange, 400, "No codes given, use /lookup?code=... or POST one code per line\n");
+            return;
+        }
+        // Every code is dispatched at once, the engine's limiter decides how many really run
+        BlockingQueue<CodeAnalyzer.AnalysisResult> done = new LinkedBlockingQueue<>();
+        for (String code : codes) {
+            CompletableFuture.supplyAsync(() -> engine.lookup(code), executor)
+                    .thenCompose(result -> result)
+                    .whenComplete((result, error) -> done.add(error == null ? result : CodeAnalyzer.errorResult(code, error)));
+        }
+        lookups.addAndGet(codes.size());
+        exchange.getResponseHeaders().set("Content-Type", "application/x-ndjson; charset=utf-8");
+        exchange.sendResponseHeaders(200, 0);
+        try (Writer out = new OutputStreamWriter(exchange.getResponseBody(), StandardCharsets.UTF_8)) {
+            for (int i = 0; i < codes.size(); i++) {
+                out.write(ResultWriter.toJson(done.take()));
+                out.write('\n');
+                out.flush();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Distinct canonical codes from the query string and the request body
+     */
+    private static List<String> codes(HttpExchange exchange) throws IOException {
+        Set<String> codes = new LinkedHashSet<>();
+        String query = exchange.getRequestURI().getRawQuery();
+        if (query != null) {
+            for (String param : query.split("&")) {
+                if (param.startsWith("code=")) {
+                    add(codes, URLDecoder.decode(param.substring(5), StandardCharsets.UTF_8));
+                }
+            }
+        }
+        try (BufferedReader body = new BufferedReader(
+                new InputStreamReader(exchange.getRequestBody(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = body.readLine()) != null) {
+                add(codes, line);
+            }
+        }
+        return new ArrayList<>(codes);
+    }
+
+    private static void add(Set<String> codes, String code) {
+        String canonical = CodeCanonicalizer.canonical(code);
+        if (!canonical.isEmpty()) {
+            codes.add(canonical);
+        }
+    }
+
+    private void handleStatus(HttpExchange exchange) throws IOException {
+        StringBuilder status = new StringBuilder();
+        status.append("Up ").append(TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - started)).append("s, ")
+                .append(requests.get()).append(" requests, ").append(lookups.get()).append(" lookups\n");
+        engine.summary().forEach(line -> status.append(line).append('\n'));
+        respond(exchange, 200, status.toString());
+    }
+
+    private void handleShutdown(HttpExchange exchange) throws IOException {
+        if (!exchange.getRequestMethod().equals("POST")) {
+            respond(exchange, 405, "Use POST /shutdown\n");
+            return;
+        }
+        respond(exchange, 200, "Stopping\n");
+        stop();
+    }
+
+    private static void respond(HttpExchange exchange, int status, String text) throws IOException {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    /**
+     * Stops accepting requests; the engine is closed by its owner
+     */
+    @Override
+    public void close() {
+        stop();
+        server.stop(1);
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,117 @@
+package com.deejay;
+
+import java.io.*;
+import java.net.ConnectException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * Thin command line client of a running Daemon.
+ *
+ * Sends the codes of --codes=A,B,... (or of --input, stdin with --input=-) to the daemon at
+ * --connect=host:port and prints every result as a JSON line as soon as it arrives. It loads
+ * neither Playwright nor the engine, so it starts in a fraction of a full run.
+ */
+public class DaemonClient {
+    private final HttpClient client = HttpClient.newHttpClient();
+    private final URI base;
+
+    public DaemonClient(String host, int port) {
+        this.base = URI.create("http://" + host + ":" + port + "/");
+    }
+
+    /**
+     * Parses --connect=host:port (default 127.0.0.1 and the default port)
+     */
+    public static DaemonClient fromOptions(RunOptions options) {
+        String address = options.get("connect", "127.0.0.1:" + Daemon.DEFAULT_PORT);
+        int colon = address.lastIndexOf(':');
+        if (colon < 0) {
+            return new DaemonClient(address, Daemon.DEFAULT_PORT);
+        }
+        try {
+            return new DaemonClient(address.substring(0, colon), Integer.parseInt(address.substring(colon + 1)));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("--connect expects host:port but was: " + address);
+        }
+    }
+
+    /**
+     * Looks the codes up in the daemon and hands over each result line as it arrives
+     * @return number of results received
+     */
+    public long lookup(Collection<String> codes, Consumer<String> lines) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder(base.resolve("lookup"))
+                .POST(HttpRequest.BodyPublishers.ofString(String.join("\n", codes), StandardCharsets.UTF_8))
+                .build();
+        HttpResponse<Stream<String>> response = client.send(request, HttpResponse.BodyHandlers.ofLines());
+        try (Stream<String> body = response.body()) {
+            if (response.statusCode() != 200) {
+                throw new IOException("Daemon answered " + response.statusCode() + ": " + String.join(" ", body.toList()));
+            }
+            long count = 0;
+            for (Iterator<String> it = body.iterator(); it.hasNext(); ) {
+                lines.accept(it.next());
+                count++;
+            }
+            return count;
+        }
+    }
+
+    /**
+     * The daemon's /status text
+     */
+    public String status() throws IOException, InterruptedException {
+        return client.send(HttpRequest.newBuilder(base.resolve("status")).GET().build(),
+                HttpResponse.BodyHandlers.ofString()).body();
+    }
+
+    public void shutdown() throws IOException, InterruptedException {
+        client.send(HttpRequest.newBuilder(base.resolve("shutdown")).POST(HttpRequest.BodyPublishers.noBody()).build(),
+                HttpResponse.BodyHandlers.discarding());
+    }
+
+    /**
+     * --codes=A,B or --input for lookups, --status and --shutdown for the daemon itself
+     */
+    public static void main(String[] args) throws Exception {
+        RunOptions options = RunOptions.parse(args);
+        DaemonClient client = fromOptions(options);
+        try {
+            if (options.has("status")) {
+                System.out.print(client.status());
+            } else if (options.has("shutdown")) {
+                client.shutdown();
+            } else {
+                client.lookup(codes(options), System.out::println);
+            }
+        } catch (ConnectException e) {
+            System.err.println("No daemon at " + options.get("connect", "127.0.0.1:" + Daemon.DEFAULT_PORT)
+                    + ", start one with: Checker --daemon");
+            System.exit(2);
+        }
+    }
+
+    /**
+     * Unique canonical codes of --codes or the input; "Processing:" image headers are skipped
+     */
+    static List<String> codes(RunOptions options) throws IOException {
+        List<String> codes = new ArrayList<>();
+        String list = options.get("codes", null);
+        if (list != null) {
+            new CodeSources(Shard.ALL, false).unique(Arrays.asList(list.split(",")).iterator())
+                    .forEachRemaining(codes::add);
+            return codes;
+        }
+        try (CodeInput input = CodeInput.fromOptions(options)) {
+            new CodeSources(Shard.ALL, false).unique(input).forEachRemaining(codes::add);
+        }
+        return codes;
+    }
+}
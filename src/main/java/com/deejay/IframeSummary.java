@@ -0,0 +1,122 @@
+package com.deejay;
+
+import com.microsoft.playwright.Frame;
+import java.util.Map;
+
+/**
+ * Compact classification of a content.php frame computed inside the browser.
+ *
+ * One selector query in the frame returns three values instead of the serialized document,
+ * so nothing but a small object crosses the CDP pipe. Entries are counted the way
+ * ProductExtractor keys them: product images and add to cart links are walked in document
+ * order, a cart id closes an entry, and only entries without one count each picture.
+ */
+public final class IframeSummary {
+    static final String SCRIPT = """
+            () => {
+                let products = 0;
+                let cart = null;
+                let cartBeforeImage = false;
+                let images = new Set();
+                const close = () => {
+                    if (images.size > 0 || cart !== null) {
+                        products += cart === null ? images.size : 1;
+                    }
+                    cart = null;
+                    images = new Set();
+                };
+                for (const el of document.querySelectorAll(
+                        "img[src*='/pics/images/m/'], a[href*='/addCart/'], .product")) {
+                    if (el.classList.contains('product')) {
+                        close();
+                    }
+                    const src = el.tagName === 'IMG' ? el.getAttribute('src') : null;
+                    const href = el.tagName === 'A' ? el.getAttribute('href') : null;
+                    if (src !== null && src.includes('/pics/images/m/') && !images.has(src)) {
+                        if (cart !== null && !cartBeforeImage && images.size > 0) {
+                            close();
+                        }
+                        images.add(src);
+                    } else if (href !== null && href.includes('/addCart/')) {
+                        const id = href.substring(href.indexOf('/addCart/') + 9).split(/[\\/?#&]/)[0];
+                        if (cart !== null && cart !== id) {
+                            close();
+                        }
+                        if (cart === null) {
+                            cartBeforeImage = images.size === 0;
+                        }
+                        cart = id;
+                    }
+                }
+                close();
+                let sorry = false;
+                if (document.body) {
+                    const walker = document.createTreeWalker(document.body, NodeFilter.SHOW_TEXT, node =>
+                        node.parentElement && node.parentElement.closest('script, style')
+                            ? NodeFilter.FILTER_REJECT : NodeFilter.FILTER_ACCEPT);
+                    while (!sorry && walker.nextNode()) {
+                        sorry = walker.currentNode.nodeValue.includes('Sorry, we didn');
+                    }
+                }
+                return {
+                    sorryMessage: sorry,
+                    productList: document.querySelector('.product-list') !== null,
+                    products: products
+                };
+            }""";
+
+    public final boolean sorryMessage;
+    public final boolean productList;
+    /** Product entries, keyed on their cart id */
+    public final int products;
+
+    IframeSummary(boolean sorryMessage, boolean productList, int products) {
+        this.sorryMessage = sorryMessage;
+        this.productList = productList;
+        this.products = products;
+    }
+
+    /**
+     * Evaluates the summary in the frame. Throws if scripting fails, e.g. when the frame
+     * navigated away or its context was destroyed.
+     */
+    public static IframeSummary of(Frame frame) {
+        long start = Metrics.start();
+        Object value = frame.evaluate(SCRIPT);
+        Metrics.stage("iframe_evaluate", start);
+        return from(value);
+    }
+
+    /**
+     * Reads the object returned by the script, as Playwright hands it to Java
+     */
+    static IframeSummary from(Object value) {
+        if (!(value instanceof Map<?, ?> map)) {
+            throw new IllegalStateException("Unexpected frame summary: " + value);
+        }
+        return new IframeSummary(Boolean.TRUE.equals(map.get("sorryMessage")),
+                Boolean.TRUE.equals(map.get("productList")),
+                number(map.get("products")));
+    }
+
+    private static int number(Object value) {
+        return value instanceof Number n ? n.intValue() : 0;
+    }
+
+    /**
+     * Same rule as ProductExtractor.Page: products or a product list, and no 'Sorry' page
+     */
+    public boolean hasResults() {
+        return !sorryMessage && (products > 0 || productList);
+    }
+
+    /**
+     * Number of entries; a product list without recognizable entries counts as one
+     */
+    public int productCount() {
+        if (sorryMessage) {
+            return 0;
+        }
+        return products > 0 ? products : productList ? 1 : 0;
+    }
+}
@@ -0,0 +1,290 @@
+package com.deejay;
+
+import java.io.*;
+import java.util.Arrays;
+
+/**
+ * Single-pass multi-pattern scanner for the product indicators of a content.php document.
+ *
+ * All indicator strings are compiled once into an Aho-Corasick automaton over a small
+ * character alphabet. A scan walks the CharSequence exactly once, keeps per-line flags for
+ * the line based product counting and allocates nothing but the returned Indicators. The
+ * same automaton also reads a response body from a Reader, so a document that is only
+ * classified never has to be held in memory.
+ */
+public final class IndicatorScanner {
+    static final String SORRY_MESSAGE = "Sorry, we didn´t find a matching Entry.";
+    static final String PRODUCT_IMAGE = "/pics/images/m/";
+    static final String ALT_ATTRIBUTE = "alt=";
+    static final String ADD_CART = "/addCart/";
+    static final String PRODUCT_LIST_DQ = "class=\"product-list\"";
+    static final String PRODUCT_LIST_SQ = "class='product-list'";
+
+    private static final int SORRY = 1;
+    private static final int IMAGE = 1 << 1;
+    private static final int ALT = 1 << 2;
+    private static final int CART = 1 << 3;
+    private static final int LIST = 1 << 4;
+    private static final int NEWLINE = 1 << 5;
+
+    private static final String[] PATTERNS = {
+        SORRY_MESSAGE, PRODUCT_IMAGE, ALT_ATTRIBUTE, ADD_CART, PRODUCT_LIST_DQ, PRODUCT_LIST_SQ
+    };
+    private static final int[] PATTERN_BITS = { SORRY, IMAGE, ALT, CART, LIST, LIST };
+
+    // Character class per char below 256, 0 for chars that appear in no pattern
+    private static final int[] LATIN_CLASSES = new int[256];
+    // Pattern chars at or above 256 and their classes
+    private static final char[] WIDE_CHARS;
+    private static final int[] WIDE_CLASSES;
+    private static final int WIDTH;
+    // Transition table by class, used for chars at or above 256: TRANSITIONS[state * WIDTH + class]
+    private static final int[] TRANSITIONS;
+    // Transition table by char below 256, the common case: LATIN_TRANSITIONS[state << 8 | c]
+    private static final int[] LATIN_TRANSITIONS;
+    // Indicator bits emitted when entering a state, fail-link outputs included
+    private static final int[] OUTPUTS;
+    // Chars below 256 that move the automaton off the root state
+    private static final boolean[] ROOT_EXITS = new boolean[256];
+
+    static {
+        StringBuilder wide = new StringBuilder();
+        int[] wideClasses = new int[16];
+        int classes = 1;
+        for (String pattern : PATTERNS) {
+            for (char c : pattern.toCharArray()) {
+                if (c < 256) {
+                    if (LATIN_CLASSES[c] == 0) LATIN_CLASSES[c] = classes++;
+                } else if (wide.indexOf(String.valueOf(c)) < 0) {
+                    wideClasses[wide.length()] = classes++;
+                    wide.append(c);
+                }
+            }
+        }
+        WIDE_CHARS = wide.toString().toCharArray();
+        WIDE_CLASSES = Arrays.copyOf(wideClasses, WIDE_CHARS.length);
+        WIDTH = classes;
+
+        // One state per pattern char, the root, and a newline state that behaves like the root
+        int maxStates = 2;
+        for (String pattern : PATTERNS) maxStates += pattern.length();
+
+        // Trie with -1 marking missing edges
+        int[] trie = new int[maxStates * WIDTH];
+        Arrays.fill(trie, -1);
+        int[] outputs = new int[maxStates];
+        int states = 1;
+        for (int p = 0; p < PATTERNS.length; p++) {
+            int state = 0;
+            for (char c : PATTERNS[p].toCharArray()) {
+                int edge = state * WIDTH + classOf(c);
+                if (trie[edge] < 0) trie[edge] = states++;
+                state = trie[edge];
+            }
+            outputs[state] |= PATTERN_BITS[p];
+        }
+
+        // Breadth-first fail links turn the trie into a complete automaton
+        int[] fail = new int[states];
+        int[] queue = new int[states];
+        int head = 0, tail = 0;
+        for (int c = 0; c < WIDTH; c++) {
+            int next = trie[c];
+            if (next < 0) {
+                trie[c] = 0;
+            } else {
+                fail[next] = 0;
+                queue[tail++] = next;
+            }
+        }
+        while (head < tail) {
+            int state = queue[head++];
+            outputs[state] |= outputs[fail[state]];
+            for (int c = 0; c < WIDTH; c++) {
+                int edge = state * WIDTH + c;
+                int next = trie[edge];
+                if (next < 0) {
+                    trie[edge] = trie[fail[state] * WIDTH + c];
+                } else {
+                    fail[next] = trie[fail[state] * WIDTH + c];
+                    queue[tail++] = next;
+                }
+            }
+        }
+
+        int newline = states++;
+        System.arraycopy(trie, 0, trie, newline * WIDTH, WIDTH);
+        outputs[newline] = NEWLINE;
+        TRANSITIONS = Arrays.copyOf(trie, states * WIDTH);
+        OUTPUTS = Arrays.copyOf(outputs, states);
+
+        // Expand the class table to direct char indexing, '\n' always leads to the newline state
+        LATIN_TRANSITIONS = new int[states << 8];
+        for (int state = 0; state < states; state++) {
+            for (int c = 0; c < 256; c++) {
+                LATIN_TRANSITIONS[state << 8 | c] = c == '\n' ? newline : TRANSITIONS[state * WIDTH + LATIN_CLASSES[c]];
+            }
+        }
+        for (int c = 0; c < 256; c++) {
+            ROOT_EXITS[c] = LATIN_TRANSITIONS[c] != 0;
+        }
+    }
+
+    // Per-thread buffer the content is copied through, so the hot loop runs over a plain array
+    private static final ThreadLocal<char[]> CHUNK = ThreadLocal.withInitial(() -> new char[8192]);
+
+    private IndicatorScanner() {
+    }
+
+    private static void copy(CharSequence content, int start, int end, char[] chunk) {
+        if (content instanceof String) {
+            ((String) content).getChars(start, end, chunk, 0);
+        } else if (content instanceof StringBuilder) {
+            ((StringBuilder) content).getChars(start, end, chunk, 0);
+        } else {
+            for (int i = start; i < end; i++) {
+                chunk[i - start] = content.charAt(i);
+            }
+        }
+    }
+
+    private static int classOf(char c) {
+        if (c < 256) {
+            return LATIN_CLASSES[c];
+        }
+        for (int i = 0; i < WIDE_CHARS.length; i++) {
+            if (WIDE_CHARS[i] == c) return WIDE_CLASSES[i];
+        }
+        return 0;
+    }
+
+    /**
+     * Scans the content once and reports every indicator
+     */
+    public static Indicators scan(CharSequence content) {
+        if (content == null) {
+            return new Indicators(0, 0, 0);
+        }
+        try {
+            return scan(content, null);
+        } catch (IOException e) {
+            // Nothing is read from a stream
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Scans a document as it is read. Reading stops as soon as the 'Sorry' message settles the
+     * page, so hasResults() is exact while the counts cover only what was read up to there.
+     */
+    public static Indicators scan(Reader in) throws IOException {
+        return scan(null, in);
+    }
+
+    private static Indicators scan(CharSequence content, Reader in) throws IOException {
+        int state = 0;
+        int seen = 0;
+        int line = 0;
+        int imageAltLines = 0;
+        int cartLines = 0;
+        char[] chunk = CHUNK.get();
+        int offset = 0;
+        while (true) {
+            int len;
+            if (in == null) {
+                len = Math.min(chunk.length, content.length() - offset);
+                if (len <= 0) {
+                    break;
+                }
+                copy(content, offset, offset + len, chunk);
+                offset += len;
+            } else {
+                if (((seen | line) & SORRY) != 0) {
+                    break;
+                }
+                len = in.read(chunk, 0, chunk.length);
+                if (len < 0) {
+                    break;
+                }
+            }
+            for (int i = 0; i < len; i++) {
+                if (state == 0) {
+                    // At the root most chars lead nowhere, skip them without touching the automaton
+                    while (i < len && (chunk[i] >= 256 || !ROOT_EXITS[chunk[i]])) i++;
+                    if (i == len) break;
+                }
+                char c = chunk[i];
+                state = c < 256 ? LATIN_TRANSITIONS[state << 8 | c] : TRANSITIONS[state * WIDTH + classOf(c)];
+                int out = OUTPUTS[state];
+                if (out == 0) {
+                    continue;
+                }
+                if (out == NEWLINE) {
+                    // Same line semantics as the former split("\n") counting
+                    if ((line & (IMAGE | ALT)) == (IMAGE | ALT)) imageAltLines++;
+                    if ((line & CART) != 0) cartLines++;
+                    seen |= line;
+                    line = 0;
+                    state = 0;
+                } else {
+                    line |= out;
+                }
+            }
+        }
+        if ((line & (IMAGE | ALT)) == (IMAGE | ALT)) imageAltLines++;
+        if ((line & CART) != 0) cartLines++;
+        seen |= line;
+        return new Indicators(seen, imageAltLines, cartLines);
+    }
+
+    /**
+     * Indicators found in one content.php document
+     */
+    public static final class Indicators {
+        public final boolean sorryMessage;
+        public final boolean productImage;
+        public final boolean productLink;
+        public final boolean productList;
+        /** Lines containing a product image with an alt attribute */
+        public final int imageAltLines;
+        /** Lines containing an add to cart link */
+        public final int cartLines;
+
+        Indicators(int seen, int imageAltLines, int cartLines) {
+            this.sorryMessage = (seen & SORRY) != 0;
+            this.productImage = (seen & IMAGE) != 0;
+            this.productLink = (seen & CART) != 0;
+            this.productList = (seen & LIST) != 0;
+            this.imageAltLines = imageAltLines;
+            this.cartLines = cartLines;
+        }
+
+        /**
+         * True if the page lists products and is not the 'Sorry' page
+         */
+        public boolean hasResults() {
+            if (sorryMessage) {
+                return false;
+            }
+            return productImage || productLink || productList;
+        }
+
+        /**
+         * Line based number of products, the same as the former split("\n") counting
+         */
+        public int productCount() {
+            if (imageAltLines > 0 && cartLines > 0) {
+                // If we have both images and cart links, use the minimum count
+                return Math.min(imageAltLines, cartLines);
+            } else if (imageAltLines > 0) {
+                return imageAltLines;
+            } else if (cartLines > 0) {
+                return cartLines;
+            } else if (productList) {
+                // If we only have a product list container, assume at least 1 product
+                return 1;
+            }
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,387 @@
+package com.deejay;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Single lookup per code feeding any number of report stages.
+ *
+ * Each code is taken from the journal or the cache, or fetched once over HTTP (or rendered
+ * once in the browser pool) and classified with one scan of its iframe document. Every
+ * result is then handed to all stages, so results.txt, the analysis report and any other
+ * output come from the same fetch. The engine can be used as a library through lookup()
+ * or run() as well as through Checker.main. With a page archive it records every document
+ * it fetches, or replays the archive instead of going to the site at all.
+ */
+public class LookupEngine implements AutoCloseable {
+    private final ResultCache cache;
+    private final RunJournal journal;
+    private final ContentFetcher fetcher;
+    private final BrowserPool pool;
+    private final BrowserPool.Options poolOptions;
+    private final PageArchive archive;
+    private CodeVariants variants;
+    private Resilience resilience;
+
+    /**
+     * Consumes every result of a run on the writer thread, in completion order
+     */
+    public interface Stage {
+        void accept(CodeAnalyzer.AnalysisResult result) throws Exception;
+
+        /**
+         * Called once after the last result, also when the run was cancelled
+         */
+        default void finish() throws Exception {
+        }
+    }
+
+    private LookupEngine(ResultCache cache, RunJournal journal, ContentFetcher fetcher,
+                         BrowserPool.Options poolOptions, PageArchive archive) {
+        this.cache = cache;
+        this.journal = journal;
+        this.fetcher = fetcher;
+        this.poolOptions = poolOptions;
+        this.archive = archive;
+        this.pool = poolOptions != null ? new BrowserPool(poolOptions) : null;
+        if (fetcher != null && archive != null) {
+            fetcher.setArchive(archive);
+        }
+    }
+
+    /**
+     * Engine that requests the content.php documents directly.
+     * It takes ownership of all arguments; journal may be null to run without checkpoints.
+     */
+    public static LookupEngine http(ContentFetcher fetcher, ResultCache cache, RunJournal journal) {
+        return http(fetcher, cache, journal, null);
+    }
+
+    /**
+     * Engine that requests the content.php documents directly and records them into an archive.
+     * It takes ownership of all arguments; journal and archive may be null.
+     */
+    public static LookupEngine http(ContentFetcher fetcher, ResultCache cache, RunJournal journal,
+                                    PageArchive archive) {
+        return new LookupEngine(cache, journal, fetcher, null, archive);
+    }
+
+    /**
+     * Engine that renders the shell pages in a browser pool.
+     * It takes ownership of cache and journal; journal may be null to run without checkpoints.
+     */
+    public static LookupEngine browser(BrowserPool.Options poolOptions, ResultCache cache, RunJournal journal) {
+        return browser(poolOptions, cache, journal, null);
+    }
+
+    /**
+     * Engine that renders the shell pages in a browser pool and records the iframe documents
+     * into an archive. It takes ownership of cache, journal and archive; journal and archive may be null.
+     */
+    public static LookupEngine browser(BrowserPool.Options poolOptions, ResultCache cache, RunJournal journal,
+                                       PageArchive archive) {
+        return new LookupEngine(cache, journal, null, poolOptions, archive);
+    }
+
+    /**
+     * Engine that classifies the documents of a recorded archive without any network access.
+     * The cache is not used, so every code is classified again with the current rules.
+     * It takes ownership of archive and journal; journal may be null.
+     */
+    public static LookupEngine replay(PageArchive archive, RunJournal journal) {
+        return new LookupEngine(ResultCache.disabled(), journal, null, null, archive);
+    }
+
+    /**
+     * Engine configured from the command line: --browser, cache, journal and limiter options
+     */
+    public static LookupEngine fromOptions(RunOptions options) throws IOException {
+        return fromOptions(options, ResultCache.fromOptions(options),
+                RunJournal.fromOptions(options, Checker.outputPath(options, "results.txt").toString()));
+    }
+
+    /**
+     * Engine configured from the command line around the given cache and journal (may be null).
+     * --record=&lt;base&gt; archives every fetched document, --replay=&lt;base&gt; reads them back instead.
+     */
+    public static LookupEngine fromOptions(RunOptions options, ResultCache cache, RunJournal journal)
+            throws IOException {
+        String replay = options.get("replay", null);
+        CodeVariants variants = CodeVariants.fromOptions(options);
+        if (replay != null) {
+            cache.close();
+            return replay(PageArchive.replay(Paths.get(replay)), journal).withVariants(variants);
+        }
+        String record = options.get("record", null);
+        PageArchive archive = record != null ? PageArchive.record(Paths.get(record)) : null;
+        Resilience resilience = options.has("no-resilience") ? null
+                : new Resilience(Resilience.Options.from(options));
+        if (options.has("browser")) {
+            return browser(BrowserPool.Options.from(options, 8), cache, journal, archive).withVariants(variants)
+                    .withResilience(resilience);
+        }
+        return http(new ContentFetcher(Checker.baseUrl(options), AdaptiveLimiter.fromOptions(options, 32),
+                options.getDuration("request-timeout", Duration.ofSeconds(15))), cache, journal, archive)
+                .withVariants(variants).withResilience(resilience);
+    }
+
+    /**
+     * Probes spelling variants of codes that come back NOT FOUND, null to turn probing off
+     */
+    public LookupEngine withVariants(CodeVariants variants) {
+        this.variants = variants;
+        return this;
+    }
+
+    /**
+     * Retries, hedges and a circuit breaker around every fetch, null for single attempts
+     */
+    public LookupEngine withResilience(Resilience resilience) {
+        this.resilience = resilience;
+        return this;
+    }
+
+    public ResultCache getCache() {
+        return cache;
+    }
+
+    public RunJournal getJournal() {
+        return journal;
+    }
+
+    /**
+     * The limiter of the fetcher or browser pool, null in replay mode
+     */
+    public AdaptiveLimiter getLimiter() {
+        return fetcher != null ? fetcher.getLimiter() : poolOptions != null ? poolOptions.getLimiter() : null;
+    }
+
+    /**
+     * Starts the browsers and pages of browser mode now instead of on the first lookups.
+     * HTTP and replay engines have nothing to start.
+     */
+    public void warmUp() {
+        if (pool != null) {
+            pool.warmUp();
+        }
+    }
+
+    /**
+     * Looks up and classifies a single code. Failures complete normally with an ERROR result.
+     */
+    public CompletableFuture<CodeAnalyzer.AnalysisResult> lookup(String code) {
+        String canonical = CodeCanonicalizer.canonical(code);
+        long start = Metrics.start();
+        CompletableFuture<CodeAnalyzer.AnalysisResult> result = journal == null ? fetchWithVariants(canonical)
+                : CodeAnalyzer.checkpointed(journal, canonical, () -> fetchWithVariants(canonical));
+        return result.thenApply(analysis -> {
+            Metrics.stage("lookup", start);
+            Metrics.count("results_" + analysis.resultType.name().toLowerCase(Locale.ROOT));
+            return analysis;
+        });
+    }
+
+    private CompletableFuture<CodeAnalyzer.AnalysisResult> fetchWithVariants(String code) {
+        if (variants == null) {
+            return attempt(code);
+        }
+        return attempt(code).thenCompose(result -> variants.probe(code, result, this::variant));
+    }
+
+    private CompletableFuture<CodeAnalyzer.AnalysisResult> attempt(String code) {
+        return resilience == null ? fetch(code) : resilience.call(code, this::fetch, this::duplicate);
+    }
+
+    /**
+     * Lookup of a spelling variant. Over HTTP an uncached variant gets a request of its own,
+     * so cancelling the probe once another variant won aborts it.
+     */
+    private CompletableFuture<CodeAnalyzer.AnalysisResult> variant(String code) {
+        if (fetcher == null) {
+            return attempt(code);
+        }
+        CodeAnalyzer.AnalysisResult cached = cache.get(code);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached);
+        }
+        return resilience == null ? duplicate(code) : resilience.call(code, this::duplicate, this::duplicate);
+    }
+
+    /**
+     * A second, independent fetch of a code for hedging. HTTP bypasses the request already in
+     * flight for the code and aborts it if cancelled; every browser lookup renders on its own
+     * page anyway and runs to the end.
+     */
+    private CompletableFuture<CodeAnalyzer.AnalysisResult> duplicate(String code) {
+        if (fetcher != null) {
+            CompletableFuture<ContentFetcher.FetchResult> request = fetcher.fetchUncoalesced(code);
+            CompletableFuture<CodeAnalyzer.AnalysisResult> duplicate = request.handle((fetched, error) -> {
+                CodeAnalyzer.AnalysisResult result = CodeAnalyzer.analyzeFetched(code, fetched, error);
+                cache.put(result, error == null ? fetched.statusCode : 0);
+                return result;
+            });
+            // A hedge that lost is cancelled; pass that on so its request stops
+            duplicate.whenComplete((r, e) -> {
+                if (duplicate.isCancelled()) {
+                    request.cancel(true);
+                }
+            });
+            return duplicate;
+        }
+        return fetch(code);
+    }
+
+    private CompletableFuture<CodeAnalyzer.AnalysisResult> fetch(String code) {
+        if (fetcher != null) {
+            return CodeAnalyzer.lookup(fetcher, cache, code);
+        }
+        if (pool == null) {
+            return CompletableFuture.completedFuture(replay(code));
+        }
+        CodeAnalyzer.AnalysisResult cached = cache.get(code);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached);
+        }
+        return pool.submit(page -> {
+            CodeAnalyzer.AnalysisResult result = CodeAnalyzer.analyzeCode(page, poolOptions.getBaseUrl(), code, poolOptions.getReadyTimeout(),
+                    archive);
+            cache.put(result, result.resultType == CodeAnalyzer.ResultType.ERROR ? 0 : 200);
+            return result;
+        }).exceptionally(error -> CodeAnalyzer.errorResult(code, error));
+    }
+
+    private CodeAnalyzer.AnalysisResult replay(String code) {
+        long start = Metrics.start();
+        try {
+            ContentFetcher.FetchResult recorded = archive.get(code);
+            if (recorded == null) {
+                Metrics.count("archive_misses");
+                return new CodeAnalyzer.AnalysisResult(code, CodeAnalyzer.ResultType.ERROR,
+                        "Error analyzing code: not in archive", 0);
+            }
+            Metrics.stage("archive_read", start);
+            return CodeAnalyzer.analyzeFetched(code, recorded, null);
+        } catch (IOException e) {
+            return CodeAnalyzer.errorResult(code, e);
+        }
+    }
+
+    /**
+     * Looks up all codes and feeds the results to the stages as they complete.
+     * Ctrl+C cancels the run; finished results still reach the stages and the journal is synced.
+     * @return number of codes looked up
+     */
+    public long run(Iterator<String> codes, List<Stage> stages) throws Exception {
+        return run(codes, stages, 2 * workers());
+    }
+
+    /**
+     * Same as run(codes, stages), reading at most readAhead codes beyond those being looked up;
+     * 0 pulls a code only when a lookup can start on it
+     */
+    public long run(Iterator<String> codes, List<Stage> stages, int readAhead) throws Exception {
+        ResultPipeline pipeline = new ResultPipeline(workers(), readAhead);
+        CountDownLatch finished = new CountDownLatch(1);
+        Thread hook = new Thread(() -> {
+            pipeline.cancel();
+            try {
+                finished.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, "engine-shutdown");
+        Runtime.getRuntime().addShutdownHook(hook);
+        try {
+            return pipeline.run(codes, code -> lookup(code).get(), result -> {
+                long start = Metrics.start();
+                for (Stage stage : stages) {
+                    stage.accept(result);
+                }
+                Metrics.stage("write", start);
+            });
+        } finally {
+            try {
+                for (Stage stage : stages) {
+                    stage.finish();
+                }
+            } finally {
+                if (journal != null) {
+                    journal.sync();
+                }
+                finished.countDown();
+                try {
+                    Runtime.getRuntime().removeShutdownHook(hook);
+                } catch (IllegalStateException e) {
+                    // Already shutting down, the hook is running
+                }
+            }
+        }
+    }
+
+    /**
+     * One lookup per request the limiter may ever allow, the limiter decides how many actually run
+     */
+    private int workers() {
+        if (fetcher != null) {
+            return fetcher.getLimiter().getMaxLimit();
+        }
+        return pool != null ? poolOptions.getWorkers() : Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * Cache, limiter and (in browser mode) blocking statistics, one line each
+     */
+    public List<String> summary() {
+        List<String> lines = new ArrayList<>();
+        lines.add("Cache hits: " + cache.getHits() + ", lookups: " + cache.getMisses());
+        if (archive != null) {
+            lines.add((pool == null && fetcher == null ? "Replayed from" : "Recorded into")
+                    + " archive of " + archive.size() + " pages");
+        }
+        AdaptiveLimiter limiter = getLimiter();
+        if (limiter != null) {
+            lines.add(limiter.summary());
+        }
+        if (poolOptions != null && poolOptions.getResourceBlocker() != null) {
+            lines.add(poolOptions.getResourceBlocker().summary());
+        }
+        if (resilience != null) {
+            lines.add(resilience.summary());
+        }
+        if (variants != null) {
+            lines.add("Variant probes: " + Metrics.counter("variant_probes") + ", hits: "
+                    + Metrics.counter("variant_hits") + ", dropped after a hit: "
+                    + Metrics.counter("variant_probes_cancelled"));
+        }
+        return lines;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            if (fetcher != null) {
+                fetcher.close();
+            }
+            if (pool != null) {
+                pool.close();
+            }
+        } finally {
+            try {
+                if (archive != null) {
+                    archive.close();
+                }
+            } finally {
+                try {
+                    if (journal != null) {
+                        journal.close();
+                    }
+                } finally {
+                    cache.close();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,201 @@
+package com.deejay;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Process-wide run metrics: a latency histogram per lookup stage and named counters.
+ *
+ * Stages are timed with Metrics.start() and Metrics.stage(name, start); counters track
+ * timeouts, errors, cache hits and bytes transferred. The exporter writes everything as
+ * JSON and in the Prometheus text format periodically during a run and once at its end.
+ */
+public final class Metrics {
+    private static final double[] QUANTILES = {0.5, 0.9, 0.95, 0.99, 0.999};
+    private static final String[] QUANTILE_KEYS = {"p50Ms", "p90Ms", "p95Ms", "p99Ms", "p999Ms"};
+    private static final Map<String, LatencyHistogram> STAGES = new ConcurrentSkipListMap<>();
+    private static final Map<String, LongAdder> COUNTERS = new ConcurrentSkipListMap<>();
+    private static volatile long startedAt = System.currentTimeMillis();
+
+    private Metrics() {
+    }
+
+    public static long start() {
+        return System.nanoTime();
+    }
+
+    /**
+     * Records the time since start() for a stage
+     */
+    public static void stage(String name, long startNanos) {
+        histogram(name).record(System.nanoTime() - startNanos);
+    }
+
+    public static LatencyHistogram histogram(String name) {
+        LatencyHistogram histogram = STAGES.get(name);
+        return histogram != null ? histogram : STAGES.computeIfAbsent(name, n -> new LatencyHistogram());
+    }
+
+    public static void count(String name) {
+        add(name, 1);
+    }
+
+    public static void add(String name, long amount) {
+        LongAdder counter = COUNTERS.get(name);
+        if (counter == null) {
+            counter = COUNTERS.computeIfAbsent(name, n -> new LongAdder());
+        }
+        counter.add(amount);
+    }
+
+    public static long counter(String name) {
+        LongAdder counter = COUNTERS.get(name);
+        return counter == null ? 0 : counter.sum();
+    }
+
+    public static void reset() {
+        STAGES.clear();
+        COUNTERS.clear();
+        startedAt = System.currentTimeMillis();
+    }
+
+    /**
+     * Stage latencies in milliseconds and counters as a JSON document
+     */
+    public static String toJson() {
+        StringBuilder sb = new StringBuilder("{\n");
+        sb.append("  \"timestamp\": ").append(System.currentTimeMillis()).append(",\n");
+        sb.append("  \"uptimeSeconds\": ").append((System.currentTimeMillis() - startedAt) / 1000.0).append(",\n");
+        sb.append("  \"stages\": {");
+        String separator = "\n";
+        for (Map.Entry<String, LatencyHistogram> entry : STAGES.entrySet()) {
+            LatencyHistogram h = entry.getValue();
+            sb.append(separator).append("    \"").append(entry.getKey()).append("\": {")
+              .append("\"count\": ").append(h.getCount())
+              .append(", \"meanMs\": ").append(millis(h.getMean()));
+            for (int i = 0; i < QUANTILES.length; i++) {
+                sb.append(", \"").append(QUANTILE_KEYS[i]).append("\": ").append(millis(h.quantile(QUANTILES[i])));
+            }
+            sb.append(", \"maxMs\": ").append(millis(h.getMax())).append('}');
+            separator = ",\n";
+        }
+        sb.append("\n  },\n  \"counters\": {");
+        separator = "\n";
+        for (Map.Entry<String, LongAdder> entry : COUNTERS.entrySet()) {
+            sb.append(separator).append("    \"").append(entry.getKey()).append("\": ").append(entry.getValue().sum());
+            separator = ",\n";
+        }
+        return sb.append("\n  }\n}\n").toString();
+    }
+
+    /**
+     * Stage latencies as a summary in seconds and counters, in the Prometheus text format
+     */
+    public static String toPrometheus() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("# HELP deejay_stage_latency_seconds Latency of each lookup stage\n");
+        sb.append("# TYPE deejay_stage_latency_seconds summary\n");
+        for (Map.Entry<String, LatencyHistogram> entry : STAGES.entrySet()) {
+            LatencyHistogram h = entry.getValue();
+            String stage = "stage=\"" + entry.getKey() + "\"";
+            for (double q : QUANTILES) {
+                sb.append("deejay_stage_latency_seconds{").append(stage).append(",quantile=\"")
+                  .append(q).append("\"} ").append(seconds(h.quantile(q))).append('\n');
+            }
+            sb.append("deejay_stage_latency_seconds_sum{").append(stage).append("} ")
+              .append(seconds(h.getSum())).append('\n');
+            sb.append("deejay_stage_latency_seconds_count{").append(stage).append("} ")
+              .append(h.getCount()).append('\n');
+        }
+        for (Map.Entry<String, LongAdder> entry : COUNTERS.entrySet()) {
+            String name = "deejay_" + entry.getKey() + "_total";
+            sb.append("# TYPE ").append(name).append(" counter\n");
+            sb.append(name).append(' ').append(entry.getValue().sum()).append('\n');
+        }
+        return sb.toString();
+    }
+
+    private static double millis(double nanos) {
+        return Math.round(nanos / 1000.0) / 1000.0;
+    }
+
+    private static double seconds(long nanos) {
+        return nanos / 1e9;
+    }
+
+    /**
+     * Writes both files, each through a temporary file so readers never see a partial one
+     */
+    public static void write(Path json, Path prometheus) throws IOException {
+        writeAtomically(json, toJson());
+        writeAtomically(prometheus, toPrometheus());
+    }
+
+    private static void writeAtomically(Path path, String content) throws IOException {
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        Files.writeString(tmp, content, StandardCharsets.UTF_8);
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Exporter configured by --metrics=&lt;basename&gt; (default metrics, giving metrics.json and
+     * metrics.prom) and --metrics-interval (default 10s); --no-metrics turns it off
+     */
+    public static Exporter export(RunOptions options) {
+        if (options.has("no-metrics")) {
+            return new Exporter(null, null, null);
+        }
+        String base = options.get("metrics", Checker.outputPath(options, "metrics").toString());
+        return new Exporter(Paths.get(base + ".json"), Paths.get(base + ".prom"),
+                options.getDuration("metrics-interval", Duration.ofSeconds(10)));
+    }
+
+    /**
+     * Writes the metrics files periodically and a final time on close
+     */
+    public static class Exporter implements AutoCloseable {
+        private final Path json;
+        private final Path prometheus;
+        private final ScheduledExecutorService scheduler;
+
+        public Exporter(Path json, Path prometheus, Duration interval) {
+            this.json = json;
+            this.prometheus = prometheus;
+            if (json == null || interval == null || interval.isZero()) {
+                this.scheduler = null;
+                return;
+            }
+            this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "metrics-export");
+                t.setDaemon(true);
+                return t;
+            });
+            scheduler.scheduleAtFixedRate(this::writeQuietly, interval.toMillis(), interval.toMillis(),
+                    TimeUnit.MILLISECONDS);
+        }
+
+        private void writeQuietly() {
+            try {
+                write(json, prometheus);
+            } catch (IOException e) {
+                System.err.println("Error writing metrics: " + e.getMessage());
+            }
+        }
+
+        @Override
+        public void close() {
+            if (scheduler != null) {
+                scheduler.shutdownNow();
+            }
+            if (json != null) {
+                writeQuietly();
+                System.out.println("Metrics written to " + json + " and " + prometheus);
+            }
+        }
+    }
+}
@@ -0,0 +1,260 @@
+package com.deejay;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.*;
+
+/**
+ * Archive of recorded content.php documents for offline re-classification.
+ *
+ * Each document is deflated on its own and appended to one segment file (&lt;base&gt;.seg);
+ * a text index (&lt;base&gt;.idx) holds code, HTTP status, offset and length per line. Later
+ * lines win, so recording into an existing archive updates it. For replay the segment is
+ * memory mapped and a lookup is one map probe plus one inflate, with no network at all.
+ */
+public class PageArchive implements AutoCloseable {
+    private static final int FLUSH_EVERY_RECORDS = 64;
+
+    private final Path segmentFile;
+    private final Map<String, Entry> index = new ConcurrentHashMap<>();
+    private final FileChannel segment;
+    private final BufferedWriter indexWriter;
+    private final MappedByteBuffer mapped;
+    private long segmentSize;
+    private int unflushed;
+
+    private static class Entry {
+        final int statusCode;
+        final long offset;
+        final int length;
+
+        Entry(int statusCode, long offset, int length) {
+            this.statusCode = statusCode;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    private PageArchive(Path base, boolean writable) throws IOException {
+        this.segmentFile = Paths.get(base + ".seg");
+        Path indexFile = Paths.get(base + ".idx");
+        if (writable) {
+            this.segment = FileChannel.open(segmentFile, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+        } else {
+            this.segment = FileChannel.open(segmentFile, StandardOpenOption.READ);
+        }
+        this.segmentSize = segment.size();
+        boolean clean = load(indexFile);
+        if (writable) {
+            // Anything after the last indexed page is a torn write of a killed run
+            segment.truncate(segmentSize);
+            if (!clean) {
+                rewriteIndex(indexFile);
+            }
+            this.indexWriter = Files.newBufferedWriter(indexFile, StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            this.mapped = null;
+        } else {
+            this.indexWriter = null;
+            this.mapped = segmentSize <= Integer.MAX_VALUE
+                    ? segment.map(FileChannel.MapMode.READ_ONLY, 0, segmentSize) : null;
+        }
+    }
+
+    /**
+     * Opens an archive for recording, creating it or adding to an existing one
+     * @param base path without extension, e.g. archive gives archive.seg and archive.idx
+     */
+    public static PageArchive record(Path base) throws IOException {
+        Path parent = base.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        return new PageArchive(base, true);
+    }
+
+    /**
+     * Opens an existing archive read-only for replay
+     */
+    public static PageArchive replay(Path base) throws IOException {
+        if (!Files.exists(Paths.get(base + ".idx"))) {
+            throw new FileNotFoundException("No archive index " + base + ".idx");
+        }
+        return new PageArchive(base, false);
+    }
+
+    /**
+     * Reads the index, keeping only pages that are fully in the segment
+     * @return false if a line was torn or pointed past the end of the segment
+     */
+    private boolean load(Path indexFile) throws IOException {
+        if (!Files.exists(indexFile)) {
+            segmentSize = 0;
+            return true;
+        }
+        byte[] bytes = Files.readAllBytes(indexFile);
+        boolean clean = bytes.length == 0 || bytes[bytes.length - 1] == '\n';
+        long end = 0;
+        try (BufferedReader reader = new BufferedReader(new StringReader(new String(bytes, StandardCharsets.UTF_8)))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split("\t");
+                if (fields.length != 4) {
+                    clean = false;
+                    continue;
+                }
+                try {
+                    Entry entry = new Entry(Integer.parseInt(fields[1]), Long.parseLong(fields[2]),
+                            Integer.parseInt(fields[3]));
+                    // Skip entries whose page never fully reached the segment
+                    if (entry.offset + entry.length <= segmentSize) {
+                        index.put(fields[0], entry);
+                        end = Math.max(end, entry.offset + entry.length);
+                    } else {
+                        clean = false;
+                    }
+                } catch (NumberFormatException e) {
+                    clean = false;
+                }
+            }
+        }
+        segmentSize = end;
+        return clean;
+    }
+
+    /**
+     * Replaces the index with its valid entries so new lines never continue a torn one
+     */
+    private void rewriteIndex(Path indexFile) throws IOException {
+        Path tmp = indexFile.resolveSibling(indexFile.getFileName() + ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            for (Map.Entry<String, Entry> e : index.entrySet()) {
+                writer.write(line(e.getKey(), e.getValue()));
+                writer.newLine();
+            }
+        }
+        Files.move(tmp, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static String line(String code, Entry entry) {
+        return code + '\t' + entry.statusCode + '\t' + entry.offset + '\t' + entry.length;
+    }
+
+    /**
+     * Stores the document of a code, replacing any earlier recording
+     */
+    public synchronized void put(String code, int statusCode, String body) {
+        String key = CodeCanonicalizer.canonical(code);
+        byte[] compressed = deflate(body.getBytes(StandardCharsets.UTF_8));
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(compressed);
+            long offset = segmentSize;
+            while (buffer.hasRemaining()) {
+                segment.write(buffer, offset + buffer.position());
+            }
+            segmentSize += compressed.length;
+            Entry entry = new Entry(statusCode, offset, compressed.length);
+            indexWriter.write(line(key, entry));
+            indexWriter.newLine();
+            index.put(key, entry);
+            if (++unflushed >= FLUSH_EVERY_RECORDS) {
+                indexWriter.flush();
+                unflushed = 0;
+            }
+        } catch (IOException e) {
+            System.err.println("Error writing archive " + segmentFile + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * The recorded response of a code, or null if it was never recorded
+     */
+    public ContentFetcher.FetchResult get(String code) throws IOException {
+        String key = CodeCanonicalizer.canonical(code);
+        Entry entry = index.get(key);
+        if (entry == null) {
+            return null;
+        }
+        long start = System.nanoTime();
+        byte[] compressed = new byte[entry.length];
+        if (mapped != null) {
+            mapped.slice((int) entry.offset, entry.length).get(compressed);
+        } else {
+            ByteBuffer buffer = ByteBuffer.wrap(compressed);
+            while (buffer.hasRemaining()) {
+                if (segment.read(buffer, entry.offset + buffer.position()) < 0) {
+                    throw new EOFException("Archive " + segmentFile + " ends inside the page of " + key);
+                }
+            }
+        }
+        String body = new String(inflate(compressed), StandardCharsets.UTF_8);
+        return new ContentFetcher.FetchResult(key, entry.statusCode, body, System.nanoTime() - start);
+    }
+
+    /**
+     * Recorded codes in no particular order
+     */
+    public Set<String> codes() {
+        return Collections.unmodifiableSet(index.keySet());
+    }
+
+    public int size() {
+        return index.size();
+    }
+
+    private static byte[] deflate(byte[] data) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(data);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 4 + 64);
+            byte[] buffer = new byte[8192];
+            while (!deflater.finished()) {
+                out.write(buffer, 0, deflater.deflate(buffer));
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static byte[] inflate(byte[] data) throws IOException {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(data);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(data.length * 4);
+            byte[] buffer = new byte[8192];
+            while (!inflater.finished()) {
+                int n = inflater.inflate(buffer);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IOException("Corrupt page in archive");
+                }
+                out.write(buffer, 0, n);
+            }
+            return out.toByteArray();
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt page in archive: " + e.getMessage(), e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            if (indexWriter != null) {
+                segment.force(false);
+                indexWriter.close();
+            }
+        } finally {
+            segment.close();
+        }
+    }
+}
@@ -0,0 +1,866 @@
+package com.deejay;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Streaming extractor of the product entries of a content.php document.
+ *
+ * A small HTML tokenizer reads the document from a Reader through one char buffer and
+ * never builds the document or its lines in memory. Entries are keyed on their
+ * /addCart/&lt;id&gt; link and anchored on their product image (/pics/images/m/), so they are
+ * found however the markup is wrapped and a product shown with a front and a back picture
+ * counts once. Entries without a cart link are told apart by their image. Artist, title,
+ * price and catalog number come from elements with those class names, the image alt text
+ * ("Artist - Title") and the product link. Each entry is handed to a listener as soon as
+ * the next one starts, and the scan stops as soon as the 'Sorry' message settles the page
+ * or the listener has seen enough.
+ *
+ * Entries only come from markup: the src of an img, the href of an a and class tokens. A
+ * marker in a data-src, a form action, any other attribute, text, a script or a comment is
+ * not an entry. Whether a page has results is decided by IndicatorScanner, which matches
+ * the markers anywhere in the document like the former substring checks.
+ *
+ * The tokenizer and its buffers are kept per thread and reused, so a scan allocates nothing
+ * per tag or class token, only the entries it reports.
+ */
+public final class ProductExtractor {
+    static final String SORRY_PREFIX = "Sorry, we didn";
+    static final String PRODUCT_IMAGE = "/pics/images/m/";
+    static final String ADD_CART = "/addCart/";
+
+    private static final int BUFFER_SIZE = 8192;
+    private static final int MAX_FIELD = 256;
+    // Longer class, href, src and alt values are cut, so the reused buffers stay small
+    private static final int MAX_VALUE = 2048;
+    private static final String[] VOID_TAGS = {
+        "area", "base", "br", "col", "embed", "hr", "img", "input", "link", "meta", "source", "track", "wbr"
+    };
+    private static final String SCRIPT_END = "</script";
+    private static final String STYLE_END = "</style";
+
+    // Attributes the extractor keeps, by their bit in keptAttributes
+    private static final String[] KEPT_ATTRIBUTES = { "class", "href", "src", "alt" };
+    private static final int CLASS = 1;
+    private static final int HREF = 1 << 1;
+    private static final int SRC = 1 << 2;
+    private static final int ALT = 1 << 3;
+
+    private static final String[] ARTIST_CLASSES = { "artist", "interpret", "articleinterpret" };
+    private static final String[] TITLE_CLASSES = { "title", "articletitle" };
+    private static final String[] CATALOG_CLASSES = { "catno", "catalog", "catalognumber", "catalog-number" };
+    private static final String[] IN_STOCK_CLASSES = { "instock", "in-stock", "available" };
+    private static final String[] SOLD_OUT_CLASSES = { "soldout", "sold-out", "outofstock", "out-of-stock", "notavailable" };
+
+    private static final String[] ENTITY_NAMES = {
+        "amp", "lt", "gt", "quot", "apos", "nbsp", "euro", "acute",
+        "auml", "ouml", "uuml", "Auml", "Ouml", "Uuml", "szlig", "eacute"
+    };
+    private static final char[] ENTITY_CHARS = {
+        '&', '<', '>', '"', '\'', ' ', '€', '´', 'ä', 'ö', 'ü', 'Ä', 'Ö', 'Ü', 'ß', 'é'
+    };
+
+    private static final ThreadLocal<ProductExtractor> EXTRACTORS = ThreadLocal.withInitial(ProductExtractor::new);
+
+    private enum Field { ARTIST, TITLE, PRICE, CATALOG }
+
+    /**
+     * Receives every entry as soon as it is complete
+     */
+    @FunctionalInterface
+    public interface Listener {
+        /**
+         * @return false to stop reading the document
+         */
+        boolean accept(Product product);
+    }
+
+    // Input
+    private Reader in;
+    private final CharSequenceReader strings = new CharSequenceReader();
+    private final char[] buffer = new char[BUFFER_SIZE];
+    private int pos;
+    private int limit;
+    private boolean busy;
+
+    // Tokenizer scratch space, reused for every tag
+    private final StringBuilder name = new StringBuilder(16);
+    private final StringBuilder attribute = new StringBuilder(16);
+    private final StringBuilder entity = new StringBuilder(8);
+    private final StringBuilder tagClass = new StringBuilder(64);
+    private final StringBuilder tagHref = new StringBuilder(64);
+    private final StringBuilder tagSrc = new StringBuilder(64);
+    private final StringBuilder tagAlt = new StringBuilder(64);
+    private int keptAttributes;
+
+    // Extraction state
+    private Listener listener;
+    private final Builder current = new Builder();
+    private final StringBuilder lastLink = new StringBuilder(64);
+    private boolean hasLastLink;
+    private Field pendingCapture;
+    private Field capture;
+    private final StringBuilder captureTag = new StringBuilder(16);
+    private int captureDepth;
+    private final StringBuilder text = new StringBuilder(64);
+    private int sorryMatched;
+    private boolean sorryMessage;
+    private boolean productList;
+    private boolean stopped;
+    private int products;
+
+    private ProductExtractor() {
+    }
+
+    /**
+     * Reads a document and reports its entries to the listener
+     */
+    public static Page extract(Reader in, Listener listener) throws IOException {
+        ProductExtractor extractor = EXTRACTORS.get();
+        if (extractor.busy) {
+            // A listener that extracts another document on the same thread gets its own
+            extractor = new ProductExtractor();
+        }
+        extractor.reset(in, listener);
+        try {
+            extractor.run();
+            return new Page(extractor.sorryMessage, extractor.productList, extractor.products, !extractor.stopped);
+        } finally {
+            extractor.in = null;
+            extractor.listener = null;
+            extractor.strings.open(null);
+            extractor.busy = false;
+        }
+    }
+
+    /**
+     * Same as extract(Reader, Listener) for a document already in memory
+     */
+    public static Page extract(CharSequence html, Listener listener) {
+        if (html == null) {
+            return new Page(false, false, 0, true);
+        }
+        ProductExtractor extractor = EXTRACTORS.get();
+        try {
+            return extract(extractor.busy ? new CharSequenceReader().open(html) : extractor.strings.open(html), listener);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * All entries of a document
+     */
+    public static List<Product> products(CharSequence html) {
+        List<Product> products = new ArrayList<>();
+        extract(html, products::add);
+        return products;
+    }
+
+    private void reset(Reader in, Listener listener) {
+        this.in = in;
+        this.listener = listener;
+        busy = true;
+        pos = limit = 0;
+        current.reset();
+        lastLink.setLength(0);
+        hasLastLink = false;
+        pendingCapture = capture = null;
+        captureTag.setLength(0);
+        captureDepth = 0;
+        text.setLength(0);
+        sorryMatched = 0;
+        sorryMessage = productList = stopped = false;
+        products = 0;
+    }
+
+    // Tokenizer
+
+    private int read() throws IOException {
+        if (pos == limit) {
+            limit = in.read(buffer, 0, buffer.length);
+            pos = 0;
+            if (limit <= 0) {
+                limit = 0;
+                return -1;
+            }
+        }
+        return buffer[pos++];
+    }
+
+    private void unread() {
+        pos--;
+    }
+
+    private void run() throws IOException {
+        int c;
+        while (!stopped && (c = read()) >= 0) {
+            if (c == '<') {
+                tag();
+            } else if (c == '&') {
+                text(entity());
+            } else {
+                text((char) c);
+            }
+        }
+        if (!stopped) {
+            emit();
+        }
+    }
+
+    private void tag() throws IOException {
+        int c = read();
+        if (c == '!') {
+            if (read() == '-' && read() == '-') {
+                skipPast("-->");
+            } else {
+                skipPast(">");
+            }
+        } else if (c == '?') {
+            skipPast(">");
+        } else if (c == '/') {
+            readName();
+            skipPast(">");
+            endTag();
+        } else if (isLetter(c)) {
+            unread();
+            readName();
+            boolean selfClosing = readAttributes();
+            startTag(selfClosing);
+        } else {
+            text('<');
+            if (c >= 0) {
+                unread();
+            }
+        }
+    }
+
+    private void readName() throws IOException {
+        name.setLength(0);
+        int c;
+        while ((c = read()) >= 0 && !Character.isWhitespace(c) && c != '>' && c != '/') {
+            name.append(Character.toLowerCase((char) c));
+        }
+        if (c >= 0) {
+            unread();
+        }
+    }
+
+    /**
+     * Reads the attributes up to the end of the tag, keeping class, href, src and alt
+     * @return true for a self-closing tag
+     */
+    private boolean readAttributes() throws IOException {
+        keptAttributes = 0;
+        boolean selfClosing = false;
+        int c;
+        while ((c = read()) >= 0 && c != '>') {
+            if (Character.isWhitespace(c)) {
+                continue;
+            }
+            if (c == '/') {
+                selfClosing = true;
+                continue;
+            }
+            selfClosing = false;
+            attribute.setLength(0);
+            while (c >= 0 && c != '=' && c != '>' && c != '/' && !Character.isWhitespace(c)) {
+                attribute.append(Character.toLowerCase((char) c));
+                c = read();
+            }
+            while (c >= 0 && Character.isWhitespace(c)) {
+                c = read();
+            }
+            if (c != '=') {
+                if (c >= 0) {
+                    unread();
+                }
+                continue;
+            }
+            int kept = keptAttribute(attribute);
+            StringBuilder target = switch (kept) {
+                case CLASS -> tagClass;
+                case HREF -> tagHref;
+                case SRC -> tagSrc;
+                case ALT -> tagAlt;
+                default -> null;
+            };
+            readValue(target);
+            keptAttributes |= kept;
+        }
+        return selfClosing;
+    }
+
+    /**
+     * Bit of an attribute the extractor uses, or 0 for any other
+     */
+    private static int keptAttribute(CharSequence attribute) {
+        for (int i = 0; i < KEPT_ATTRIBUTES.length; i++) {
+            if (KEPT_ATTRIBUTES[i].contentEquals(attribute)) {
+                return 1 << i;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Reads a quoted or bare attribute value into target, or skips it if target is null
+     */
+    private void readValue(StringBuilder target) throws IOException {
+        if (target != null) {
+            target.setLength(0);
+        }
+        int c = read();
+        while (c >= 0 && Character.isWhitespace(c)) {
+            c = read();
+        }
+        if (c == '"' || c == '\'') {
+            int quote = c;
+            while ((c = read()) >= 0 && c != quote) {
+                if (target != null && target.length() < MAX_VALUE) {
+                    target.append((char) c);
+                }
+            }
+        } else {
+            while (c >= 0 && c != '>' && !Character.isWhitespace(c)) {
+                if (target != null && target.length() < MAX_VALUE) {
+                    target.append((char) c);
+                }
+                c = read();
+            }
+            if (c == '>') {
+                unread();
+            }
+        }
+        if (target != null) {
+            decode(target);
+        }
+    }
+
+    private boolean has(int attribute) {
+        return (keptAttributes & attribute) != 0;
+    }
+
+    private void skipPast(String end) throws IOException {
+        int matched = 0;
+        int c;
+        while (matched < end.length() && (c = read()) >= 0) {
+            matched = c == end.charAt(matched) ? matched + 1 : (c == end.charAt(0) ? 1 : 0);
+        }
+    }
+
+    /**
+     * Skips a script or style element, whose content is not markup
+     */
+    private void skipRawText(String end) throws IOException {
+        int matched = 0;
+        int c;
+        while (matched < end.length() && (c = read()) >= 0) {
+            char lower = Character.toLowerCase((char) c);
+            matched = lower == end.charAt(matched) ? matched + 1 : (lower == '<' ? 1 : 0);
+        }
+        skipPast(">");
+    }
+
+    private char entity() throws IOException {
+        entity.setLength(0);
+        int c;
+        while ((c = read()) >= 0 && c != ';' && entity.length() < 10 && (isLetter(c) || Character.isDigit(c) || c == '#')) {
+            entity.append((char) c);
+        }
+        if (c != ';' && c >= 0) {
+            unread();
+        }
+        return decodeEntity(entity, 0, entity.length());
+    }
+
+    /**
+     * The character of the entity name between from and to, '&' if it is not known
+     */
+    private static char decodeEntity(CharSequence s, int from, int to) {
+        if (from < to && s.charAt(from) == '#') {
+            boolean hex = from + 1 < to && (s.charAt(from + 1) == 'x' || s.charAt(from + 1) == 'X');
+            int radix = hex ? 16 : 10;
+            int i = hex ? from + 2 : from + 1;
+            if (i == to) {
+                return '&';
+            }
+            long code = 0;
+            for (; i < to; i++) {
+                int digit = Character.digit(s.charAt(i), radix);
+                if (digit < 0) {
+                    return '&';
+                }
+                code = code * radix + digit;
+                if (code > Integer.MAX_VALUE) {
+                    return '&';
+                }
+            }
+            return (char) code;
+        }
+        for (int i = 0; i < ENTITY_NAMES.length; i++) {
+            if (regionIs(s, from, to, ENTITY_NAMES[i], false)) {
+                return ENTITY_CHARS[i];
+            }
+        }
+        return '&';
+    }
+
+    /**
+     * Replaces the entities of an attribute value in place
+     */
+    private static void decode(StringBuilder raw) {
+        int amp = raw.indexOf("&");
+        while (amp >= 0) {
+            int semicolon = raw.indexOf(";", amp);
+            if (semicolon > amp && semicolon - amp <= 11) {
+                raw.setCharAt(amp, decodeEntity(raw, amp + 1, semicolon));
+                raw.delete(amp + 1, semicolon + 1);
+            }
+            amp = raw.indexOf("&", amp + 1);
+        }
+    }
+
+    /**
+     * True if the chars of s between from and to are the constant, ignoring case if asked
+     */
+    private static boolean regionIs(CharSequence s, int from, int to, String constant, boolean ignoreCase) {
+        if (to - from != constant.length()) {
+            return false;
+        }
+        for (int i = 0; i < constant.length(); i++) {
+            char c = s.charAt(from + i);
+            if (c != constant.charAt(i) && !(ignoreCase && Character.toLowerCase(c) == constant.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean regionIsAny(CharSequence s, int from, int to, String[] constants) {
+        for (String constant : constants) {
+            if (regionIs(s, from, to, constant, true)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isLetter(int c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+    }
+
+    private static boolean isSpace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == '\f' || c == 0x0B;
+    }
+
+    // Extraction
+
+    private void text(char c) {
+        if (capture != null && text.length() < MAX_FIELD) {
+            text.append(c);
+        }
+        // The 'Sorry' page settles the classification, nothing after it matters
+        if (c == SORRY_PREFIX.charAt(sorryMatched)) {
+            if (++sorryMatched == SORRY_PREFIX.length()) {
+                sorryMessage = true;
+                stopped = true;
+            }
+        } else {
+            sorryMatched = c == SORRY_PREFIX.charAt(0) ? 1 : 0;
+        }
+    }
+
+    private void startTag(boolean selfClosing) throws IOException {
+        if (has(CLASS)) {
+            classes(tagClass);
+        }
+        if ("a".contentEquals(name) && has(HREF)) {
+            link(tagHref);
+        } else if ("img".contentEquals(name) && has(SRC) && tagSrc.indexOf(PRODUCT_IMAGE) >= 0) {
+            image(tagSrc, has(ALT) ? tagAlt : null);
+        }
+        Field field = pendingCapture;
+        pendingCapture = null;
+        if (selfClosing || isVoidTag(name)) {
+            return;
+        }
+        if (capture != null && captureTag.compareTo(name) == 0) {
+            captureDepth++;
+        } else if (capture == null && field != null) {
+            capture = field;
+            captureTag.setLength(0);
+            captureTag.append(name);
+            captureDepth = 0;
+            text.setLength(0);
+        }
+        if ("script".contentEquals(name)) {
+            skipRawText(SCRIPT_END);
+        } else if ("style".contentEquals(name)) {
+            skipRawText(STYLE_END);
+        }
+    }
+
+    private static boolean isVoidTag(CharSequence tag) {
+        for (String voidTag : VOID_TAGS) {
+            if (voidTag.contentEquals(tag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void endTag() {
+        if (capture == null || captureTag.compareTo(name) != 0) {
+            return;
+        }
+        if (captureDepth > 0) {
+            captureDepth--;
+            return;
+        }
+        String captured = collapse(text);
+        Field field = capture;
+        capture = null;
+        if (!captured.isEmpty()) {
+            set(field, captured);
+        }
+    }
+
+    /**
+     * The text with runs of whitespace as one space and no leading or trailing whitespace
+     */
+    private static String collapse(StringBuilder text) {
+        int length = 0;
+        boolean space = false;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (isSpace(c)) {
+                space = length > 0;
+            } else {
+                if (space) {
+                    text.setCharAt(length++, ' ');
+                    space = false;
+                }
+                text.setCharAt(length++, c);
+            }
+        }
+        text.setLength(length);
+        return text.toString();
+    }
+
+    /**
+     * Walks the whitespace separated tokens of a class attribute in place
+     */
+    private void classes(CharSequence classes) {
+        int length = classes.length();
+        int i = 0;
+        while (i < length) {
+            while (i < length && isSpace(classes.charAt(i))) {
+                i++;
+            }
+            int from = i;
+            while (i < length && !isSpace(classes.charAt(i))) {
+                i++;
+            }
+            if (i > from) {
+                classToken(classes, from, i);
+            }
+        }
+    }
+
+    private void classToken(CharSequence s, int from, int to) {
+        if (regionIs(s, from, to, "product-list", true)) {
+            productList = true;
+        } else if (regionIs(s, from, to, "product", true)) {
+            startEntry();
+        } else if (regionIsAny(s, from, to, ARTIST_CLASSES)) {
+            pendingCapture = Field.ARTIST;
+        } else if (regionIsAny(s, from, to, TITLE_CLASSES)) {
+            pendingCapture = Field.TITLE;
+        } else if (regionIs(s, from, to, "price", true)) {
+            pendingCapture = Field.PRICE;
+        } else if (regionIsAny(s, from, to, CATALOG_CLASSES)) {
+            pendingCapture = Field.CATALOG;
+        } else if (regionIsAny(s, from, to, IN_STOCK_CLASSES)) {
+            availability("in stock");
+        } else if (regionIsAny(s, from, to, SOLD_OUT_CLASSES)) {
+            availability("sold out");
+        }
+    }
+
+    private void link(StringBuilder href) {
+        int cart = href.indexOf(ADD_CART);
+        if (cart >= 0) {
+            int from = cart + ADD_CART.length();
+            int to = segmentEnd(href, from);
+            String id = current.cartId;
+            if (id == null || !regionIs(href, from, to, id, false)) {
+                if (id != null) {
+                    startEntry();
+                }
+                current.cartBeforeImage = current.images.isEmpty();
+                current.cartId = href.substring(from, to);
+            }
+            if (current.availability == null) {
+                current.availability = "in stock";
+            }
+        } else if (href.indexOf("stockMail") >= 0) {
+            availability("sold out");
+        }
+        lastLink.setLength(0);
+        lastLink.append(href);
+        hasLastLink = true;
+    }
+
+    private void image(CharSequence src, CharSequence alt) {
+        if (current.hasImage(src)) {
+            return;
+        }
+        // Image first, then its cart link: a new picture after the link starts the next entry.
+        // Any other picture is one more view of the same product.
+        if (current.cartId != null && !current.cartBeforeImage && !current.images.isEmpty()) {
+            startEntry();
+        }
+        current.images.add(new Image(src.toString(), alt != null ? alt.toString() : null,
+                hasLastLink ? catalogFromLink(lastLink) : null));
+    }
+
+    private void availability(String availability) {
+        current.availability = availability;
+    }
+
+    private void set(Field field, String value) {
+        String existing = switch (field) {
+            case ARTIST -> current.artist;
+            case TITLE -> current.title;
+            case PRICE -> current.price;
+            case CATALOG -> current.catalogNumber;
+        };
+        // A field seen twice belongs to the next entry, unless this one is not a product yet
+        if (existing != null && current.isProduct() && !existing.equals(value) && fromMarkup(field)) {
+            startEntry();
+        }
+        switch (field) {
+            case ARTIST -> current.artist = value;
+            case TITLE -> current.title = value;
+            case PRICE -> current.price = value;
+            case CATALOG -> current.catalogNumber = value;
+        }
+        current.fromMarkup.add(field);
+    }
+
+    private boolean fromMarkup(Field field) {
+        return current.fromMarkup.contains(field);
+    }
+
+    /**
+     * Hands the current entry to the listener if it is a product and starts a new one
+     */
+    private void startEntry() {
+        emit();
+        current.reset();
+    }
+
+    private void emit() {
+        if (!current.isProduct()) {
+            return;
+        }
+        // Without a cart link there is nothing to key on, every picture is an entry of its own
+        int entries = current.cartId == null ? Math.max(1, current.images.size()) : 1;
+        for (int i = 0; i < entries && !stopped; i++) {
+            products++;
+            if (listener != null && !listener.accept(current.build(i))) {
+                stopped = true;
+            }
+        }
+    }
+
+    private static int segmentEnd(CharSequence href, int from) {
+        int end = from;
+        while (end < href.length() && "/?#&".indexOf(href.charAt(end)) < 0) {
+            end++;
+        }
+        return end;
+    }
+
+    /**
+     * Catalog number from a product link such as /dtw004, or null for any other link
+     */
+    private static String catalogFromLink(CharSequence href) {
+        int from = href.length() > 0 && href.charAt(0) == '/' ? 1 : 0;
+        int length = href.length() - from;
+        if (length == 0 || length > 40) {
+            return null;
+        }
+        for (int i = from; i < href.length(); i++) {
+            char c = href.charAt(i);
+            if (!(Character.isLetterOrDigit(c) || c == '-')) {
+                return null;
+            }
+        }
+        return CodeCanonicalizer.canonical(href.subSequence(from, href.length()).toString());
+    }
+
+    /**
+     * A product picture with its alt text and the catalog number of the link around it
+     */
+    private record Image(String src, String alt, String linkCatalog) { }
+
+    /**
+     * The entry being read, reset rather than replaced when the next one starts
+     */
+    private static final class Builder {
+        String catalogNumber;
+        String artist;
+        String title;
+        String price;
+        String availability;
+        String cartId;
+        boolean cartBeforeImage;
+        final List<Image> images = new ArrayList<>(2);
+        final EnumSet<Field> fromMarkup = EnumSet.noneOf(Field.class);
+
+        void reset() {
+            catalogNumber = artist = title = price = availability = cartId = null;
+            cartBeforeImage = false;
+            images.clear();
+            fromMarkup.clear();
+        }
+
+        boolean isProduct() {
+            return !images.isEmpty() || cartId != null;
+        }
+
+        boolean hasImage(CharSequence src) {
+            for (Image image : images) {
+                if (image.src.contentEquals(src)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * The entry built around its index-th picture; fields from the markup go to the first
+         */
+        Product build(int index) {
+            Image image = index < images.size() ? images.get(index) : null;
+            String artist = index == 0 ? this.artist : null;
+            String title = index == 0 ? this.title : null;
+            String catalog = index == 0 ? catalogNumber : null;
+            if (catalog == null && image != null) {
+                catalog = image.linkCatalog;
+            }
+            if (image != null && image.alt != null && !image.alt.isBlank()) {
+                int dash = image.alt.indexOf(" - ");
+                if (dash > 0) {
+                    if (artist == null) artist = image.alt.substring(0, dash).trim();
+                    if (title == null) title = image.alt.substring(dash + 3).trim();
+                } else if (title == null) {
+                    title = image.alt.trim();
+                }
+            }
+            return new Product(catalog, artist, title, index == 0 ? price : null, availability, cartId,
+                    image != null ? image.src : null);
+        }
+    }
+
+    /**
+     * Reader over a CharSequence that copies straight from a String without a second copy
+     */
+    private static final class CharSequenceReader extends Reader {
+        private CharSequence content;
+        private int next;
+
+        CharSequenceReader open(CharSequence content) {
+            this.content = content;
+            next = 0;
+            return this;
+        }
+
+        @Override
+        public int read(char[] cbuf, int off, int len) {
+            int n = Math.min(len, content.length() - next);
+            if (n <= 0) {
+                return -1;
+            }
+            if (content instanceof String) {
+                ((String) content).getChars(next, next + n, cbuf, off);
+            } else {
+                for (int i = 0; i < n; i++) {
+                    cbuf[off + i] = content.charAt(next + i);
+                }
+            }
+            next += n;
+            return n;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    /**
+     * One product entry of a result page; fields the page does not show are null
+     */
+    public static final class Product {
+        public final String catalogNumber;
+        public final String artist;
+        public final String title;
+        public final String price;
+        /** "in stock" or "sold out" */
+        public final String availability;
+        public final String cartId;
+        public final String image;
+
+        public Product(String catalogNumber, String artist, String title, String price, String availability,
+                       String cartId, String image) {
+            this.catalogNumber = catalogNumber;
+            this.artist = artist;
+            this.title = title;
+            this.price = price;
+            this.availability = availability;
+            this.cartId = cartId;
+            this.image = image;
+        }
+
+        @Override
+        public String toString() {
+            return catalogNumber + " | " + artist + " - " + title + " | " + price + " | " + availability
+                    + " | cart " + cartId;
+        }
+    }
+
+    /**
+     * What a scan found in one document
+     */
+    public static final class Page {
+        public final boolean sorryMessage;
+        public final boolean productList;
+        /** Entries found, up to where the scan stopped */
+        public final int products;
+        /** False if the scan stopped before the end of the document */
+        public final boolean complete;
+
+        Page(boolean sorryMessage, boolean productList, int products, boolean complete) {
+            this.sorryMessage = sorryMessage;
+            this.productList = productList;
+            this.products = products;
+            this.complete = complete;
+        }
+
+        public boolean hasResults() {
+            return !sorryMessage && (products > 0 || productList);
+        }
+
+        /**
+         * Number of entries; a product list without recognizable entries counts as one
+         */
+        public int productCount() {
+            if (sorryMessage) {
+                return 0;
+            }
+            return products > 0 ? products : productList ? 1 : 0;
+        }
+    }
+}
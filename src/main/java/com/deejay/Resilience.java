@@ -0,0 +1,442 @@
+package com.deejay;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+
+/**
+ * Retries, hedging and a circuit breaker around the lookup of a single code.
+ *
+ * Only transient failures (timeouts, transport errors, 429/5xx) are retried, after a
+ * jittered exponential backoff; a genuine 'Sorry' page or any other result is final. An
+ * attempt still running after the p95 of the requests seen so far gets one duplicate, and
+ * whichever finishes first wins; the other is cancelled. When most recent attempts fail transiently the breaker
+ * opens and new attempts wait out a cooldown, after which a single trial decides whether
+ * dispatch resumes. Nothing here blocks a thread: waits are scheduled on a timer.
+ */
+public class Resilience {
+    private static final int MIN_HEDGE_SAMPLES = 20;
+    private static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "resilience-timer");
+        t.setDaemon(true);
+        return t;
+    });
+    // Attempts may block on the limiter, so they never run on the timer thread
+    private static final ExecutorService ATTEMPTS = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "resilience-attempt");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final Options options;
+    private final LatencyHistogram latencies = new LatencyHistogram();
+    private final CircuitBreaker breaker;
+    private final AtomicLong attempts = new AtomicLong();
+    private final AtomicLong retries = new AtomicLong();
+    private final AtomicLong hedges = new AtomicLong();
+    private final AtomicLong hedgeWins = new AtomicLong();
+
+    public Resilience(Options options) {
+        this.options = options;
+        this.breaker = options.breaker ? new CircuitBreaker(options.breakerWindow, options.breakerThreshold,
+                options.breakerCooldown) : null;
+    }
+
+    /**
+     * Looks a code up with retries, hedging and the breaker.
+     * @param attempt one regular lookup
+     * @param duplicate a lookup that does not join the regular one in flight, used for hedges
+     * @return the result; cancelling it cancels the attempt in flight and any further retry
+     */
+    public CompletableFuture<CodeAnalyzer.AnalysisResult> call(String code,
+            Function<String, CompletableFuture<CodeAnalyzer.AnalysisResult>> attempt,
+            Function<String, CompletableFuture<CodeAnalyzer.AnalysisResult>> duplicate) {
+        CompletableFuture<CodeAnalyzer.AnalysisResult> result = new CompletableFuture<>();
+        run(code, attempt, duplicate, 0, result);
+        return result;
+    }
+
+    private void run(String code, Function<String, CompletableFuture<CodeAnalyzer.AnalysisResult>> attempt,
+                     Function<String, CompletableFuture<CodeAnalyzer.AnalysisResult>> duplicate, int retry,
+                     CompletableFuture<CodeAnalyzer.AnalysisResult> result) {
+        if (result.isDone()) {
+            return;
+        }
+        long pause = breaker == null ? 0 : breaker.admit();
+        if (pause > 0) {
+            Metrics.count("breaker_waits");
+            later(() -> run(code, attempt, duplicate, retry, result), pause);
+            return;
+        }
+        CompletableFuture<CodeAnalyzer.AnalysisResult> running = hedged(code, attempt, duplicate);
+        result.whenComplete((r, e) -> {
+            if (result.isCancelled()) {
+                running.cancel(true);
+            }
+        });
+        running.whenComplete((outcome, error) -> {
+            if (result.isDone()) {
+                return;
+            }
+            CodeAnalyzer.AnalysisResult analysis = error == null ? outcome : CodeAnalyzer.errorResult(code, error);
+            if (breaker != null) {
+                breaker.record(!analysis.transientFailure);
+            }
+            if (!analysis.transientFailure || retry >= options.retries) {
+                result.complete(analysis);
+                return;
+            }
+            retries.incrementAndGet();
+            Metrics.count("retries");
+            later(() -> run(code, attempt, duplicate, retry + 1, result), backoff(retry));
+        });
+    }
+
+    private static void later(Runnable task, long nanos) {
+        TIMER.schedule(() -> ATTEMPTS.execute(task), nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Jittered backoff: between half and all of the base doubled per retry, capped at maxBackoff
+     */
+    long backoff(int retry) {
+        long ceiling = Math.min(options.maxBackoff.toNanos(), options.backoff.toNanos() << Math.min(retry, 20));
+        return ThreadLocalRandom.current().nextLong(ceiling / 2, ceiling + 1);
+    }
+
+    /**
+     * One attempt, plus a duplicate if it is still running after the observed p95
+     */
+    private CompletableFuture<CodeAnalyzer.AnalysisResult> hedged(String code,
+            Function<String, CompletableFuture<CodeAnalyzer.AnalysisResult>> attempt,
+            Function<String, CompletableFuture<CodeAnalyzer.AnalysisResult>> duplicate) {
+        CompletableFuture<CodeAnalyzer.AnalysisResult> first = start(code, attempt, true);
+        long delay = hedgeDelay();
+        if (delay <= 0 || first.isDone()) {
+            return first;
+        }
+        CompletableFuture<CodeAnalyzer.AnalysisResult> winner = new CompletableFuture<>();
+        AtomicInteger running = new AtomicInteger(1);
+        AtomicReference<CompletableFuture<CodeAnalyzer.AnalysisResult>> hedge = new AtomicReference<>();
+        first.whenComplete((r, e) -> settle(code, winner, running, r, e, () -> { }));
+        ScheduledFuture<?> timer = TIMER.schedule(() -> {
+            if (winner.isDone()) {
+                return;
+            }
+            running.incrementAndGet();
+            hedges.incrementAndGet();
+            Metrics.count("hedges");
+            ATTEMPTS.execute(() -> {
+                CompletableFuture<CodeAnalyzer.AnalysisResult> copy = start(code, duplicate, false);
+                hedge.set(copy);
+                copy.whenComplete((r, e) -> settle(code, winner, running, r, e, () -> {
+                    hedgeWins.incrementAndGet();
+                    Metrics.count("hedge_wins");
+                }));
+                if (winner.isDone()) {
+                    copy.cancel(true);
+                }
+            });
+        }, delay, TimeUnit.NANOSECONDS);
+        // The copy that lost gives up its request before the caller sees the result;
+        // an attempt shared with other callers keeps running for them
+        CompletableFuture<CodeAnalyzer.AnalysisResult> done = winner.whenComplete((r, e) -> {
+            timer.cancel(false);
+            first.cancel(true);
+            CompletableFuture<CodeAnalyzer.AnalysisResult> copy = hedge.get();
+            if (copy != null) {
+                copy.cancel(true);
+            }
+        });
+        done.whenComplete((r, e) -> {
+            if (done.isCancelled()) {
+                winner.cancel(true);
+            }
+        });
+        return done;
+    }
+
+    /**
+     * A transient failure of one copy does not win while the other may still succeed.
+     * The win is counted before the result is handed on, so callers see it in the statistics.
+     */
+    private static void settle(String code, CompletableFuture<CodeAnalyzer.AnalysisResult> winner,
+                               AtomicInteger running, CodeAnalyzer.AnalysisResult result, Throwable error,
+                               Runnable won) {
+        int left = running.decrementAndGet();
+        if (winner.isDone() || error instanceof CancellationException) {
+            return;
+        }
+        CodeAnalyzer.AnalysisResult analysis = error == null ? result : CodeAnalyzer.errorResult(code, error);
+        if (analysis.transientFailure && left > 0) {
+            return;
+        }
+        synchronized (winner) {
+            if (!winner.isDone()) {
+                won.run();
+                winner.complete(analysis);
+            }
+        }
+    }
+
+    /**
+     * Starts a lookup. One that is already done when it returns was answered from the cache,
+     * the journal or an archive without a request, so it is neither an attempt nor a latency.
+     * @param regular true for a regular attempt, false for a hedge, which is counted on its own
+     */
+    private CompletableFuture<CodeAnalyzer.AnalysisResult> start(String code,
+            Function<String, CompletableFuture<CodeAnalyzer.AnalysisResult>> lookup, boolean regular) {
+        long start = System.nanoTime();
+        CompletableFuture<CodeAnalyzer.AnalysisResult> future;
+        try {
+            future = lookup.apply(code);
+        } catch (RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        if (future.isDone()) {
+            return future;
+        }
+        if (regular) {
+            attempts.incrementAndGet();
+        }
+        CompletableFuture<CodeAnalyzer.AnalysisResult> running = future;
+        CompletableFuture<CodeAnalyzer.AnalysisResult> timed = future.whenComplete((r, e) -> {
+            if (e == null && !r.transientFailure) {
+                latencies.record(System.nanoTime() - start);
+            }
+        });
+        timed.whenComplete((r, e) -> {
+            if (timed.isCancelled()) {
+                running.cancel(true);
+            }
+        });
+        return timed;
+    }
+
+    /**
+     * Nanoseconds after which an attempt is hedged, 0 for no hedging
+     */
+    long hedgeDelay() {
+        if (!options.hedge || latencies.getCount() < MIN_HEDGE_SAMPLES) {
+            return 0;
+        }
+        // Keep duplicates to a small share of all attempts
+        if (hedges.get() > attempts.get() * options.hedgeBudget) {
+            return 0;
+        }
+        return Math.max(options.minHedgeDelay.toNanos(), latencies.quantile(0.95));
+    }
+
+    public String summary() {
+        return "Resilience: " + retries.get() + " retries, " + hedges.get() + " hedges (" + hedgeWins.get()
+                + " won), breaker " + (breaker == null ? "off" : breaker.state() + ", opened " + breaker.getOpened()
+                + " times");
+    }
+
+    /**
+     * Regular attempts that went to the network, the base of the hedge budget
+     */
+    public long getAttempts() {
+        return attempts.get();
+    }
+
+    public long getRetries() {
+        return retries.get();
+    }
+
+    public long getHedges() {
+        return hedges.get();
+    }
+
+    public long getHedgeWins() {
+        return hedgeWins.get();
+    }
+
+    CircuitBreaker getBreaker() {
+        return breaker;
+    }
+
+    /**
+     * Opens when the share of transient failures among the last attempts reaches a threshold,
+     * pauses dispatch for a cooldown, then lets a single trial through
+     */
+    static class CircuitBreaker {
+        enum State { CLOSED, OPEN, HALF_OPEN }
+
+        private final boolean[] window;
+        private final double threshold;
+        private final long cooldownNanos;
+        private State state = State.CLOSED;
+        private int next;
+        private int samples;
+        private int failures;
+        private long openUntil;
+        private boolean trialRunning;
+        private long opened;
+
+        CircuitBreaker(int window, double threshold, Duration cooldown) {
+            this.window = new boolean[Math.max(1, window)];
+            this.threshold = threshold;
+            this.cooldownNanos = cooldown.toNanos();
+        }
+
+        /**
+         * 0 if an attempt may start now, otherwise how long to wait before asking again
+         */
+        synchronized long admit() {
+            long now = System.nanoTime();
+            if (state == State.OPEN) {
+                if (now < openUntil) {
+                    return openUntil - now;
+                }
+                state = State.HALF_OPEN;
+                trialRunning = false;
+            }
+            if (state == State.HALF_OPEN) {
+                if (trialRunning) {
+                    return Math.max(1, cooldownNanos / 10);
+                }
+                trialRunning = true;
+            }
+            return 0;
+        }
+
+        synchronized void record(boolean success) {
+            if (state == State.HALF_OPEN) {
+                if (success) {
+                    state = State.CLOSED;
+                    Arrays.fill(window, false);
+                    samples = 0;
+                    failures = 0;
+                    next = 0;
+                } else {
+                    open();
+                }
+                return;
+            }
+            if (state == State.OPEN) {
+                return;
+            }
+            if (samples == window.length && window[next]) {
+                failures--;
+            }
+            window[next] = !success;
+            if (!success) {
+                failures++;
+            }
+            next = (next + 1) % window.length;
+            samples = Math.min(samples + 1, window.length);
+            if (samples == window.length && failures >= threshold * window.length) {
+                open();
+            }
+        }
+
+        private void open() {
+            state = State.OPEN;
+            openUntil = System.nanoTime() + cooldownNanos;
+            opened++;
+            Metrics.count("breaker_opened");
+        }
+
+        synchronized State state() {
+            return state;
+        }
+
+        synchronized long getOpened() {
+            return opened;
+        }
+    }
+
+    /**
+     * Settings of retries, hedging and the breaker
+     */
+    public static class Options {
+        private int retries = 2;
+        private Duration backoff = Duration.ofMillis(500);
+        private Duration maxBackoff = Duration.ofSeconds(10);
+        private boolean hedge = true;
+        private Duration minHedgeDelay = Duration.ofMillis(50);
+        private double hedgeBudget = 0.1;
+        private boolean breaker = true;
+        private int breakerWindow = 20;
+        private double breakerThreshold = 0.5;
+        private Duration breakerCooldown = Duration.ofSeconds(30);
+
+        /**
+         * --retries (default 2), --retry-backoff (500ms), --no-hedge, --hedge-min-delay (50ms),
+         * --no-breaker, --breaker-threshold (0.5 of the last 20 attempts) and --breaker-cooldown (30s)
+         */
+        public static Options from(RunOptions run) {
+            String threshold = run.get("breaker-threshold", "0.5");
+            try {
+                return new Options()
+                        .setRetries(run.getInt("retries", 2))
+                        .setBackoff(run.getDuration("retry-backoff", Duration.ofMillis(500)))
+                        .setHedge(!run.has("no-hedge"))
+                        .setMinHedgeDelay(run.getDuration("hedge-min-delay", Duration.ofMillis(50)))
+                        .setBreaker(!run.has("no-breaker"))
+                        .setBreakerThreshold(Double.parseDouble(threshold))
+                        .setBreakerCooldown(run.getDuration("breaker-cooldown", Duration.ofSeconds(30)));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("--breaker-threshold expects a number but was: " + threshold);
+            }
+        }
+
+        public Options setRetries(int retries) {
+            this.retries = Math.max(0, retries);
+            return this;
+        }
+
+        public Options setBackoff(Duration backoff) {
+            this.backoff = backoff;
+            return this;
+        }
+
+        public Options setMaxBackoff(Duration maxBackoff) {
+            this.maxBackoff = maxBackoff;
+            return this;
+        }
+
+        public Options setHedge(boolean hedge) {
+            this.hedge = hedge;
+            return this;
+        }
+
+        public Options setMinHedgeDelay(Duration minHedgeDelay) {
+            this.minHedgeDelay = minHedgeDelay;
+            return this;
+        }
+
+        /**
+         * Highest share of attempts that may be hedged
+         */
+        public Options setHedgeBudget(double hedgeBudget) {
+            this.hedgeBudget = hedgeBudget;
+            return this;
+        }
+
+        public Options setBreaker(boolean breaker) {
+            this.breaker = breaker;
+            return this;
+        }
+
+        public Options setBreakerWindow(int breakerWindow) {
+            this.breakerWindow = breakerWindow;
+            return this;
+        }
+
+        public Options setBreakerThreshold(double breakerThreshold) {
+            this.breakerThreshold = breakerThreshold;
+            return this;
+        }
+
+        public Options setBreakerCooldown(Duration breakerCooldown) {
+            this.breakerCooldown = breakerCooldown;
+            return this;
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package com.deejay;
+
+import com.microsoft.playwright.*;
+import com.microsoft.playwright.options.Sizes;
+import java.net.URI;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Request interception for browser mode that aborts everything the checkers do not need.
+ *
+ * The shell page pulls in stylesheets, fonts, the player, waveform and product images and
+ * Google Tag Manager, while only the content.php frame document is read. Requests are
+ * aborted by resource type and by host; documents, scripts and XHR of the shop itself pass.
+ * Blocked requests are counted per type and the bytes of the requests that did load are
+ * summed. An aborted request never reports a size, so the bytes saved are not estimated;
+ * the loaded bytes of a --no-block run give the baseline to compare against.
+ */
+public class ResourceBlocker {
+    public static final Set<String> DEFAULT_TYPES = Set.of("image", "font", "media", "stylesheet");
+    public static final Set<String> DEFAULT_HOSTS = Set.of(
+            "googletagmanager.com", "google-analytics.com", "analytics.google.com",
+            "doubleclick.net", "googlesyndication.com", "connect.facebook.net", "hotjar.com");
+
+    private final Set<String> blockedTypes;
+    private final Set<String> blockedHosts;
+    private final Map<String, LongAdder> blockedByType = new ConcurrentHashMap<>();
+    private final LongAdder allowedRequests = new LongAdder();
+    private final LongAdder transferredBytes = new LongAdder();
+
+    public ResourceBlocker(Set<String> blockedTypes, Set<String> blockedHosts) {
+        this.blockedTypes = blockedTypes;
+        this.blockedHosts = blockedHosts;
+    }
+
+    /**
+     * Rules from --block-types=image,font and --block-hosts=example.com; --no-block only counts
+     */
+    public static ResourceBlocker fromOptions(RunOptions options) {
+        if (options.has("no-block")) {
+            return new ResourceBlocker(Set.of(), Set.of());
+        }
+        return new ResourceBlocker(
+                parseList(options.get("block-types", null), DEFAULT_TYPES),
+                parseList(options.get("block-hosts", null), DEFAULT_HOSTS));
+    }
+
+    private static Set<String> parseList(String value, Set<String> defaults) {
+        if (value == null) {
+            return defaults;
+        }
+        Set<String> items = new HashSet<>();
+        for (String item : value.split(",")) {
+            if (!item.isBlank()) {
+                items.add(item.trim().toLowerCase(Locale.ROOT));
+            }
+        }
+        return items;
+    }
+
+    /**
+     * Installs the rules on every page of a context
+     */
+    public void install(BrowserContext context) {
+        if (!blockedTypes.isEmpty() || !blockedHosts.isEmpty()) {
+            context.route("**/*", this::handle);
+        }
+        context.onRequestFinished(this::finished);
+    }
+
+    boolean shouldBlock(String resourceType, String url) {
+        if (blockedTypes.contains(resourceType)) {
+            return true;
+        }
+        String host;
+        try {
+            host = URI.create(url).getHost();
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+        if (host == null) {
+            return false;
+        }
+        host = host.toLowerCase(Locale.ROOT);
+        for (String blocked : blockedHosts) {
+            if (host.equals(blocked) || host.endsWith("." + blocked)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void handle(Route route) {
+        Request request = route.request();
+        if (shouldBlock(request.resourceType(), request.url())) {
+            blockedByType.computeIfAbsent(request.resourceType(), t -> new LongAdder()).increment();
+            Metrics.count("requests_blocked");
+            route.abort("blockedbyclient");
+        } else {
+            route.resume();
+        }
+    }
+
+    private void finished(Request request) {
+        allowedRequests.increment();
+        try {
+            Sizes sizes = request.sizes();
+            long bytes = (long) sizes.responseHeadersSize + Math.max(0, sizes.responseBodySize);
+            transferredBytes.add(bytes);
+            Metrics.add("bytes_transferred", bytes);
+        } catch (PlaywrightException e) {
+            // The page may already be gone, the request still counts
+        }
+    }
+
+    public long getBlockedRequests() {
+        long total = 0;
+        for (LongAdder count : blockedByType.values()) {
+            total += count.sum();
+        }
+        return total;
+    }
+
+    public long getTransferredBytes() {
+        return transferredBytes.sum();
+    }
+
+    /**
+     * One line summary, e.g. "Blocked 412 requests (image=300, stylesheet=80, ...), loaded 96 requests / 1.2 MB"
+     */
+    public String summary() {
+        StringBuilder sb = new StringBuilder("Blocked ").append(getBlockedRequests()).append(" requests");
+        if (!blockedByType.isEmpty()) {
+            StringJoiner types = new StringJoiner(", ", " (", ")");
+            new TreeMap<>(blockedByType).forEach((type, count) -> types.add(type + "=" + count.sum()));
+            sb.append(types);
+        }
+        return sb.append(String.format(", loaded %d requests / %.1f MB", allowedRequests.sum(),
+                getTransferredBytes() / (1024.0 * 1024.0))).toString();
+    }
+}
@@ -0,0 +1,391 @@
+package com.deejay;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Persistent per-code result cache so re-runs only look up codes whose last result expired.
+ *
+ * Entries live in an append-only log of tab separated lines, one per lookup, keyed by the
+ * normalized code. The log is read lazily on first access, later lines win, and it is
+ * compacted on close once it holds mostly superseded lines. FOUND, NOT FOUND and ERROR
+ * results expire after separate TTLs, so failures are retried soon while stable hits are not.
+ * Each entry also keeps the validators of its response (ETag, Last-Modified and a content
+ * hash), so an expired entry can be revalidated instead of downloaded and parsed again.
+ *
+ * Several processes may share one log, e.g. the coordinator and a plain run on the same
+ * directory. Every read, append and compaction holds an exclusive FileChannel lock on the
+ * log: lines are appended as whole batches at the end of the file, a torn line can only be
+ * left by a killed process, and compaction rewrites the file in place from everything any
+ * process has appended, so no appender is left writing to a replaced file.
+ */
+public class ResultCache implements AutoCloseable {
+    public static final Path DEFAULT_FILE = Paths.get(".deejay-cache", "results.log");
+    private static final int FLUSH_EVERY_LINES = 64;
+    // One monitor per log file, since a JVM may hold only one FileChannel lock on a file
+    private static final Map<Path, Object> FILE_MONITORS = new ConcurrentHashMap<>();
+
+    private final Path file;
+    private final Duration ttlFound;
+    private final Duration ttlNotFound;
+    private final Duration ttlError;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final AtomicInteger hits = new AtomicInteger();
+    private final AtomicInteger misses = new AtomicInteger();
+    private volatile boolean loaded;
+    private FileChannel channel;
+    private final StringBuilder pending = new StringBuilder();
+    private int pendingLines;
+    // Lines of the log as far as this process knows, other processes may have added more
+    private long logLines;
+
+    /**
+     * Work on the log while this process holds its lock
+     */
+    @FunctionalInterface
+    private interface LockedWork {
+        void run(FileChannel channel) throws IOException;
+    }
+
+    /**
+     * @param file the log file, or null for a cache that never stores anything
+     */
+    public ResultCache(Path file, Duration ttlFound, Duration ttlNotFound, Duration ttlError) {
+        this.file = file;
+        this.ttlFound = ttlFound;
+        this.ttlNotFound = ttlNotFound;
+        this.ttlError = ttlError;
+    }
+
+    /**
+     * Cache configured by --cache=&lt;file&gt;, --no-cache, --ttl-found, --ttl-not-found and --ttl-error
+     */
+    public static ResultCache fromOptions(RunOptions options) {
+        if (options.has("no-cache")) {
+            return disabled();
+        }
+        return new ResultCache(Paths.get(options.get("cache", DEFAULT_FILE.toString())),
+                options.getDuration("ttl-found", Duration.ofHours(24)),
+                options.getDuration("ttl-not-found", Duration.ofHours(6)),
+                options.getDuration("ttl-error", Duration.ofMinutes(10)));
+    }
+
+    public static ResultCache disabled() {
+        return new ResultCache(null, Duration.ZERO, Duration.ZERO, Duration.ZERO);
+    }
+
+    /**
+     * False for a cache that never stores anything
+     */
+    public boolean isEnabled() {
+        return file != null;
+    }
+
+    /**
+     * Normalized cache key of a code
+     */
+    public static String key(String code) {
+        return CodeCanonicalizer.canonical(code);
+    }
+
+    /**
+     * Returns the cached result of a code if it has not expired yet, otherwise null
+     */
+    public CodeAnalyzer.AnalysisResult get(String code) {
+        Entry entry = getEntry(code);
+        if (entry == null || !isFresh(entry, System.currentTimeMillis())) {
+            misses.incrementAndGet();
+            Metrics.count("cache_misses");
+            return null;
+        }
+        hits.incrementAndGet();
+        Metrics.count("cache_hits");
+        return entry.toResult(code);
+    }
+
+    /**
+     * Returns the last stored entry of a code regardless of its age, or null
+     */
+    public Entry getEntry(String code) {
+        if (file == null) {
+            return null;
+        }
+        ensureLoaded();
+        return entries.get(key(code));
+    }
+
+    public boolean isFresh(Entry entry, long now) {
+        Duration ttl = switch (entry.resultType) {
+            case SINGLE_RESULT, MULTIPLE_RESULTS -> ttlFound;
+            case STATIC_HTML_ONLY -> ttlNotFound;
+            case ERROR -> ttlError;
+        };
+        return now - entry.fetchedAt < ttl.toMillis();
+    }
+
+    /**
+     * Stores the result of a lookup that was just made
+     */
+    public void put(CodeAnalyzer.AnalysisResult result, int httpStatus) {
+        put(result, httpStatus, null, null, null);
+    }
+
+    /**
+     * Stores the result of a lookup together with the validators of its response, any of which may be null
+     */
+    public void put(CodeAnalyzer.AnalysisResult result, int httpStatus, String etag, String lastModified,
+                    String contentHash) {
+        // A timeout or a dropped connection says nothing about the code, the next lookup tries again
+        if (file == null || result.transientFailure) {
+            return;
+        }
+        ensureLoaded();
+        Entry entry = new Entry(key(result.code), result.resultType, result.productCount,
+                System.currentTimeMillis(), httpStatus, etag, lastModified, contentHash);
+        entries.put(entry.code, entry);
+        synchronized (this) {
+            pending.append(entry.toLine()).append('\n');
+            logLines++;
+            if (++pendingLines >= FLUSH_EVERY_LINES) {
+                try {
+                    flush();
+                } catch (IOException e) {
+                    System.err.println("Error writing result cache: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    public int getHits() {
+        return hits.get();
+    }
+
+    public int getMisses() {
+        return misses.get();
+    }
+
+    private void ensureLoaded() {
+        if (loaded) {
+            return;
+        }
+        synchronized (this) {
+            if (loaded) {
+                return;
+            }
+            try {
+                if (Files.exists(file)) {
+                    // A torn last line from a killed run is skipped
+                    locked(channel -> logLines += read(channel, entries));
+                }
+            } catch (IOException e) {
+                System.err.println("Error reading result cache: " + e.getMessage());
+            }
+            loaded = true;
+        }
+    }
+
+    /**
+     * Opens the log on first use and runs the work while holding its lock. The channel stays
+     * open: closing any channel of the file would release the lock of the whole process.
+     */
+    private synchronized void locked(LockedWork work) throws IOException {
+        if (channel == null) {
+            Files.createDirectories(file.toAbsolutePath().getParent());
+            channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+        }
+        synchronized (FILE_MONITORS.computeIfAbsent(file.toAbsolutePath().normalize(), f -> new Object())) {
+            FileLock lock = channel.lock();
+            try {
+                work.run(channel);
+            } finally {
+                lock.release();
+            }
+        }
+    }
+
+    /**
+     * Puts every entry of the log into latest, later lines win
+     * @return number of lines read
+     */
+    private static long read(FileChannel channel, Map<String, Entry> latest) throws IOException {
+        long lines = 0;
+        channel.position(0);
+        // Not closed, that would close the channel
+        BufferedReader reader = new BufferedReader(Channels.newReader(channel, StandardCharsets.UTF_8));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            lines++;
+            Entry entry = Entry.parse(line);
+            if (entry != null) {
+                latest.put(entry.code, entry);
+            }
+        }
+        return lines;
+    }
+
+    /**
+     * Appends the pending lines as one batch. A torn last line can only be left by a killed
+     * process, so it is cut first and the batch starts on a line of its own.
+     */
+    private synchronized void flush() throws IOException {
+        if (pendingLines == 0) {
+            return;
+        }
+        ByteBuffer batch = ByteBuffer.wrap(pending.toString().getBytes(StandardCharsets.UTF_8));
+        pending.setLength(0);
+        pendingLines = 0;
+        locked(channel -> {
+            long end = committedLength(channel);
+            channel.truncate(end);
+            while (batch.hasRemaining()) {
+                end += channel.write(batch, end);
+            }
+        });
+    }
+
+    private static long committedLength(FileChannel channel) throws IOException {
+        long end = channel.size();
+        ByteBuffer last = ByteBuffer.allocate(1);
+        while (end > 0) {
+            last.clear();
+            channel.read(last, end - 1);
+            if (last.get(0) == '\n') {
+                break;
+            }
+            end--;
+        }
+        return end;
+    }
+
+    /**
+     * Rewrites the log in place with only the latest entry per code, including the entries
+     * other processes appended since it was loaded. Done under the lock, so no process
+     * appends meanwhile; a crash halfway only costs cache entries.
+     */
+    private void compact() throws IOException {
+        locked(channel -> {
+            Map<String, Entry> latest = new LinkedHashMap<>();
+            long lines = read(channel, latest);
+            logLines = lines;
+            if (lines <= 2L * latest.size() + 100) {
+                return;
+            }
+            StringBuilder compacted = new StringBuilder();
+            for (Entry entry : latest.values()) {
+                compacted.append(entry.toLine()).append('\n');
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(compacted.toString().getBytes(StandardCharsets.UTF_8));
+            channel.truncate(0);
+            long position = 0;
+            while (buffer.hasRemaining()) {
+                position += channel.write(buffer, position);
+            }
+            channel.force(false);
+            logLines = latest.size();
+        });
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            flush();
+            // Other processes only add lines, so a log this process sees as small is small enough
+            if (loaded && channel != null && logLines > 2L * entries.size() + 100) {
+                compact();
+            }
+        } finally {
+            if (channel != null) {
+                channel.close();
+                channel = null;
+            }
+        }
+    }
+
+    /**
+     * Cached outcome of the last lookup of a code
+     */
+    public static class Entry {
+        public final String code;
+        public final CodeAnalyzer.ResultType resultType;
+        public final int productCount;
+        public final long fetchedAt;
+        public final int httpStatus;
+        /** Validators of the response the result came from, null if unknown */
+        public final String etag;
+        public final String lastModified;
+        public final String contentHash;
+
+        public Entry(String code, CodeAnalyzer.ResultType resultType, int productCount, long fetchedAt, int httpStatus) {
+            this(code, resultType, productCount, fetchedAt, httpStatus, null, null, null);
+        }
+
+        public Entry(String code, CodeAnalyzer.ResultType resultType, int productCount, long fetchedAt, int httpStatus,
+                     String etag, String lastModified, String contentHash) {
+            this.code = code;
+            this.resultType = resultType;
+            this.productCount = productCount;
+            this.fetchedAt = fetchedAt;
+            this.httpStatus = httpStatus;
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.contentHash = contentHash;
+        }
+
+        /**
+         * True if the entry can be revalidated instead of fetched and parsed again
+         */
+        public boolean hasValidators() {
+            return resultType != CodeAnalyzer.ResultType.ERROR
+                    && (etag != null || lastModified != null || contentHash != null);
+        }
+
+        CodeAnalyzer.AnalysisResult toResult(String originalCode) {
+            String description = switch (resultType) {
+                case SINGLE_RESULT -> "Single product found in iframe (cached)";
+                case MULTIPLE_RESULTS -> "Multiple products found in iframe (cached)";
+                case STATIC_HTML_ONLY -> "No product indicators - only checking static HTML (cached)";
+                case ERROR -> "Error analyzing code: HTTP " + httpStatus + " (cached)";
+            };
+            return new CodeAnalyzer.AnalysisResult(originalCode, resultType, description, productCount);
+        }
+
+        String toLine() {
+            String line = code + "\t" + resultType + "\t" + productCount + "\t" + fetchedAt + "\t" + httpStatus;
+            if (etag == null && lastModified == null && contentHash == null) {
+                return line;
+            }
+            return line + "\t" + field(etag) + "\t" + field(lastModified) + "\t" + field(contentHash);
+        }
+
+        private static String field(String value) {
+            return value == null ? "" : value.replace('\t', ' ');
+        }
+
+        private static String optional(String[] fields, int index) {
+            return fields.length > index && !fields[index].isEmpty() ? fields[index] : null;
+        }
+
+        static Entry parse(String line) {
+            String[] fields = line.split("\t", -1);
+            if (fields.length < 5) {
+                return null;
+            }
+            try {
+                // Lines of older versions end after the status and have no validators
+                return new Entry(fields[0], CodeAnalyzer.ResultType.valueOf(fields[1]),
+                        Integer.parseInt(fields[2]), Long.parseLong(fields[3]), Integer.parseInt(fields[4]),
+                        optional(fields, 5), optional(fields, 6), optional(fields, 7));
+            } catch (IllegalArgumentException e) {
+                return null;
+            }
+        }
+    }
+}
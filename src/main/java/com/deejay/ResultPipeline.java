@@ -0,0 +1,181 @@
+package com.deejay;
+
+import java.util.Iterator;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Producer/consumer pipeline that hands out results in completion order.
+ *
+ * A producer thread pulls codes from the input as it is read into a bounded queue, a fixed
+ * set of workers looks them up, and the calling thread is the single writer that receives
+ * each result as soon as it is done. Both queues are bounded, so a slow writer or slow
+ * lookups hold back reading instead of buffering the input, and memory stays constant
+ * however long the input is. A code is only pulled from the input once there is room for
+ * it, so with no read-ahead it is taken just when a worker is free. Workers run on virtual
+ * threads when the JVM has them.
+ */
+public class ResultPipeline {
+    private static final String END = new String("<end of input>");
+    private static final long POLL_MILLIS = 100;
+
+    private final int workers;
+    private final BlockingQueue<String> input;
+    private final BlockingQueue<CodeAnalyzer.AnalysisResult> output;
+    // Codes pulled from the input but not finished yet, at most the workers plus the read-ahead
+    private final Semaphore room;
+    private final ThreadFactory threadFactory = threadFactory("pipeline");
+    private final CountDownLatch workersDone;
+    private final ConcurrentLinkedQueue<Thread> threads = new ConcurrentLinkedQueue<>();
+    private volatile boolean cancelled;
+    private volatile Throwable failure;
+
+    /**
+     * Looks up a single code on a worker thread; blocking is fine
+     */
+    @FunctionalInterface
+    public interface Task {
+        CodeAnalyzer.AnalysisResult run(String code) throws Exception;
+    }
+
+    /**
+     * Receives every result on the writer thread, in completion order
+     */
+    @FunctionalInterface
+    public interface Sink {
+        void accept(CodeAnalyzer.AnalysisResult result) throws Exception;
+    }
+
+    /**
+     * @param workers number of lookups running at once
+     * @param queueCapacity codes read ahead and results waiting for the writer, each;
+     *        0 reads the next code only once a worker is free
+     */
+    public ResultPipeline(int workers, int queueCapacity) {
+        this.workers = Math.max(1, workers);
+        this.input = new ArrayBlockingQueue<>(Math.max(1, queueCapacity));
+        this.output = new ArrayBlockingQueue<>(Math.max(1, queueCapacity));
+        this.room = new Semaphore(this.workers + Math.max(0, queueCapacity));
+        this.workersDone = new CountDownLatch(this.workers);
+    }
+
+    /**
+     * Virtual thread factory on Java 21+, daemon platform threads before that
+     */
+    static ThreadFactory threadFactory(String name) {
+        try {
+            Class<?> builderType = Class.forName("java.lang.Thread$Builder");
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            builder = builderType.getMethod("name", String.class, long.class).invoke(builder, name + "-", 0L);
+            return (ThreadFactory) builderType.getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException | LinkageError e) {
+            AtomicInteger count = new AtomicInteger();
+            return r -> {
+                Thread t = new Thread(r, name + "-" + count.getAndIncrement());
+                t.setDaemon(true);
+                return t;
+            };
+        }
+    }
+
+    /**
+     * Runs the pipeline to completion, writing on the calling thread.
+     * @return number of results handed to the sink
+     */
+    public long run(Iterator<String> codes, Task task, Sink sink) throws Exception {
+        start(() -> produce(codes));
+        for (int i = 0; i < workers; i++) {
+            start(() -> work(task));
+        }
+        long written = 0;
+        try {
+            while (true) {
+                CodeAnalyzer.AnalysisResult result = output.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (result != null) {
+                    sink.accept(result);
+                    written++;
+                } else if (workersDone.getCount() == 0 && output.isEmpty()) {
+                    break;
+                }
+            }
+        } catch (Exception e) {
+            cancel();
+            throw e;
+        }
+        if (failure instanceof Exception) {
+            throw (Exception) failure;
+        } else if (failure != null) {
+            throw new ExecutionException(failure);
+        }
+        return written;
+    }
+
+    /**
+     * Stops reading input and interrupts the workers. Results already completed still
+     * reach the sink before run() returns.
+     */
+    public void cancel() {
+        cancelled = true;
+        for (Thread thread : threads) {
+            thread.interrupt();
+        }
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    private void start(Runnable body) {
+        Thread thread = threadFactory.newThread(body);
+        threads.add(thread);
+        thread.start();
+    }
+
+    private void produce(Iterator<String> codes) {
+        try {
+            while (!cancelled) {
+                room.acquire();
+                if (!codes.hasNext()) {
+                    break;
+                }
+                input.put(codes.next());
+            }
+            for (int i = 0; i < workers; i++) {
+                input.put(END);
+            }
+        } catch (InterruptedException e) {
+            // Cancelled
+        } catch (RuntimeException e) {
+            failure = e;
+            cancel();
+        }
+    }
+
+    private void work(Task task) {
+        try {
+            while (!cancelled) {
+                String code = input.take();
+                if (code == END) {
+                    return;
+                }
+                CodeAnalyzer.AnalysisResult result;
+                try {
+                    result = task.run(code);
+                } catch (InterruptedException e) {
+                    return;
+                } catch (Exception e) {
+                    if (cancelled) {
+                        return;
+                    }
+                    result = CodeAnalyzer.errorResult(code, e instanceof ExecutionException ? e.getCause() : e);
+                }
+                output.put(result);
+                room.release();
+            }
+        } catch (InterruptedException e) {
+            // Cancelled
+        } finally {
+            workersDone.countDown();
+        }
+    }
+}
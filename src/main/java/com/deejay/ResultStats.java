@@ -0,0 +1,92 @@
+package com.deejay;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Running counts per result type, updated as results arrive so summaries cost O(1).
+ *
+ * As a stage it also prints a progress line with throughput and ETA every interval.
+ * The ETA needs the number of codes to expect; without it only the rate is shown.
+ */
+public class ResultStats implements LookupEngine.Stage {
+    private final LongAdder[] counts = new LongAdder[CodeAnalyzer.ResultType.values().length];
+    private final LongAdder total = new LongAdder();
+    private final long expected;
+    private final long progressIntervalNanos;
+    private final long startedAt = System.nanoTime();
+    private long lastProgress = startedAt;
+
+    /**
+     * @param expected number of codes the run will look up, or 0 if unknown
+     * @param progressIntervalMillis time between progress lines, 0 for none
+     */
+    public ResultStats(long expected, long progressIntervalMillis) {
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = new LongAdder();
+        }
+        this.expected = expected;
+        this.progressIntervalNanos = progressIntervalMillis * 1_000_000;
+    }
+
+    @Override
+    public void accept(CodeAnalyzer.AnalysisResult result) {
+        counts[result.resultType.ordinal()].increment();
+        total.increment();
+        if (progressIntervalNanos > 0) {
+            long now = System.nanoTime();
+            if (now - lastProgress >= progressIntervalNanos) {
+                lastProgress = now;
+                System.out.println(progressLine(now));
+            }
+        }
+    }
+
+    public long count(CodeAnalyzer.ResultType type) {
+        return counts[type.ordinal()].sum();
+    }
+
+    public long total() {
+        return total.sum();
+    }
+
+    /**
+     * Codes per second since the stats were created
+     */
+    public double rate(long nowNanos) {
+        double seconds = (nowNanos - startedAt) / 1e9;
+        return seconds <= 0 ? 0 : total() / seconds;
+    }
+
+    /**
+     * e.g. "Progress: 120/560 codes (21.4%), 35.2 codes/s, ETA 0:12"
+     */
+    public String progressLine(long nowNanos) {
+        long done = total();
+        double rate = rate(nowNanos);
+        StringBuilder sb = new StringBuilder("Progress: ").append(done);
+        if (expected > 0) {
+            sb.append('/').append(expected).append(" codes").append(String.format(" (%.1f%%)", 100.0 * done / expected));
+        } else {
+            sb.append(" codes");
+        }
+        sb.append(String.format(", %.1f codes/s", rate));
+        if (expected > 0 && rate > 0) {
+            long seconds = (long) Math.ceil(Math.max(0, expected - done) / rate);
+            sb.append(String.format(", ETA %d:%02d", seconds / 60, seconds % 60));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * The summary block of the analysis report, one line each
+     */
+    public String[] summaryLines() {
+        return new String[] {
+            String.format("Total codes analyzed: %d", total()),
+            String.format("Single result: %d", count(CodeAnalyzer.ResultType.SINGLE_RESULT)),
+            String.format("Multiple results: %d", count(CodeAnalyzer.ResultType.MULTIPLE_RESULTS)),
+            String.format("Static HTML only: %d", count(CodeAnalyzer.ResultType.STATIC_HTML_ONLY)),
+            String.format("Errors: %d", count(CodeAnalyzer.ResultType.ERROR))
+        };
+    }
+}
@@ -0,0 +1,109 @@
+package com.deejay;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Machine-readable result sink writing one record per code as JSON lines or CSV.
+ *
+ * Records go through a large buffer and are flushed in batches, so a downstream
+ * ingestion job tailing the file sees complete records without any post-processing.
+ */
+public class ResultWriter implements LookupEngine.Stage {
+    private static final int FLUSH_EVERY = 256;
+    private static final String[] COLUMNS = {"code", "result", "found", "products", "description"};
+
+    public enum Format { JSONL, CSV }
+
+    private final Format format;
+    private final Writer writer;
+    private int pending;
+
+    public ResultWriter(Path path, Format format) throws IOException {
+        this(Files.newBufferedWriter(path, StandardCharsets.UTF_8), format);
+    }
+
+    public ResultWriter(Writer writer, Format format) throws IOException {
+        this.format = format;
+        this.writer = writer instanceof BufferedWriter ? writer : new BufferedWriter(writer, 64 * 1024);
+        if (format == Format.CSV) {
+            this.writer.write(String.join(",", COLUMNS));
+            this.writer.write('\n');
+        }
+    }
+
+    /**
+     * Writers for --jsonl=&lt;file&gt; and --csv=&lt;file&gt;, none if neither is given
+     */
+    public static List<ResultWriter> fromOptions(RunOptions options) throws IOException {
+        List<ResultWriter> writers = new ArrayList<>();
+        String jsonl = options.get("jsonl", null);
+        if (jsonl != null) {
+            writers.add(new ResultWriter(Paths.get(jsonl), Format.JSONL));
+        }
+        String csv = options.get("csv", null);
+        if (csv != null) {
+            writers.add(new ResultWriter(Paths.get(csv), Format.CSV));
+        }
+        return writers;
+    }
+
+    @Override
+    public void accept(CodeAnalyzer.AnalysisResult result) throws IOException {
+        writer.write(format == Format.JSONL ? toJson(result) : toCsv(result));
+        writer.write('\n');
+        if (++pending >= FLUSH_EVERY) {
+            writer.flush();
+            pending = 0;
+        }
+    }
+
+    @Override
+    public void finish() throws IOException {
+        writer.close();
+    }
+
+    static String toJson(CodeAnalyzer.AnalysisResult result) {
+        return "{\"code\":" + jsonString(result.code)
+                + ",\"result\":\"" + result.resultType + "\""
+                + ",\"found\":" + result.isFound()
+                + ",\"products\":" + result.productCount
+                + ",\"description\":" + jsonString(result.description) + "}";
+    }
+
+    static String toCsv(CodeAnalyzer.AnalysisResult result) {
+        return csvField(result.code) + "," + result.resultType + "," + result.isFound() + ","
+                + result.productCount + "," + csvField(result.description);
+    }
+
+    static String jsonString(String value) {
+        StringBuilder sb = new StringBuilder(value.length() + 2).append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"' -> sb.append("\\\"");
+                case '\\' -> sb.append("\\\\");
+                case '\n' -> sb.append("\\n");
+                case '\r' -> sb.append("\\r");
+                case '\t' -> sb.append("\\t");
+                default -> {
+                    if (c < 0x20) {
+                        sb.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        sb.append(c);
+                    }
+                }
+            }
+        }
+        return sb.append('"').toString();
+    }
+
+    static String csvField(String value) {
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+            return value;
+        }
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+}
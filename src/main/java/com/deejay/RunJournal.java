@@ -0,0 +1,189 @@
+package com.deejay;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Crash-safe checkpoint journal of the codes a run has finished.
+ *
+ * Every result is appended as one tab separated line and the file is fsynced in batches,
+ * so a killed run loses at most the last unsynced batch. Batches are written and fsynced by
+ * a syncer thread, so the HTTP and parser threads that record results never wait for the
+ * disk. With --resume the journal of the previous run is read back, its codes are skipped
+ * and the report is rebuilt from it.
+ */
+public class RunJournal implements AutoCloseable {
+    private static final int SYNC_EVERY_RECORDS = 32;
+    private static final long SYNC_EVERY_MILLIS = 1000;
+
+    private final Path file;
+    private final Map<String, CodeAnalyzer.AnalysisResult> previous;
+    private final FileChannel channel;
+    // Held while a batch is written, so batches reach the file in order; taken before this
+    private final Object writeLock = new Object();
+    private final StringBuilder pending = new StringBuilder();
+    private int pendingRecords;
+    private boolean closed;
+
+    /**
+     * Opens the journal for a run
+     * @param resume keep and load the existing journal instead of starting a new one
+     */
+    public RunJournal(Path file, boolean resume) throws IOException {
+        this.file = file;
+        this.previous = resume ? load(file) : new LinkedHashMap<>();
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                resume ? StandardOpenOption.APPEND : StandardOpenOption.TRUNCATE_EXISTING);
+        if (resume && channel.size() > 0) {
+            // Drop a torn last line so new records start on a line of their own
+            channel.truncate(committedLength(Files.readAllBytes(file)));
+        }
+        Thread syncer = new Thread(this::syncLoop, "journal-sync");
+        syncer.setDaemon(true);
+        syncer.start();
+    }
+
+    /**
+     * Journal next to the report file, e.g. results.txt.journal, unless --journal is given
+     */
+    public static RunJournal fromOptions(RunOptions options, String reportFile) throws IOException {
+        return new RunJournal(Paths.get(options.get("journal", reportFile + ".journal")), options.has("resume"));
+    }
+
+    /**
+     * Result of a code that an earlier run already finished, or null.
+     * Codes that ended in an error are not considered finished and are looked up again.
+     */
+    public CodeAnalyzer.AnalysisResult completed(String code) {
+        CodeAnalyzer.AnalysisResult result = previous.get(CodeCanonicalizer.canonical(code));
+        return result == null || result.resultType == CodeAnalyzer.ResultType.ERROR ? null : result;
+    }
+
+    public int completedCount() {
+        return previous.size();
+    }
+
+    /**
+     * Queues a finished code for the syncer, which writes it once a batch is full or has
+     * waited long enough
+     */
+    public synchronized void record(CodeAnalyzer.AnalysisResult result) {
+        pending.append(format(result)).append('\n');
+        pendingRecords++;
+        if (pendingRecords >= SYNC_EVERY_RECORDS) {
+            notifyAll();
+        }
+    }
+
+    /**
+     * Writes and fsyncs everything recorded so far on the calling thread
+     */
+    public void sync() {
+        synchronized (writeLock) {
+            byte[] batch;
+            synchronized (this) {
+                if (pendingRecords == 0 || !channel.isOpen()) {
+                    return;
+                }
+                batch = pending.toString().getBytes(StandardCharsets.UTF_8);
+                pending.setLength(0);
+                pendingRecords = 0;
+            }
+            try {
+                ByteBuffer buffer = ByteBuffer.wrap(batch);
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                channel.force(false);
+            } catch (IOException e) {
+                System.err.println("Error writing journal " + file + ": " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Syncs whenever a batch is full, and at least every SYNC_EVERY_MILLIS, until closed
+     */
+    private void syncLoop() {
+        try {
+            while (true) {
+                synchronized (this) {
+                    if (!closed && pendingRecords < SYNC_EVERY_RECORDS) {
+                        wait(SYNC_EVERY_MILLIS);
+                    }
+                    if (closed) {
+                        return;
+                    }
+                }
+                sync();
+            }
+        } catch (InterruptedException e) {
+            // Daemon thread, close() syncs what is left
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            closed = true;
+            notifyAll();
+        }
+        sync();
+        synchronized (writeLock) {
+            channel.close();
+        }
+    }
+
+    /**
+     * One result as a tab separated line without the line break: code, type, count, description
+     */
+    static String format(CodeAnalyzer.AnalysisResult result) {
+        return result.code + '\t' + result.resultType + '\t' + result.productCount + '\t'
+                + result.description.replace('\t', ' ').replace('\n', ' ').replace('\r', ' ');
+    }
+
+    /**
+     * Reads a line written by format(), or returns null if it does not parse
+     */
+    static CodeAnalyzer.AnalysisResult parse(String line) {
+        String[] fields = line.split("\t", 4);
+        if (fields.length < 4) {
+            return null;
+        }
+        try {
+            return new CodeAnalyzer.AnalysisResult(fields[0],
+                    CodeAnalyzer.ResultType.valueOf(fields[1]), fields[3], Integer.parseInt(fields[2]));
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private static int committedLength(byte[] bytes) {
+        int end = bytes.length;
+        while (end > 0 && bytes[end - 1] != '\n') {
+            end--;
+        }
+        return end;
+    }
+
+    private static Map<String, CodeAnalyzer.AnalysisResult> load(Path file) throws IOException {
+        Map<String, CodeAnalyzer.AnalysisResult> results = new LinkedHashMap<>();
+        if (!Files.exists(file)) {
+            return results;
+        }
+        byte[] bytes = Files.readAllBytes(file);
+        String text = new String(bytes, 0, committedLength(bytes), StandardCharsets.UTF_8);
+        for (String line : text.split("\n")) {
+            // Lines that do not parse are skipped, the code is simply looked up again
+            CodeAnalyzer.AnalysisResult result = parse(line);
+            if (result != null) {
+                results.put(CodeCanonicalizer.canonical(result.code), result);
+            }
+        }
+        return results;
+    }
+}
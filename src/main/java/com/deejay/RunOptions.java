@@ -0,0 +1,80 @@
+package com.deejay;
+
+import java.time.Duration;
+import java.util.*;
+
+/**
+ * Command line options shared by the Checker and CodeAnalyzer entry points.
+ * Accepts flags (--browser) and key/value pairs (--workers=4).
+ */
+public class RunOptions {
+    private final Set<String> flags = new HashSet<>();
+    private final Map<String, String> values = new HashMap<>();
+
+    public static RunOptions parse(String[] args) {
+        RunOptions options = new RunOptions();
+        for (String arg : args) {
+            if (!arg.startsWith("--")) {
+                throw new IllegalArgumentException("Unknown argument: " + arg);
+            }
+            String option = arg.substring(2);
+            int eq = option.indexOf('=');
+            if (eq < 0) {
+                options.flags.add(option);
+            } else {
+                options.values.put(option.substring(0, eq), option.substring(eq + 1));
+            }
+        }
+        return options;
+    }
+
+    public boolean has(String flag) {
+        return flags.contains(flag);
+    }
+
+    public String get(String key, String defaultValue) {
+        return values.getOrDefault(key, defaultValue);
+    }
+
+    public int getInt(String key, int defaultValue) {
+        String value = values.get(key);
+        try {
+            return value == null ? defaultValue : Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("--" + key + " expects a number but was: " + value);
+        }
+    }
+
+    /**
+     * Reads a duration given as 500ms, 30s, 15m, 6h, 7d or ISO-8601 (PT15M)
+     */
+    public Duration getDuration(String key, Duration defaultValue) {
+        String value = values.get(key);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return parseDuration(value);
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("--" + key + " expects a duration like 30s, 15m or 6h but was: " + value);
+        }
+    }
+
+    static Duration parseDuration(String value) {
+        String v = value.trim().toLowerCase(Locale.ROOT);
+        if (v.startsWith("pt") || v.startsWith("p")) {
+            return Duration.parse(value.trim().toUpperCase(Locale.ROOT));
+        }
+        if (v.endsWith("ms")) {
+            return Duration.ofMillis(Long.parseLong(v.substring(0, v.length() - 2)));
+        }
+        long amount = Long.parseLong(v.substring(0, v.length() - 1));
+        return switch (v.charAt(v.length() - 1)) {
+            case 's' -> Duration.ofSeconds(amount);
+            case 'm' -> Duration.ofMinutes(amount);
+            case 'h' -> Duration.ofHours(amount);
+            case 'd' -> Duration.ofDays(amount);
+            default -> throw new IllegalArgumentException(value);
+        };
+    }
+}
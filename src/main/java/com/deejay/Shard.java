@@ -0,0 +1,77 @@
+package com.deejay;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Deterministic slice of the code space for splitting one list across processes.
+ *
+ * A canonical code belongs to shard i of N when the 64-bit FNV-1a hash of its UTF-8 bytes
+ * is i modulo N. The hash depends on nothing but the code, so N processes given the same
+ * input and --shard=0/N ... --shard=N-1/N each take a disjoint part without coordinating.
+ */
+public final class Shard {
+    public static final Shard ALL = new Shard(0, 1);
+
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final int index;
+    private final int count;
+
+    public Shard(int index, int count) {
+        if (count < 1 || index < 0 || index >= count) {
+            throw new IllegalArgumentException("Shard must be i/N with 0 <= i < N, got " + index + "/" + count);
+        }
+        this.index = index;
+        this.count = count;
+    }
+
+    /**
+     * Parses "i/N", e.g. "0/4" for the first of four shards
+     */
+    public static Shard parse(String spec) {
+        int slash = spec.indexOf('/');
+        if (slash < 0) {
+            throw new IllegalArgumentException("Shard must be i/N, got " + spec);
+        }
+        try {
+            return new Shard(Integer.parseInt(spec.substring(0, slash).trim()),
+                    Integer.parseInt(spec.substring(slash + 1).trim()));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Shard must be i/N, got " + spec);
+        }
+    }
+
+    /**
+     * Shard from --shard=i/N, all codes if not given
+     */
+    public static Shard fromOptions(RunOptions options) {
+        String spec = options.get("shard", null);
+        return spec == null ? ALL : parse(spec);
+    }
+
+    static long hash(String code) {
+        long hash = FNV_OFFSET;
+        for (byte b : code.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b & 0xff;
+            hash *= FNV_PRIME;
+        }
+        return hash;
+    }
+
+    /**
+     * True if a canonical code is looked up by this shard
+     */
+    public boolean owns(String canonicalCode) {
+        return count == 1 || Long.remainderUnsigned(hash(canonicalCode), count) == index;
+    }
+
+    public boolean isAll() {
+        return count == 1;
+    }
+
+    @Override
+    public String toString() {
+        return index + "/" + count;
+    }
+}
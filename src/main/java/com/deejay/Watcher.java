@@ -0,0 +1,295 @@
+package com.deejay;
+
+import java.io.*;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Function;
+
+/**
+ * Long-running re-check scheduler that watches codes for changes.
+ *
+ * Every code sits in a priority queue ordered by the time it is next due. A check whose
+ * outcome changed brings the code back to the shortest interval; an unchanged one doubles
+ * its interval up to a cap, which is higher for codes that are already FOUND. Checks start
+ * no faster than the global budget allows, most overdue first. A change of result type,
+ * e.g. NOT FOUND to FOUND or SINGLE to MULTIPLE, is reported as an event.
+ */
+public class Watcher {
+    private final Function<String, CompletableFuture<CodeAnalyzer.AnalysisResult>> lookup;
+    private final Options options;
+    private final EventSink sink;
+    private final PriorityQueue<Watch> queue = new PriorityQueue<>(Comparator.comparingLong(w -> w.dueAt));
+    private final long start = System.nanoTime();
+    private int inFlight;
+    private long checks;
+    private long events;
+    private volatile boolean stopped;
+
+    /**
+     * Receives every transition
+     */
+    @FunctionalInterface
+    public interface EventSink {
+        void accept(Event event) throws IOException;
+    }
+
+    private static class Watch {
+        final String code;
+        CodeAnalyzer.ResultType type;
+        int productCount;
+        long intervalMillis;
+        long dueAt;
+
+        Watch(String code, long intervalMillis) {
+            this.code = code;
+            this.intervalMillis = intervalMillis;
+        }
+    }
+
+    /**
+     * @param lookup checks a single code, e.g. LookupEngine::lookup
+     */
+    public Watcher(Function<String, CompletableFuture<CodeAnalyzer.AnalysisResult>> lookup, Options options,
+                   EventSink sink) {
+        this.lookup = lookup;
+        this.options = options;
+        this.sink = sink;
+    }
+
+    /**
+     * Adds a code, due right away
+     */
+    public synchronized void add(String code) {
+        queue.add(new Watch(CodeCanonicalizer.canonical(code), options.minInterval.toMillis()));
+        notifyAll();
+    }
+
+    /**
+     * Checks codes as they come due until stop() is called or the duration has passed
+     * @param duration how long to watch, null for no limit
+     */
+    public void run(Duration duration) throws InterruptedException {
+        long end = duration == null ? Long.MAX_VALUE : now() + duration.toMillis();
+        long nanosPerCheck = (long) (1e9 / options.checksPerSecond);
+        long nextSlot = System.nanoTime();
+        while (!stopped && now() < end) {
+            Watch watch = next(end);
+            if (watch == null) {
+                continue;
+            }
+            // Global budget: checks are spaced evenly, a backlog never bursts
+            long wait = nextSlot - System.nanoTime();
+            if (wait > 0) {
+                TimeUnit.NANOSECONDS.sleep(wait);
+            }
+            nextSlot = Math.max(nextSlot, System.nanoTime()) + nanosPerCheck;
+            synchronized (this) {
+                checks++;
+            }
+            CompletableFuture<CodeAnalyzer.AnalysisResult> result;
+            try {
+                result = lookup.apply(watch.code);
+            } catch (RuntimeException e) {
+                result = CompletableFuture.failedFuture(e);
+            }
+            result.whenComplete((r, e) -> completed(watch, e == null ? r : CodeAnalyzer.errorResult(watch.code, e)));
+        }
+        // Let checks that already started report their result
+        awaitIdle(30_000);
+    }
+
+    /**
+     * Takes the most overdue code once it is due, or returns null after waiting a while
+     */
+    private synchronized Watch next(long end) throws InterruptedException {
+        Watch head = queue.peek();
+        long now = now();
+        if (head == null || head.dueAt > now) {
+            long until = head == null ? end : Math.min(end, head.dueAt);
+            wait(Math.max(1, Math.min(until - now, 1000)));
+            return null;
+        }
+        inFlight++;
+        return queue.poll();
+    }
+
+    private synchronized void completed(Watch watch, CodeAnalyzer.AnalysisResult result) {
+        inFlight--;
+        long now = now();
+        if (result.resultType == CodeAnalyzer.ResultType.ERROR) {
+            // Failures say nothing about the code, retry soon without touching its interval
+            watch.dueAt = now + options.minInterval.toMillis();
+        } else {
+            boolean seen = watch.type != null;
+            boolean changed = seen && (watch.type != result.resultType || watch.productCount != result.productCount);
+            if (seen && watch.type != result.resultType) {
+                emit(new Event(Instant.now(), watch.code, watch.type, watch.productCount, result.resultType, result.productCount));
+            }
+            if (changed) {
+                watch.intervalMillis = options.minInterval.toMillis();
+            } else if (seen) {
+                long cap = (result.isFound() ? options.maxFoundInterval : options.maxInterval).toMillis();
+                watch.intervalMillis = Math.min(cap, watch.intervalMillis * 2);
+            }
+            watch.type = result.resultType;
+            watch.productCount = result.productCount;
+            // A little jitter keeps codes added together from staying in lockstep
+            long jitter = (long) (watch.intervalMillis * 0.1 * ThreadLocalRandom.current().nextDouble());
+            watch.dueAt = now + watch.intervalMillis - jitter;
+        }
+        queue.add(watch);
+        notifyAll();
+    }
+
+    private void emit(Event event) {
+        events++;
+        Metrics.count("watch_events");
+        try {
+            sink.accept(event);
+        } catch (IOException e) {
+            System.err.println("Error writing watch event: " + e.getMessage());
+        }
+    }
+
+    private synchronized void awaitIdle(long timeoutMillis) throws InterruptedException {
+        long end = now() + timeoutMillis;
+        while (inFlight > 0 && now() < end) {
+            wait(Math.max(1, end - now()));
+        }
+    }
+
+    public synchronized void stop() {
+        stopped = true;
+        notifyAll();
+    }
+
+    public synchronized long getChecks() {
+        return checks;
+    }
+
+    public synchronized long getEvents() {
+        return events;
+    }
+
+    public synchronized int size() {
+        return queue.size() + inFlight;
+    }
+
+    /**
+     * Current interval of a code in milliseconds, or -1 if it is not watched or being checked
+     */
+    synchronized long intervalOf(String code) {
+        String key = CodeCanonicalizer.canonical(code);
+        for (Watch watch : queue) {
+            if (watch.code.equals(key)) {
+                return watch.intervalMillis;
+            }
+        }
+        return -1;
+    }
+
+    private long now() {
+        return (System.nanoTime() - start) / 1_000_000;
+    }
+
+    /**
+     * Settings of the scheduler
+     */
+    public static class Options {
+        private Duration minInterval = Duration.ofMinutes(5);
+        private Duration maxInterval = Duration.ofHours(6);
+        private Duration maxFoundInterval = Duration.ofHours(24);
+        private double checksPerSecond = 1;
+
+        /**
+         * --recheck-min (default 5m), --recheck-max (6h), --recheck-max-found (24h) and --watch-rps (1)
+         */
+        public static Options from(RunOptions run) {
+            Options options = new Options()
+                    .setMinInterval(run.getDuration("recheck-min", Duration.ofMinutes(5)))
+                    .setMaxInterval(run.getDuration("recheck-max", Duration.ofHours(6)))
+                    .setMaxFoundInterval(run.getDuration("recheck-max-found", Duration.ofHours(24)));
+            String rps = run.get("watch-rps", "1");
+            try {
+                return options.setChecksPerSecond(Double.parseDouble(rps));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("--watch-rps expects a number but was: " + rps);
+            }
+        }
+
+        public Options setMinInterval(Duration minInterval) {
+            this.minInterval = minInterval;
+            return this;
+        }
+
+        public Options setMaxInterval(Duration maxInterval) {
+            this.maxInterval = maxInterval;
+            return this;
+        }
+
+        public Options setMaxFoundInterval(Duration maxFoundInterval) {
+            this.maxFoundInterval = maxFoundInterval;
+            return this;
+        }
+
+        public Options setChecksPerSecond(double checksPerSecond) {
+            if (!(checksPerSecond > 0)) {
+                throw new IllegalArgumentException("Checks per second must be positive: " + checksPerSecond);
+            }
+            this.checksPerSecond = checksPerSecond;
+            return this;
+        }
+
+        public Duration getMinInterval() {
+            return minInterval;
+        }
+
+        public double getChecksPerSecond() {
+            return checksPerSecond;
+        }
+    }
+
+    /**
+     * A change of result type of a watched code
+     */
+    public static class Event {
+        public final Instant time;
+        public final String code;
+        public final CodeAnalyzer.ResultType from;
+        public final int fromCount;
+        public final CodeAnalyzer.ResultType to;
+        public final int toCount;
+
+        public Event(Instant time, String code, CodeAnalyzer.ResultType from, int fromCount,
+                     CodeAnalyzer.ResultType to, int toCount) {
+            this.time = time;
+            this.code = code;
+            this.from = from;
+            this.fromCount = fromCount;
+            this.to = to;
+            this.toCount = toCount;
+        }
+
+        public String toJson() {
+            return "{\"time\":\"" + time + "\",\"code\":" + ResultWriter.jsonString(code)
+                    + ",\"from\":\"" + from + "\",\"fromProducts\":" + fromCount
+                    + ",\"to\":\"" + to + "\",\"toProducts\":" + toCount + "}";
+        }
+
+        @Override
+        public String toString() {
+            return code + ": " + label(from) + " -> " + label(to) + " (" + fromCount + " -> " + toCount + " products)";
+        }
+
+        private static String label(CodeAnalyzer.ResultType type) {
+            return switch (type) {
+                case SINGLE_RESULT -> "FOUND (single)";
+                case MULTIPLE_RESULTS -> "FOUND (multiple)";
+                case STATIC_HTML_ONLY -> "NOT FOUND";
+                case ERROR -> "ERROR";
+            };
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package com.deejay;
+
+import org.junit.jupiter.api.Test;
+import java.util.concurrent.TimeUnit;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class AdaptiveLimiterTest {
+
+    private static final long LATENCY = TimeUnit.MILLISECONDS.toNanos(20);
+
+    @Test
+    public void testGrowsWhileLimitIsUsedAndLatencyStable() throws Exception {
+        AdaptiveLimiter limiter = new AdaptiveLimiter(1, 2, 8, 0);
+        for (int round = 0; round < 200; round++) {
+            int limit = limiter.getLimit();
+            for (int i = 0; i < limit; i++) {
+                limiter.acquire();
+            }
+            for (int i = 0; i < limit; i++) {
+                limiter.release(AdaptiveLimiter.Outcome.SUCCESS, LATENCY);
+            }
+        }
+        assertEquals(8, limiter.getLimit(), "Limit grows up to the maximum but not beyond");
+        assertEquals(0, limiter.getInFlight());
+    }
+
+    @Test
+    public void testDoesNotGrowWhenLimitIsNotUsed() throws Exception {
+        AdaptiveLimiter limiter = new AdaptiveLimiter(1, 4, 32, 0);
+        for (int i = 0; i < 500; i++) {
+            limiter.acquire();
+            limiter.release(AdaptiveLimiter.Outcome.SUCCESS, LATENCY);
+        }
+        assertEquals(4, limiter.getLimit());
+    }
+
+    @Test
+    public void testHalvesOnDropsDownToMinimum() throws Exception {
+        AdaptiveLimiter limiter = new AdaptiveLimiter(2, 16, 32, 0);
+        limiter.acquire();
+        limiter.release(AdaptiveLimiter.Outcome.DROPPED, LATENCY);
+        assertEquals(8, limiter.getLimit());
+
+        limiter.acquire();
+        limiter.release(AdaptiveLimiter.Outcome.DROPPED, LATENCY);
+        assertEquals(8, limiter.getLimit(), "A burst of drops only cuts the limit once");
+
+        for (int i = 0; i < 5; i++) {
+            Thread.sleep(250);
+            limiter.acquire();
+            limiter.release(AdaptiveLimiter.Outcome.DROPPED, LATENCY);
+        }
+        assertEquals(2, limiter.getLimit());
+
+        limiter.acquire();
+        limiter.release(AdaptiveLimiter.Outcome.IGNORED, LATENCY);
+        assertEquals(2, limiter.getLimit());
+    }
+
+    @Test
+    public void testTrimsWhenLatencyRises() throws Exception {
+        AdaptiveLimiter limiter = new AdaptiveLimiter(1, 10, 10, 0);
+        for (int i = 0; i < 50; i++) {
+            limiter.acquire();
+            limiter.release(AdaptiveLimiter.Outcome.SUCCESS, LATENCY);
+        }
+        for (int i = 0; i < 50; i++) {
+            limiter.acquire();
+            limiter.release(AdaptiveLimiter.Outcome.SUCCESS, LATENCY * 10);
+        }
+        limiter.acquire();
+        limiter.release(AdaptiveLimiter.Outcome.SUCCESS, LATENCY * 10);
+        assertEquals(9, limiter.getLimit());
+    }
+
+    @Test
+    public void testRateLimitSpacesStarts() throws Exception {
+        AdaptiveLimiter limiter = new AdaptiveLimiter(1, 8, 8, 20);
+        // Drain the initial burst
+        for (int i = 0; i < 20; i++) {
+            limiter.acquire();
+            limiter.release(AdaptiveLimiter.Outcome.IGNORED, 0);
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < 10; i++) {
+            limiter.acquire();
+            limiter.release(AdaptiveLimiter.Outcome.IGNORED, 0);
+        }
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertTrue(elapsed >= 400, "10 starts at 20/s take about 500 ms, took " + elapsed);
+    }
+}
@@ -0,0 +1,103 @@
+package com.deejay;
+
+import com.microsoft.playwright.*;
+import org.junit.jupiter.api.Test;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.*;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.*;
+
+public class BrowserPoolTest {
+
+    @Test
+    public void testOutcomeFollowsTheLookupResult() {
+        // analyzeCode never throws, a timeout comes back as a transient ERROR
+        assertEquals(AdaptiveLimiter.Outcome.DROPPED,
+            BrowserPool.outcome(CodeAnalyzer.errorResult("DTW004", new TimeoutError("ready"))));
+        assertEquals(AdaptiveLimiter.Outcome.DROPPED,
+            BrowserPool.outcome(CodeAnalyzer.errorResult("DTW004", new IOException("net::ERR_CONNECTION_RESET"))));
+        // A frame that cannot be read is retried, never cached as not found
+        assertEquals(AdaptiveLimiter.Outcome.DROPPED,
+            BrowserPool.outcome(CodeAnalyzer.errorResult("DTW004", new PlaywrightException("Frame was detached"))));
+        assertEquals(AdaptiveLimiter.Outcome.IGNORED,
+            BrowserPool.outcome(CodeAnalyzer.errorResult("DTW004", new IllegalStateException("bug"))));
+        assertEquals(AdaptiveLimiter.Outcome.SUCCESS, BrowserPool.outcome(CodeAnalyzer.classify("DTW004", false, 0)));
+        assertEquals(AdaptiveLimiter.Outcome.SUCCESS, BrowserPool.outcome(CodeAnalyzer.classify("DTW004", true, 2)));
+        assertEquals(AdaptiveLimiter.Outcome.SUCCESS, BrowserPool.outcome("not a lookup"));
+    }
+
+    @Test
+    public void testPagesStayOnTheirWorkerThread() throws Exception {
+        assumeChromium();
+        Map<Page, Set<Thread>> threads = new ConcurrentHashMap<>();
+        try (BrowserPool pool = new BrowserPool(new BrowserPool.Options().setWorkers(2).setPagesPerBrowser(2))) {
+            List<CompletableFuture<Void>> tasks = new ArrayList<>();
+            for (int i = 0; i < 20; i++) {
+                tasks.add(pool.submit(page -> {
+                    threads.computeIfAbsent(page, p -> ConcurrentHashMap.newKeySet()).add(Thread.currentThread());
+                    return null;
+                }));
+            }
+            CompletableFuture.allOf(tasks.toArray(new CompletableFuture<?>[0])).get(2, TimeUnit.MINUTES);
+        }
+        assertTrue(threads.size() >= 2 && threads.size() <= 4, threads.keySet().toString());
+        threads.values().forEach(seen -> assertEquals(1, seen.size(), "A page is only used by the thread that owns it"));
+    }
+
+    @Test
+    public void testPagesAreUsedInTurnAndRecycledAfterTheirUses() throws Exception {
+        assumeChromium();
+        try (BrowserPool pool = new BrowserPool(new BrowserPool.Options().setWorkers(1).setPagesPerBrowser(2)
+                .setMaxUsesPerPage(2))) {
+            List<Page> pages = new ArrayList<>();
+            for (int i = 0; i < 5; i++) {
+                pages.add(pool.submit(page -> page).get(1, TimeUnit.MINUTES));
+            }
+            // Two pages in turn, each replaced after its second use
+            assertNotSame(pages.get(0), pages.get(1));
+            assertSame(pages.get(0), pages.get(2));
+            assertSame(pages.get(1), pages.get(3));
+            assertNotSame(pages.get(0), pages.get(4));
+            assertTrue(pages.get(0).isClosed());
+        }
+    }
+
+    @Test
+    public void testPageIsRecycledAfterAFailedLookup() throws Exception {
+        assumeChromium();
+        try (BrowserPool pool = new BrowserPool(new BrowserPool.Options().setWorkers(1).setPagesPerBrowser(1))) {
+            Page first = pool.submit(page -> page).get(1, TimeUnit.MINUTES);
+            // A genuine ERROR keeps the page
+            assertFalse(pool.submit(page -> CodeAnalyzer.errorResult("X1", new IllegalStateException("bug")))
+                .get(1, TimeUnit.MINUTES).transientFailure);
+            assertSame(first, pool.submit(page -> page).get(1, TimeUnit.MINUTES));
+
+            // A transient ERROR result replaces it
+            assertTrue(pool.submit(page -> CodeAnalyzer.errorResult("X1", new TimeoutError("ready")))
+                .get(1, TimeUnit.MINUTES).transientFailure);
+            Page afterTimeout = pool.submit(page -> page).get(1, TimeUnit.MINUTES);
+            assertNotSame(first, afterTimeout);
+            assertTrue(first.isClosed());
+
+            // So does a task that throws
+            ExecutionException thrown = assertThrows(ExecutionException.class,
+                () -> pool.submit(page -> { throw new IOException("crashed"); }).get(1, TimeUnit.MINUTES));
+            assertInstanceOf(IOException.class, thrown.getCause());
+            assertNotSame(afterTimeout, pool.submit(page -> page).get(1, TimeUnit.MINUTES));
+        }
+    }
+
+    /**
+     * Skips the test where Chromium is not installed; never downloads it
+     */
+    static void assumeChromium() {
+        try (Playwright playwright = Playwright.create(new Playwright.CreateOptions()
+                 .setEnv(Map.of("PLAYWRIGHT_SKIP_BROWSER_DOWNLOAD", "1")))) {
+            playwright.chromium().launch(new BrowserType.LaunchOptions()
+                .setArgs(List.of("--no-sandbox", "--disable-dev-shm-usage"))).close();
+        } catch (PlaywrightException e) {
+            assumeTrue(false, "Chromium cannot be launched: " + e.getMessage());
+        }
+    }
+}
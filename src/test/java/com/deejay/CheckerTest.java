@@ -139,4 +139,14 @@ public class CheckerTest {
         assertFalse(Checker.hasResults(staticHtmlWithoutProducts), 
             "Static HTML without products should return false");
     }
+
+    @Test
+    public void testOnlyTheSorryMessageEndsTheReadyWaitEarly() {
+        // Products are counted from a parsed document, so a product marker must not end the wait
+        assertTrue(Checker.IFRAME_READY.contains("readyState !== 'loading'"));
+        assertTrue(Checker.IFRAME_READY.contains("Sorry, we didn"));
+        assertFalse(Checker.IFRAME_READY.contains("/addCart/"));
+        assertFalse(Checker.IFRAME_READY.contains("/pics/images/m/"));
+        assertFalse(Checker.IFRAME_READY.contains("product-list"));
+    }
 }
@@ -0,0 +1,85 @@
+package com.deejay;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import java.nio.file.*;
+import java.util.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CodeSourcesTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    public void testCanonicalForm() {
+        assertEquals("WH03/21", CodeCanonicalizer.canonical(" wh 03／21 "));
+        assertEquals("WH03/21", CodeCanonicalizer.canonical("WH03∕21"));
+        assertEquals("BNS085", CodeCanonicalizer.canonical("bns 085\t"));
+        assertEquals("", CodeCanonicalizer.canonical("   "));
+        assertEquals("WH03%2F21", CodeCanonicalizer.urlSegment("WH03/21"));
+        assertEquals("A%20B%26C", CodeCanonicalizer.urlSegment("A B&C"));
+    }
+
+    @Test
+    public void testDuplicatesAreDroppedAndMappedBack() throws Exception {
+        Path codes = dir.resolve("codes.txt");
+        Files.write(codes, List.of(
+            "Processing: first.JPG",
+            "BNS085",
+            "wh03/21",
+            "",
+            "Processing: second.JPG",
+            "bns 085",
+            "WH03/21",
+            "HT005"));
+
+        CodeSources sources = new CodeSources();
+        assertEquals(List.of("BNS085", "WH03/21", "HT005"), sources.read(codes));
+        assertEquals(2, sources.duplicateCount());
+
+        List<CodeSources.Occurrence> bns = sources.occurrences("BNS085");
+        assertEquals(2, bns.size());
+        assertEquals("first.JPG", bns.get(0).image);
+        assertEquals(6, bns.get(1).line);
+        assertEquals("bns 085", bns.get(1).raw);
+        assertEquals("second.JPG", bns.get(1).image);
+
+        sources.record(new CodeAnalyzer.AnalysisResult("BNS085", CodeAnalyzer.ResultType.SINGLE_RESULT, "found", 1));
+        sources.record(new CodeAnalyzer.AnalysisResult("WH03/21", CodeAnalyzer.ResultType.STATIC_HTML_ONLY, "none", 0));
+        Path report = dir.resolve("results_sources.tsv");
+        sources.writeReport(report);
+        assertEquals(List.of(
+            "line\timage\tcode\tcanonical\tresult",
+            "2\tfirst.JPG\tBNS085\tBNS085\tFOUND",
+            "3\tfirst.JPG\twh03/21\tWH03/21\tNOT FOUND",
+            "6\tsecond.JPG\tbns 085\tBNS085\tFOUND",
+            "7\tsecond.JPG\tWH03/21\tWH03/21\tNOT FOUND",
+            "8\tsecond.JPG\tHT005\tHT005\tPENDING"), Files.readAllLines(report));
+    }
+
+    @Test
+    public void testReadsDirectoryLazilyAndSkipsOtherShards() throws Exception {
+        Path input = dir.resolve("input");
+        Files.createDirectories(input);
+        Files.write(input.resolve("b.txt"), List.of("Processing: b.JPG", "HT005", "bns085"));
+        Files.write(input.resolve("a.txt"), List.of("Processing: a.JPG", "BNS085", "KW053"));
+
+        List<String> all = new ArrayList<>();
+        try (CodeInput lines = CodeInput.open(input.toString())) {
+            new CodeSources().unique(lines).forEachRemaining(all::add);
+        }
+        assertEquals(List.of("BNS085", "KW053", "HT005"), all);
+
+        List<String> merged = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            try (CodeInput lines = CodeInput.open(input.toString())) {
+                CodeSources sources = new CodeSources(new Shard(i, 3), false);
+                sources.unique(lines).forEachRemaining(merged::add);
+                assertTrue(sources.occurrences("BNS085").isEmpty(), "Sources are not tracked");
+            }
+        }
+        assertEquals(new HashSet<>(all), new HashSet<>(merged));
+        assertEquals(all.size(), merged.size(), "Shards do not overlap");
+    }
+}
@@ -0,0 +1,122 @@
+package com.deejay;
+
+import org.junit.jupiter.api.Test;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CodeVariantsTest {
+
+    private final CodeVariants variants = new CodeVariants(8, List.of("NOCOVER"));
+
+    @Test
+    public void testGeneratesLikelySpellings() {
+        assertTrue(variants.candidates("MNR007").contains("MNR007NOCOVER"));
+        assertTrue(variants.candidates("MNR007NOCOVER").contains("MNR007"));
+        assertEquals(List.of("RAWQTRO03", "RAWQTR003"), variants.candidates("RAWQTROO3").subList(0, 2));
+        assertTrue(variants.candidates("VAM08").containsAll(List.of("VAM008", "VAM8", "VAM0008")));
+        assertTrue(variants.candidates("B0NS085").contains("BONS085"));
+        assertTrue(variants.candidates("WH0O21").contains("WH0021"));
+        assertFalse(variants.candidates("LTH004").contains("LTH004"));
+        assertTrue(new CodeVariants(2, List.of("NOCOVER")).candidates("RAWQTROO3").size() <= 2);
+    }
+
+    @Test
+    public void testFirstFoundVariantWins() throws Exception {
+        CodeAnalyzer.AnalysisResult notFound = new CodeAnalyzer.AnalysisResult("MNR007",
+            CodeAnalyzer.ResultType.STATIC_HTML_ONLY, "Iframe contains no product indicators", 0);
+        long start = System.nanoTime();
+
+        // MNR007NOCOVER is the third variant, so all three go out in the first window
+        CodeAnalyzer.AnalysisResult result = new CodeVariants(8, 3, List.of("NOCOVER")).probe("MNR007", notFound, code -> code.equals("MNR007NOCOVER")
+            ? CompletableFuture.completedFuture(new CodeAnalyzer.AnalysisResult(code,
+                CodeAnalyzer.ResultType.SINGLE_RESULT, "Single product found in iframe", 1))
+            // Slow misses must not hold the winner back
+            : CompletableFuture.supplyAsync(() -> new CodeAnalyzer.AnalysisResult(code,
+                CodeAnalyzer.ResultType.STATIC_HTML_ONLY, "", 0), CompletableFuture.delayedExecutor(5, TimeUnit.SECONDS)))
+            .get(2, TimeUnit.SECONDS);
+
+        assertEquals("MNR007", result.code);
+        assertEquals(CodeAnalyzer.ResultType.SINGLE_RESULT, result.resultType);
+        assertEquals("Found as MNR007NOCOVER: Single product found in iframe", result.description);
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(2));
+
+        // No variant found: the original result stands, and found or failed codes are not probed
+        assertSame(notFound, variants.probe("MNR007", notFound, code -> CompletableFuture.completedFuture(
+            new CodeAnalyzer.AnalysisResult(code, CodeAnalyzer.ResultType.ERROR, "boom", 0))).join());
+        CodeAnalyzer.AnalysisResult error = new CodeAnalyzer.AnalysisResult("X1", CodeAnalyzer.ResultType.ERROR, "", 0);
+        assertSame(error, variants.probe("X1", error, code -> { throw new AssertionError("probed " + code); }).join());
+    }
+
+    @Test
+    public void testLaterProbesAreSkippedOnceAVariantIsFound() throws Exception {
+        CodeAnalyzer.AnalysisResult notFound = new CodeAnalyzer.AnalysisResult("RAWQTROO3",
+            CodeAnalyzer.ResultType.STATIC_HTML_ONLY, "Iframe contains no product indicators", 0);
+        List<String> candidates = variants.candidates("RAWQTROO3");
+        List<String> probed = Collections.synchronizedList(new ArrayList<>());
+        long cancelled = Metrics.counter("variant_probes_cancelled");
+
+        CodeAnalyzer.AnalysisResult result = new CodeVariants(8, 2, List.of("NOCOVER")).probe("RAWQTROO3", notFound, code -> {
+            probed.add(code);
+            if (code.equals("RAWQTR003")) {
+                return CompletableFuture.completedFuture(new CodeAnalyzer.AnalysisResult(code,
+                    CodeAnalyzer.ResultType.SINGLE_RESULT, "Single product found in iframe", 1));
+            }
+            // Misses finish after the hit, so the next probe would start only once it is known
+            return CompletableFuture.supplyAsync(() -> new CodeAnalyzer.AnalysisResult(code,
+                CodeAnalyzer.ResultType.STATIC_HTML_ONLY, "", 0), CompletableFuture.delayedExecutor(200, TimeUnit.MILLISECONDS));
+        }).get(2, TimeUnit.SECONDS);
+        Thread.sleep(400); // the cancelled miss drops the remaining variants
+
+        assertTrue(result.isFound());
+        assertTrue(candidates.size() > 3, candidates.toString());
+        // RAWQTR003 is the second variant: only the first window went out
+        assertEquals(Set.copyOf(candidates.subList(0, 2)), Set.copyOf(probed));
+        // The miss still in flight is cancelled, the rest never start
+        assertEquals(candidates.size() - 1, Metrics.counter("variant_probes_cancelled") - cancelled);
+    }
+
+    @Test
+    public void testProbesInFlightAreCancelledWhenAVariantWins() throws Exception {
+        CodeAnalyzer.AnalysisResult notFound = new CodeAnalyzer.AnalysisResult("MNR007",
+            CodeAnalyzer.ResultType.STATIC_HTML_ONLY, "Iframe contains no product indicators", 0);
+        List<String> candidates = variants.candidates("MNR007");
+        Map<String, CompletableFuture<CodeAnalyzer.AnalysisResult>> probes = new ConcurrentHashMap<>();
+        CountDownLatch started = new CountDownLatch(candidates.size() - 1);
+
+        // By default every variant goes out at once; the misses never finish on their own
+        CompletableFuture<CodeAnalyzer.AnalysisResult> result = variants.probe("MNR007", notFound, code -> {
+            if (code.equals("MNR007NOCOVER")) {
+                return CompletableFuture.supplyAsync(() -> new CodeAnalyzer.AnalysisResult(code,
+                    CodeAnalyzer.ResultType.SINGLE_RESULT, "Single product found in iframe", 1),
+                    CompletableFuture.delayedExecutor(200, TimeUnit.MILLISECONDS));
+            }
+            CompletableFuture<CodeAnalyzer.AnalysisResult> miss = new CompletableFuture<>();
+            probes.put(code, miss);
+            started.countDown();
+            return miss;
+        });
+        assertTrue(started.await(2, TimeUnit.SECONDS), "all variants are probed at once");
+
+        assertTrue(result.get(2, TimeUnit.SECONDS).isFound());
+        assertEquals(candidates.size() - 1, probes.size());
+        probes.forEach((code, miss) -> assertTrue(miss.isCancelled(), code));
+    }
+
+    @Test
+    public void testEngineRecoversMissedCodes() throws Exception {
+        try (StubServer stub = new StubServer().withPage("MNR007NOCOVER",
+                 "<div class=\"product-list\"><img src=\"/pics/images/m/mnr007.jpg\" alt=\"MNR\"></div>");
+             LookupEngine engine = LookupEngine.http(new ContentFetcher(stub.baseUrl(), 4, Duration.ofSeconds(5)),
+                 ResultCache.disabled(), null).withVariants(variants)) {
+            CodeAnalyzer.AnalysisResult result = engine.lookup("mnr007").join();
+
+            assertEquals("MNR007", result.code);
+            assertTrue(result.isFound(), result.description);
+            assertEquals(1, stub.hits("MNR007"));
+            assertEquals(1, stub.hits("MNR007NOCOVER"));
+            assertEquals(CodeAnalyzer.ResultType.STATIC_HTML_ONLY, engine.lookup("NOPE001").join().resultType);
+        }
+    }
+}
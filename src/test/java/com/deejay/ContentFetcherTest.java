@@ -0,0 +1,154 @@
+package com.deejay;
+
+import org.junit.jupiter.api.Test;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ContentFetcherTest {
+
+    private static final String PRODUCT_PAGE = """
+        <div class="product-list">
+            <div class="product">
+                <img src="/pics/images/m/vinyl1.jpg" alt="Vinyl Record 1">
+                <a href="/addCart/789" class="add-to-cart">Add to Cart</a>
+            </div>
+            <div class="product">
+                <img src="/pics/images/m/vinyl2.jpg" alt="Vinyl Record 2">
+                <a href="/addCart/101" class="add-to-cart">Add to Cart</a>
+            </div>
+        </div>
+        """;
+
+    @Test
+    public void testContentUrlEncodesCode() {
+        assertEquals("https://deejay.de/content.php?param=%2Fdtw004",
+            ContentFetcher.contentUrl("https://deejay.de/", "dtw004"));
+        assertEquals("https://deejay.de/content.php?param=%2FWH03%2F21",
+            ContentFetcher.contentUrl("https://deejay.de/", "WH03/21"));
+    }
+
+    @Test
+    public void testFetchesFixturesFromStubServer() throws Exception {
+        try (StubServer stub = new StubServer().withFixture("dtw004").withFixture("nbastwax016");
+             ContentFetcher fetcher = new ContentFetcher(stub.baseUrl(), 4, Duration.ofSeconds(5))) {
+            ContentFetcher.FetchResult result = fetcher.fetchSync("dtw004");
+
+            assertTrue(result.isOk());
+            assertTrue(result.body.contains("content.php?param=%2Fdtw004"));
+            assertFalse(Checker.hasResults(result.body), "Shell fixture has no product indicators");
+            assertEquals(1, stub.hits("dtw004"));
+        }
+    }
+
+    @Test
+    public void testClassifiesFetchedPages() throws Exception {
+        try (StubServer stub = new StubServer().withPage("BNS085", PRODUCT_PAGE);
+             ContentFetcher fetcher = new ContentFetcher(stub.baseUrl(), 4, Duration.ofSeconds(5))) {
+            ContentFetcher.FetchResult found = fetcher.fetchSync("BNS085");
+            ContentFetcher.FetchResult missing = fetcher.fetchSync("NOPE001");
+
+            assertEquals("BNS085: FOUND", Checker.describe("BNS085", found, null));
+            assertEquals("NOPE001: NOT FOUND", Checker.describe("NOPE001", missing, null));
+            assertEquals(CodeAnalyzer.ResultType.MULTIPLE_RESULTS,
+                CodeAnalyzer.analyzeFetched("BNS085", found, null).resultType);
+            assertEquals(CodeAnalyzer.ResultType.STATIC_HTML_ONLY,
+                CodeAnalyzer.analyzeFetched("NOPE001", missing, null).resultType);
+        }
+    }
+
+    @Test
+    public void testStreamedFetchesKeepOnlyTheClassification() throws Exception {
+        try (StubServer stub = new StubServer().withPage("BNS085", PRODUCT_PAGE);
+             ContentFetcher fetcher = new ContentFetcher(stub.baseUrl(), 4, Duration.ofSeconds(5))) {
+            ContentFetcher.FetchResult streamed = fetcher.fetch("BNS085", null, null, false).join();
+            ContentFetcher.FetchResult buffered = fetcher.fetch("BNS085", null, null, true).join();
+
+            assertNull(streamed.body);
+            assertEquals(2, streamed.indicators.productCount());
+            assertNotNull(buffered.body);
+            assertEquals(CodeAnalyzer.analyzeFetched("BNS085", buffered, null).description,
+                CodeAnalyzer.analyzeFetched("BNS085", streamed, null).description);
+            assertEquals(0, fetcher.getLimiter().getInFlight());
+        }
+    }
+
+    @Test
+    public void testPipelinesManyCodes() throws Exception {
+        try (StubServer stub = new StubServer().withFixture("qv002").withFixture("rawqtroo3");
+             ContentFetcher fetcher = new ContentFetcher(stub.baseUrl(), 4, Duration.ofSeconds(5))) {
+            List<CompletableFuture<ContentFetcher.FetchResult>> futures = new ArrayList<>();
+            for (int i = 0; i < 50; i++) {
+                futures.add(fetcher.fetch(i % 2 == 0 ? "qv002" : "rawqtroo3"));
+            }
+            for (CompletableFuture<ContentFetcher.FetchResult> future : futures) {
+                assertTrue(future.join().isOk());
+            }
+            // Fetches of a code that is already in flight share its request
+            assertEquals(50, stub.hits("qv002") + stub.hits("rawqtroo3") + fetcher.getCoalesced());
+        }
+    }
+
+    @Test
+    public void testCoalescesSpellingsOfTheSameCode() throws Exception {
+        try (StubServer stub = new StubServer().withFixture("qv002").withDelay(300);
+             ContentFetcher fetcher = new ContentFetcher(stub.baseUrl(), 4, Duration.ofSeconds(5))) {
+            List<CompletableFuture<ContentFetcher.FetchResult>> futures = new ArrayList<>();
+            for (String code : List.of("QV002", "qv002", " qv 002", "Ｑｖ００２")) {
+                futures.add(fetcher.fetch(code));
+            }
+            for (CompletableFuture<ContentFetcher.FetchResult> future : futures) {
+                assertTrue(future.join().isOk());
+            }
+            assertEquals(1, stub.hits("QV002"));
+            assertEquals(3, fetcher.getCoalesced());
+        }
+    }
+
+    @Test
+    public void testConditionalFetchesDoNotShareUnconditionalOnes() throws Exception {
+        try (StubServer stub = new StubServer().withFixture("qv002").withDelay(300);
+             ContentFetcher fetcher = new ContentFetcher(stub.baseUrl(), 4, Duration.ofSeconds(5))) {
+            String etag = fetcher.fetchSync("qv002").etag;
+            assertNotNull(etag);
+
+            CompletableFuture<ContentFetcher.FetchResult> conditional = fetcher.fetch("qv002", etag, null);
+            CompletableFuture<ContentFetcher.FetchResult> unconditional = fetcher.fetch("qv002");
+
+            assertTrue(conditional.join().isNotModified());
+            assertTrue(unconditional.join().isOk());
+            assertNotNull(unconditional.join().body);
+            assertEquals(0, fetcher.getCoalesced());
+        }
+    }
+
+    @Test
+    public void testCancelledFetchGivesItsPermitBack() throws Exception {
+        try (StubServer stub = new StubServer().withFixture("qv002").withDelay(3000);
+             ContentFetcher fetcher = new ContentFetcher(stub.baseUrl(), 4, Duration.ofSeconds(10))) {
+            CompletableFuture<ContentFetcher.FetchResult> hedge = fetcher.fetchUncoalesced("qv002");
+            assertEquals(1, fetcher.getLimiter().getInFlight());
+
+            hedge.cancel(true);
+            long deadline = System.nanoTime() + 2_000_000_000L;
+            while (fetcher.getLimiter().getInFlight() > 0 && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(0, fetcher.getLimiter().getInFlight(), "Cancelling aborts the request");
+        }
+    }
+
+    @Test
+    public void testReleasesPermitWhenRequestCannotBeSent() throws Exception {
+        // A space makes the URL invalid, so building the request throws before anything is sent
+        try (ContentFetcher fetcher = new ContentFetcher("http://bad host/", 1, Duration.ofSeconds(5))) {
+            for (int i = 0; i < 3; i++) {
+                CompletableFuture<ContentFetcher.FetchResult> future = fetcher.fetch("QV002");
+                assertThrows(CompletionException.class, future::join);
+            }
+            assertEquals(0, fetcher.getLimiter().getInFlight());
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package com.deejay;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import java.io.*;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CoordinatorTest {
+
+    @TempDir
+    Path dir;
+
+    private static List<String> codes(int n) {
+        List<String> codes = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            codes.add(String.format("ABC%03d", i));
+        }
+        return codes;
+    }
+
+    @Test
+    public void testTwoWorkersShareTheQueue() throws Exception {
+        List<String> codes = codes(40);
+        List<CodeAnalyzer.AnalysisResult> seen = Collections.synchronizedList(new ArrayList<>());
+        ExecutorService workers = Executors.newFixedThreadPool(2);
+
+        try (StubServer stub = new StubServer();
+             RunJournal journal = new RunJournal(dir.resolve("results.txt.journal"), false);
+             Coordinator coordinator = new Coordinator(0, codes.iterator(), ResultCache.disabled(), journal,
+                 Duration.ofMinutes(1))) {
+            List<Future<Long>> counts = new ArrayList<>();
+            for (int i = 0; i < 2; i++) {
+                counts.add(workers.submit(() -> {
+                    try (CoordinatorClient client = new CoordinatorClient("127.0.0.1", coordinator.getPort());
+                         LookupEngine engine = LookupEngine.http(
+                             new ContentFetcher(stub.baseUrl(), 4, Duration.ofSeconds(5)), ResultCache.disabled(), null)) {
+                        return client.run(engine, List.of());
+                    }
+                }));
+            }
+
+            assertEquals(40, coordinator.run(List.of(seen::add)));
+            assertEquals(40, counts.get(0).get(10, TimeUnit.SECONDS) + counts.get(1).get(10, TimeUnit.SECONDS));
+            for (String code : codes) {
+                assertEquals(1, stub.hits(code), code);
+            }
+        } finally {
+            workers.shutdownNow();
+        }
+
+        Set<String> results = new HashSet<>();
+        seen.forEach(result -> results.add(result.code));
+        assertEquals(new HashSet<>(codes), results);
+        assertEquals(40, Files.readAllLines(dir.resolve("results.txt.journal")).size());
+    }
+
+    @Test
+    public void testWorkerLeasesOnlyWhatItsLimiterAllows() throws Exception {
+        List<String> codes = codes(20);
+        AdaptiveLimiter limiter = new AdaptiveLimiter(1, 1, 32, 0);
+        AtomicInteger peak = new AtomicInteger();
+
+        try (StubServer stub = new StubServer().withDelay(100);
+             Coordinator coordinator = new Coordinator(0, codes.iterator(), ResultCache.disabled(), null,
+                 Duration.ofMinutes(1))) {
+            Thread worker = new Thread(() -> {
+                try (CoordinatorClient client = new CoordinatorClient("127.0.0.1", coordinator.getPort());
+                     LookupEngine engine = LookupEngine.http(
+                         new ContentFetcher(stub.baseUrl(), limiter, Duration.ofSeconds(5)), ResultCache.disabled(), null)) {
+                    client.run(engine, List.of());
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            Thread sampler = new Thread(() -> {
+                while (!Thread.currentThread().isInterrupted()) {
+                    peak.accumulateAndGet(coordinator.getLeased(), Math::max);
+                    Thread.onSpinWait();
+                }
+            });
+            worker.start();
+            sampler.start();
+
+            assertEquals(20, coordinator.run(List.of()));
+            sampler.interrupt();
+            worker.join(10_000);
+        }
+        // The limit only grows here, so it bounds every earlier lease count
+        assertTrue(peak.get() >= 1 && peak.get() <= limiter.getLimit(), peak + " leased, limit " + limiter.getLimit());
+        assertTrue(limiter.getLimit() < 20);
+    }
+
+    @Test
+    public void testLeaseOfDisconnectedWorkerIsRequeued() throws Exception {
+        List<CodeAnalyzer.AnalysisResult> seen = new ArrayList<>();
+
+        try (StubServer stub = new StubServer();
+             Coordinator coordinator = new Coordinator(0, List.of("ABC001").iterator(), ResultCache.disabled(), null,
+                 Duration.ofMinutes(1))) {
+            try (Socket socket = new Socket("127.0.0.1", coordinator.getPort())) {
+                Writer out = new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8);
+                out.write("LEASE\n");
+                out.flush();
+                BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+                assertEquals("CODE ABC001", in.readLine());
+            }
+
+            Thread worker = new Thread(() -> {
+                try (CoordinatorClient client = new CoordinatorClient("127.0.0.1", coordinator.getPort());
+                     LookupEngine engine = LookupEngine.http(
+                         new ContentFetcher(stub.baseUrl(), 2, Duration.ofSeconds(5)), ResultCache.disabled(), null)) {
+                    client.run(engine, List.of());
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            worker.start();
+
+            assertEquals(1, coordinator.run(List.of(seen::add)));
+            worker.join(10_000);
+            assertEquals(1, coordinator.getRequeued());
+            assertEquals(1, stub.hits("ABC001"));
+        }
+        assertEquals("ABC001", seen.get(0).code);
+    }
+
+    @Test
+    public void testExpiredLeaseIsHandedOutAgain() throws Exception {
+        try (Coordinator coordinator = new Coordinator(0, List.of("ABC001").iterator(), ResultCache.disabled(), null,
+                Duration.ofMillis(50))) {
+            assertEquals("CODE ABC001", coordinator.lease(1));
+            assertEquals("WAIT", coordinator.lease(2));
+            Thread.sleep(100);
+            assertEquals("CODE ABC001", coordinator.lease(2));
+
+            coordinator.complete(new CodeAnalyzer.AnalysisResult("ABC001",
+                CodeAnalyzer.ResultType.STATIC_HTML_ONLY, "none", 0));
+            assertEquals("DONE", coordinator.lease(1));
+            assertTrue(coordinator.isFinished());
+        }
+    }
+
+    @Test
+    public void testTransientWorkerErrorsAreNotCached() throws Exception {
+        CodeAnalyzer.AnalysisResult timeout = CodeAnalyzer.errorResult("ABC001",
+            new IOException("connection reset"));
+        String message = Coordinator.resultMessage(timeout);
+        assertTrue(message.startsWith("FAILED "), message);
+        assertTrue(Coordinator.parseResultMessage(message).transientFailure);
+        assertFalse(Coordinator.parseResultMessage(Coordinator.resultMessage(new CodeAnalyzer.AnalysisResult(
+            "ABC002", CodeAnalyzer.ResultType.STATIC_HTML_ONLY, "none", 0))).transientFailure);
+        assertNull(Coordinator.parseResultMessage("LEASE"));
+
+        try (ResultCache cache = new ResultCache(dir.resolve("cache.log"), Duration.ofHours(1), Duration.ofHours(1),
+                 Duration.ofHours(1));
+             Coordinator coordinator = new Coordinator(0, List.of("ABC001").iterator(), cache, null,
+                 Duration.ofMinutes(1))) {
+            assertEquals("CODE ABC001", coordinator.lease(1));
+            coordinator.complete(Coordinator.parseResultMessage(message));
+            assertNull(cache.getEntry("ABC001"), "the next run looks the code up again");
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package com.deejay;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import java.io.*;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.*;
+import java.time.Duration;
+import java.util.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DaemonTest {
+
+    private static final String ONE_PRODUCT =
+        "<div class=\"product-list\"><img src=\"/pics/images/m/a.jpg\" alt=\"A\"><a href=\"/addCart/1\">+</a></div>";
+
+    @Test
+    public void testStreamsResultsToTheClient() throws Exception {
+        try (StubServer stub = new StubServer().withPage("DTW004", ONE_PRODUCT).withFixture("qv002");
+             LookupEngine engine = LookupEngine.http(new ContentFetcher(stub.baseUrl(), 4, Duration.ofSeconds(5)),
+                 ResultCache.disabled(), null);
+             Daemon daemon = new Daemon(engine, 0)) {
+            DaemonClient client = new DaemonClient("127.0.0.1", daemon.getPort());
+            List<String> lines = new ArrayList<>();
+
+            long count = client.lookup(List.of("dtw 004", "QV002", "DTW004"), lines::add);
+
+            assertEquals(2, count, "duplicates are looked up once: " + lines);
+            assertTrue(lines.stream().anyMatch(l -> l.startsWith("{\"code\":\"DTW004\",\"result\":\"SINGLE_RESULT\"")),
+                lines.toString());
+            assertTrue(lines.stream().anyMatch(l -> l.startsWith("{\"code\":\"QV002\",\"result\":\"STATIC_HTML_ONLY\"")),
+                lines.toString());
+
+            // The engine stays up for the next request
+            client.lookup(List.of("QV002"), lines::add);
+            assertEquals(3, lines.size());
+            assertTrue(client.status().contains("2 requests, 3 lookups"), client.status());
+        }
+    }
+
+    @Test
+    public void testQueryStringLookupAndShutdown() throws Exception {
+        try (StubServer stub = new StubServer().withPage("DTW004", ONE_PRODUCT);
+             LookupEngine engine = LookupEngine.http(new ContentFetcher(stub.baseUrl(), 4, Duration.ofSeconds(5)),
+                 ResultCache.disabled(), null);
+             Daemon daemon = new Daemon(engine, 0)) {
+            HttpClient http = HttpClient.newHttpClient();
+            URI base = URI.create("http://127.0.0.1:" + daemon.getPort() + "/");
+
+            HttpResponse<String> found = http.send(HttpRequest.newBuilder(base.resolve("lookup?code=dtw%20004")).build(),
+                HttpResponse.BodyHandlers.ofString());
+            assertEquals(200, found.statusCode());
+            assertTrue(found.body().startsWith("{\"code\":\"DTW004\""), found.body());
+
+            HttpResponse<String> empty = http.send(HttpRequest.newBuilder(base.resolve("lookup")).build(),
+                HttpResponse.BodyHandlers.ofString());
+            assertEquals(400, empty.statusCode());
+
+            Thread waiter = new Thread(() -> {
+                try {
+                    daemon.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            waiter.start();
+            new DaemonClient("127.0.0.1", daemon.getPort()).shutdown();
+            waiter.join(5000);
+            assertFalse(waiter.isAlive());
+        }
+    }
+
+    @Test
+    public void testClientSendsOnlyCodesOfTheInput(@TempDir Path dir) throws Exception {
+        Path input = dir.resolve("codes.txt");
+        Files.write(input, List.of("Processing: IMG_0001.JPG", "BNS085", "bns 085", "", "Processing: IMG_0002.JPG", "WH03/21"));
+
+        assertEquals(List.of("BNS085", "WH03/21"),
+            DaemonClient.codes(RunOptions.parse(new String[] { "--input=" + input })));
+        assertEquals(List.of("DTW004", "QV002"),
+            DaemonClient.codes(RunOptions.parse(new String[] { "--codes=dtw004,QV002,DTW 004" })));
+    }
+}
@@ -0,0 +1,81 @@
+package com.deejay;
+
+import com.microsoft.playwright.*;
+import org.junit.jupiter.api.Test;
+import java.util.*;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.*;
+
+public class IframeSummaryTest {
+
+    @Test
+    public void testReadsTheEvaluatedObject() {
+        // Playwright hands numbers over as Integer or Double depending on the value
+        IframeSummary summary = IframeSummary.from(Map.of("sorryMessage", false, "productList", true,
+            "products", 3.0));
+
+        assertTrue(summary.productList);
+        assertEquals(3, summary.products);
+        assertTrue(summary.hasResults());
+        assertEquals(3, summary.productCount());
+        assertEquals(CodeAnalyzer.ResultType.MULTIPLE_RESULTS,
+            CodeAnalyzer.classify("X", summary.hasResults(), summary.productCount()).resultType);
+        assertThrows(IllegalStateException.class, () -> IframeSummary.from(null));
+    }
+
+    @Test
+    public void testMatchesTheExtractorRules() {
+        // Sorry page, bare product list, single entry and nothing at all
+        assertFalse(new IframeSummary(true, true, 4).hasResults());
+        assertEquals(0, new IframeSummary(true, true, 4).productCount());
+        assertEquals(1, new IframeSummary(false, true, 0).productCount());
+        assertEquals(CodeAnalyzer.ResultType.SINGLE_RESULT, CodeAnalyzer.classify("X", true,
+            new IframeSummary(false, false, 1).productCount()).resultType);
+        assertFalse(new IframeSummary(false, false, 0).hasResults());
+
+        // The script looks for the same markers as the Java extractor
+        assertTrue(IframeSummary.SCRIPT.contains(ProductExtractor.PRODUCT_IMAGE));
+        assertTrue(IframeSummary.SCRIPT.contains(ProductExtractor.ADD_CART));
+        assertTrue(IframeSummary.SCRIPT.contains(ProductExtractor.SORRY_PREFIX));
+    }
+
+    @Test
+    public void testScriptAgreesWithTheExtractorInABrowser() throws Exception {
+        Map<String, String> pages = Map.of(
+            "FRONTBACK", """
+                <div class="product-list">
+                  <div class="product"><img src="/pics/images/m/a-front.jpg" alt="A - One">
+                    <img src="/pics/images/m/a-back.jpg" alt="A - One"><a href="/addCart/1">Cart</a></div>
+                  <div class="product"><img src="/pics/images/m/b-front.jpg" alt="B - Two">
+                    <img src="/pics/images/m/b-back.jpg" alt="B - Two"><a href="/addCart/2">Cart</a></div>
+                </div>""",
+            "SORRY", "<p>Sorry, we didn´t find a matching Entry.</p><div class=\"product-list\"></div>",
+            "EMPTY", "<p>Nothing here</p>");
+        StubServer stub = new StubServer();
+        pages.forEach(stub::withPage);
+        // No browser download in tests: without an installed Chromium the launch fails and the test is skipped
+        try (stub; Playwright playwright = Playwright.create(new Playwright.CreateOptions()
+                 .setEnv(Map.of("PLAYWRIGHT_SKIP_BROWSER_DOWNLOAD", "1")));
+             Browser browser = launch(playwright)) {
+            Page page = browser.newPage();
+            for (Map.Entry<String, String> entry : pages.entrySet()) {
+                page.navigate(ContentFetcher.contentUrl(stub.baseUrl(), entry.getKey()));
+                IframeSummary summary = IframeSummary.of(page.mainFrame());
+                ProductExtractor.Page expected = ProductExtractor.extract(entry.getValue(), null);
+
+                assertEquals(expected.hasResults(), summary.hasResults(), entry.getKey());
+                assertEquals(expected.productCount(), summary.productCount(), entry.getKey());
+            }
+        }
+    }
+
+    private static Browser launch(Playwright playwright) {
+        try {
+            return playwright.chromium().launch(new BrowserType.LaunchOptions()
+                .setArgs(List.of("--no-sandbox", "--disable-dev-shm-usage")));
+        } catch (PlaywrightException e) {
+            assumeTrue(false, "Chromium cannot be launched: " + e.getMessage());
+            return null;
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package com.deejay;
+
+import org.junit.jupiter.api.Test;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class IndicatorScannerTest {
+
+    // The substring based detection and counting that the scanner replaced
+    private static boolean legacyHasResults(String html) {
+        if (html.contains("Sorry, we didn´t find a matching Entry.")) {
+            return false;
+        }
+        return html.contains("/pics/images/m/") || html.contains("/addCart/")
+            || html.contains("class=\"product-list\"") || html.contains("class='product-list'");
+    }
+
+    private static int legacyCountProducts(String html) {
+        int imageCount = 0;
+        int cartCount = 0;
+        for (String line : html.split("\n")) {
+            if (line.contains("/pics/images/m/") && line.contains("alt=")) imageCount++;
+            if (line.contains("/addCart/")) cartCount++;
+        }
+        boolean list = html.contains("class=\"product-list\"") || html.contains("class='product-list'");
+        if (imageCount > 0 && cartCount > 0) return Math.min(imageCount, cartCount);
+        if (imageCount > 0) return imageCount;
+        if (cartCount > 0) return cartCount;
+        return list ? 1 : 0;
+    }
+
+    private static void assertSameAsLegacy(String html) {
+        assertEquals(legacyHasResults(html), Checker.hasResults(html), "hasResults for: " + html);
+        assertEquals(legacyCountProducts(html), IndicatorScanner.scan(html).productCount(), "productCount for: " + html);
+    }
+
+    private static String fixture(String name) throws IOException {
+        try (InputStream in = IndicatorScannerTest.class.getResourceAsStream("/" + name + ".html")) {
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    @Test
+    public void testSorryMessageWinsOverProducts() {
+        String html = "<p>Sorry, we didn´t find a matching Entry.</p>\n<a href=\"/addCart/1\">x</a>";
+        IndicatorScanner.Indicators indicators = IndicatorScanner.scan(html);
+
+        assertTrue(indicators.sorryMessage);
+        assertTrue(indicators.productLink);
+        assertFalse(indicators.hasResults());
+        assertSameAsLegacy(html);
+    }
+
+    @Test
+    public void testCountsLinesNotOccurrences() {
+        String html = """
+            <img src="/pics/images/m/a.jpg" alt="A"><a href="/addCart/1">x</a><a href="/addCart/2">y</a>
+            <img src="/pics/images/m/b.jpg"
+                 alt="B">
+            <a href="/addCart/3">z</a>
+            """;
+        IndicatorScanner.Indicators indicators = IndicatorScanner.scan(html);
+
+        assertEquals(1, indicators.imageAltLines, "alt= on the next line does not count");
+        assertEquals(2, indicators.cartLines, "two cart links on one line count once");
+        assertEquals(1, indicators.productCount());
+        assertSameAsLegacy(html);
+    }
+
+    @Test
+    public void testOverlappingAndPartialPatterns() {
+        assertSameAsLegacy("/pics/pics/images/m/x alt=");
+        assertSameAsLegacy("/addCart/addCart/");
+        assertSameAsLegacy("class='product-list\" class=\"product-list'");
+        assertSameAsLegacy("class=\"product-list\"");
+        assertSameAsLegacy("Sorry, we didn´t find a matching Entr");
+        assertSameAsLegacy("alt=/pics/images/m/\r\n/addCart/");
+        assertSameAsLegacy("");
+    }
+
+    @Test
+    public void testSyntheticResultPages() {
+        for (int products : new int[] { 1, 2, 10, 100 }) {
+            StringBuilder html = new StringBuilder("<div class=\"product-list\">\n");
+            for (int i = 0; i < products; i++) {
+                html.append("  <img src=\"/pics/images/m/").append(i).append(".jpg\" alt=\"Record ").append(i).append("\">\n");
+                html.append("  <a href=\"/addCart/").append(i).append("\">Add to Cart</a>\n");
+            }
+            html.append("</div>");
+            assertEquals(products, IndicatorScanner.scan(html).productCount());
+            assertSameAsLegacy(html.toString());
+        }
+    }
+
+    @Test
+    public void testShellFixtures() throws IOException {
+        for (String name : new String[] { "dtw004", "qv002", "nbastwax016", "rawqtroo3" }) {
+            String html = fixture(name);
+            assertFalse(Checker.hasResults(html), name);
+            assertSameAsLegacy(html);
+        }
+    }
+
+    @Test
+    public void testNullContent() {
+        assertEquals(0, CodeAnalyzer.countProducts(null));
+        assertFalse(IndicatorScanner.scan((CharSequence) null).hasResults());
+    }
+
+    @Test
+    public void testReaderGivesTheSameAnswers() throws IOException {
+        StringBuilder large = new StringBuilder("<div class=\"product-list\">\n");
+        for (int i = 0; i < 2000; i++) {
+            large.append("<img src=\"/pics/images/m/").append(i).append(".jpg\" alt=\"R\"><a href=\"/addCart/").append(i).append("\">+</a>\n");
+        }
+        String sorry = "x".repeat(8190) + "Sorry, we didn´t find a matching Entry.\n<a href=\"/addCart/1\">";
+        for (String html : new String[] { large.toString(), sorry, fixture("dtw004"), "" }) {
+            IndicatorScanner.Indicators streamed = IndicatorScanner.scan(new StringReader(html));
+            assertEquals(legacyHasResults(html), streamed.hasResults());
+            if (streamed.hasResults()) {
+                assertEquals(legacyCountProducts(html), streamed.productCount());
+            }
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package com.deejay;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * End-to-end load test of Checker against a local StubServer.
+ *
+ * Every run generates a code list, starts Checker in its own JVM pointed at the stub with
+ * --base-url and reports codes/s over the wall time of the process, the p50/p99 of the
+ * lookup stage from its metrics.json and its peak RSS. Runs are fresh processes so startup,
+ * JIT warm-up and memory are measured the way a user sees them.
+ *
+ * Run with: mvn -Pload test-compile exec:exec
+ * Options (pass with -Dload.args="..."):
+ *   --sizes=1000,10000,100000   code list sizes
+ *   --engines=http,browser      engines to run (browser needs Chromium)
+ *   --latency-median=20ms --latency-p99=200ms   log-normal stub latency
+ *   --error-rate=0.01 --hang-rate=0.001 --stub-rps=0   injected 503s, hung requests and rate limit
+ *   --report=load-report.tsv    TSV file the results are appended to
+ * Any other option is passed on to Checker, e.g. --max-concurrency=64 or --request-timeout=5s.
+ */
+public class LoadHarness {
+    private static final Set<String> HARNESS_OPTIONS = Set.of("sizes", "engines", "latency-median", "latency-p99",
+            "error-rate", "hang-rate", "stub-rps", "report", "work-dir");
+
+    public static void main(String[] args) throws Exception {
+        RunOptions options = RunOptions.parse(args);
+        List<Integer> sizes = new ArrayList<>();
+        for (String size : options.get("sizes", "1000,10000,100000").split(",")) {
+            sizes.add(Integer.parseInt(size.trim()));
+        }
+        List<String> engines = Arrays.asList(options.get("engines", "http").split(","));
+        List<String> passThrough = new ArrayList<>();
+        for (String arg : args) {
+            String name = arg.substring(2).split("=", 2)[0];
+            if (!HARNESS_OPTIONS.contains(name)) {
+                passThrough.add(arg);
+            }
+        }
+        Path workDir = Paths.get(options.get("work-dir", "target/load"));
+        Files.createDirectories(workDir);
+        Path report = Paths.get(options.get("report", "load-report.tsv"));
+
+        try (StubServer stub = new StubServer().withGeneratedPages()
+                .withLatency(StubServer.logNormal(
+                        options.getDuration("latency-median", Duration.ofMillis(20)).toNanos() / 1e6,
+                        options.getDuration("latency-p99", Duration.ofMillis(200)).toNanos() / 1e6))
+                .withErrorRate(Double.parseDouble(options.get("error-rate", "0")))
+                .withHangRate(Double.parseDouble(options.get("hang-rate", "0")))
+                .withRateLimit(Double.parseDouble(options.get("stub-rps", "0")))) {
+            System.out.println("Stub server on " + stub.baseUrl());
+            System.out.printf("%-8s %8s %10s %10s %10s %10s %8s%n",
+                    "engine", "codes", "codes/s", "p50 ms", "p99 ms", "peak MB", "errors");
+            for (String engine : engines) {
+                for (int size : sizes) {
+                    Result result = run(engine.trim(), size, stub, workDir, passThrough);
+                    System.out.printf("%-8s %8d %10.1f %10.1f %10.1f %10.1f %8d%n", result.engine, result.codes,
+                            result.codesPerSecond(), result.p50Ms, result.p99Ms, result.peakRssKb / 1024.0, result.errors);
+                    append(report, result);
+                }
+            }
+            System.out.println("Stub: " + stub.requests() + " requests, " + stub.errors() + " errors, "
+                    + stub.hangs() + " hangs, " + stub.throttled() + " throttled injected");
+        }
+    }
+
+    /**
+     * One Checker process over a fresh list of the given size
+     */
+    static Result run(String engine, int size, StubServer stub, Path workDir, List<String> passThrough)
+            throws IOException, InterruptedException {
+        Path dir = workDir.resolve(engine + "-" + size);
+        Files.createDirectories(dir);
+        Path codes = dir.resolve("codes.txt");
+        try (BufferedWriter writer = Files.newBufferedWriter(codes, StandardCharsets.UTF_8)) {
+            // A fresh prefix per run keeps the stub's per-code state from carrying over
+            String prefix = "LT" + Long.toString(System.nanoTime() % 100000, 36).toUpperCase(Locale.ROOT);
+            for (int i = 0; i < size; i++) {
+                writer.write(prefix + String.format("%06d", i));
+                writer.newLine();
+            }
+        }
+
+        List<String> command = new ArrayList<>(List.of(
+                Paths.get(System.getProperty("java.home"), "bin", "java").toString(),
+                "-cp", System.getProperty("java.class.path"), Checker.class.getName(),
+                "--input=" + codes, "--output-dir=" + dir, "--base-url=" + stub.baseUrl(),
+                "--no-cache", "--max-rps=0", "--progress-interval=30s"));
+        if (engine.equals("browser")) {
+            command.add("--browser");
+        }
+        command.addAll(passThrough);
+
+        long start = System.nanoTime();
+        Process process = new ProcessBuilder(command).redirectErrorStream(true)
+                .redirectOutput(dir.resolve("checker.log").toFile()).start();
+        long peakRssKb = 0;
+        while (!process.waitFor(50, TimeUnit.MILLISECONDS)) {
+            peakRssKb = Math.max(peakRssKb, peakRssKb(process.pid()));
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        if (process.exitValue() != 0) {
+            throw new IllegalStateException("Checker exited with " + process.exitValue() + ", see "
+                    + dir.resolve("checker.log"));
+        }
+
+        String metrics = Files.readString(dir.resolve("metrics.json"));
+        return new Result(engine, size, seconds, stageValue(metrics, "lookup", "p50Ms"),
+                stageValue(metrics, "lookup", "p99Ms"), peakRssKb, counter(metrics, "results_error"));
+    }
+
+    /**
+     * VmHWM of a process in kB, the high-water mark of its resident set; 0 where /proc is missing
+     */
+    static long peakRssKb(long pid) {
+        try {
+            for (String line : Files.readAllLines(Paths.get("/proc", Long.toString(pid), "status"))) {
+                if (line.startsWith("VmHWM:")) {
+                    return Long.parseLong(line.replaceAll("\\D+", ""));
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            // Not Linux or the process just exited
+        }
+        return 0;
+    }
+
+    static double stageValue(String metricsJson, String stage, String key) {
+        Matcher m = Pattern.compile("\"" + stage + "\": \\{[^}]*\"" + key + "\": ([0-9.]+)").matcher(metricsJson);
+        return m.find() ? Double.parseDouble(m.group(1)) : Double.NaN;
+    }
+
+    static long counter(String metricsJson, String name) {
+        Matcher m = Pattern.compile("\"" + name + "\": ([0-9]+)").matcher(metricsJson);
+        return m.find() ? Long.parseLong(m.group(1)) : 0;
+    }
+
+    private static void append(Path report, Result result) throws IOException {
+        boolean header = !Files.exists(report);
+        try (BufferedWriter writer = Files.newBufferedWriter(report, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+            if (header) {
+                writer.write("time\tengine\tcodes\tseconds\tcodes_per_second\tp50_ms\tp99_ms\tpeak_rss_kb\terrors\n");
+            }
+            writer.write(String.format(Locale.ROOT, "%tFT%<tT\t%s\t%d\t%.3f\t%.1f\t%.1f\t%.1f\t%d\t%d%n",
+                    new Date(), result.engine, result.codes, result.seconds, result.codesPerSecond(),
+                    result.p50Ms, result.p99Ms, result.peakRssKb, result.errors));
+        }
+    }
+
+    static class Result {
+        final String engine;
+        final int codes;
+        final double seconds;
+        final double p50Ms;
+        final double p99Ms;
+        final long peakRssKb;
+        final long errors;
+
+        Result(String engine, int codes, double seconds, double p50Ms, double p99Ms, long peakRssKb, long errors) {
+            this.engine = engine;
+            this.codes = codes;
+            this.seconds = seconds;
+            this.p50Ms = p50Ms;
+            this.p99Ms = p99Ms;
+            this.peakRssKb = peakRssKb;
+            this.errors = errors;
+        }
+
+        double codesPerSecond() {
+            return codes / seconds;
+        }
+    }
+}
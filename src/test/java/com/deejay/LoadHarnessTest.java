@@ -0,0 +1,67 @@
+package com.deejay;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.*;
+import java.time.Duration;
+import java.util.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LoadHarnessTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    public void testStubGeneratesPagesAndInjectsFaults() throws Exception {
+        int found = 0;
+        for (int i = 0; i < 1000; i++) {
+            if (Checker.hasResults(StubServer.generatedPage("GEN" + i))) {
+                found++;
+            }
+        }
+        assertTrue(found > 300 && found < 500, "about 40% found: " + found);
+        assertEquals(StubServer.generatedPage("GEN1"), StubServer.generatedPage("GEN1"));
+
+        try (StubServer stub = new StubServer().withGeneratedPages().withErrorRate(1)) {
+            HttpClient http = HttpClient.newHttpClient();
+            HttpResponse<String> shell = http.send(HttpRequest.newBuilder(URI.create(stub.baseUrl() + "WH03/21")).build(),
+                HttpResponse.BodyHandlers.ofString());
+            assertEquals(200, shell.statusCode());
+            assertTrue(shell.body().contains("id=\"myIframe\" src=\"/content.php?param=%2FWH03%2F21\""));
+
+            ContentFetcher fetcher = new ContentFetcher(stub.baseUrl(), 2, Duration.ofSeconds(5));
+            assertEquals(503, fetcher.fetch("GEN1").join().statusCode);
+            assertEquals(1, stub.errors());
+        }
+
+        try (StubServer stub = new StubServer().withRateLimit(2)) {
+            ContentFetcher fetcher = new ContentFetcher(stub.baseUrl(), 1, Duration.ofSeconds(5));
+            List<Integer> statuses = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                statuses.add(fetcher.fetch("RATE" + i).join().statusCode);
+            }
+            assertEquals(List.of(200, 200, 429, 429), statuses);
+            assertEquals(2, stub.throttled());
+        }
+    }
+
+    @Test
+    public void testRunsCheckerAgainstTheStub() throws Exception {
+        try (StubServer stub = new StubServer().withGeneratedPages().withDelay(1)) {
+            LoadHarness.Result result = LoadHarness.run("http", 300, stub, dir, List.of("--max-concurrency=8",
+                "--no-hedge"));
+
+            assertEquals(300, result.codes);
+            assertEquals(0, result.errors);
+            assertTrue(result.codesPerSecond() > 0);
+            assertTrue(result.p99Ms >= result.p50Ms, result.p50Ms + " / " + result.p99Ms);
+            assertEquals(300, stub.requests());
+            assertEquals(300, Files.readAllLines(dir.resolve("http-300").resolve("results.txt")).size());
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package com.deejay;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import java.nio.file.*;
+import java.time.Duration;
+import java.util.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LookupEngineTest {
+
+    private static final String TWO_PRODUCTS = """
+        <div class="product-list">
+            <img src="/pics/images/m/a.jpg" alt="A">
+            <img src="/pics/images/m/b.jpg" alt="B">
+        </div>
+        """;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    public void testOneFetchFeedsBothReports() throws Exception {
+        Path results = dir.resolve("results.txt");
+        Path analysis = dir.resolve("code_analysis_results.txt");
+        List<CodeAnalyzer.AnalysisResult> seen = new ArrayList<>();
+
+        try (StubServer stub = new StubServer().withPage("DTW004", TWO_PRODUCTS).withFixture("nbastwax016");
+             LookupEngine engine = LookupEngine.http(new ContentFetcher(stub.baseUrl(), 4, Duration.ofSeconds(5)),
+                 ResultCache.disabled(), null)) {
+            long count = engine.run(List.of("DTW004", "NBASTWAX016", "NOPE001").iterator(), List.of(
+                new Checker.FoundReport(results),
+                new CodeAnalyzer.AnalysisReport(analysis),
+                seen::add));
+
+            assertEquals(3, count);
+            assertEquals(1, stub.hits("DTW004"));
+            assertEquals(1, stub.hits("NBASTWAX016"));
+            assertEquals(1, stub.hits("NOPE001"));
+        }
+
+        assertEquals(Set.of("DTW004: FOUND", "NBASTWAX016: NOT FOUND", "NOPE001: NOT FOUND"),
+            new HashSet<>(Files.readAllLines(results)));
+        String report = Files.readString(analysis);
+        assertTrue(report.contains("[MULTIPLE] DTW004"), report);
+        assertTrue(report.contains("Total codes analyzed: 3"), report);
+        assertEquals(3, seen.size());
+    }
+
+    @Test
+    public void testLookupUsesCacheAsLibrary() throws Exception {
+        try (StubServer stub = new StubServer().withPage("DTW004", TWO_PRODUCTS);
+             LookupEngine engine = LookupEngine.http(new ContentFetcher(stub.baseUrl(), 4, Duration.ofSeconds(5)),
+                 new ResultCache(dir.resolve("cache.log"), Duration.ofHours(1), Duration.ofHours(1), Duration.ZERO),
+                 null)) {
+            CodeAnalyzer.AnalysisResult first = engine.lookup("dtw004").join();
+            CodeAnalyzer.AnalysisResult second = engine.lookup(" DTW 004").join();
+
+            assertEquals(CodeAnalyzer.ResultType.MULTIPLE_RESULTS, first.resultType);
+            assertEquals(first.productCount, second.productCount);
+            assertEquals(1, stub.hits("DTW004"));
+        }
+    }
+
+    @Test
+    public void testExpiredEntriesAreRevalidated() throws Exception {
+        Metrics.reset();
+        try (StubServer stub = new StubServer().withPage("DTW004", TWO_PRODUCTS);
+             LookupEngine engine = LookupEngine.http(new ContentFetcher(stub.baseUrl(), 4, Duration.ofSeconds(5)),
+                 new ResultCache(dir.resolve("cache.log"), Duration.ZERO, Duration.ZERO, Duration.ZERO), null)) {
+            CodeAnalyzer.AnalysisResult first = engine.lookup("DTW004").join();
+            CodeAnalyzer.AnalysisResult second = engine.lookup("DTW004").join();
+
+            assertEquals(2, stub.hits("DTW004"));
+            assertEquals(1, stub.notModified("DTW004"), "second request is conditional");
+            assertEquals(first.resultType, second.resultType);
+            assertEquals(2, second.productCount);
+            assertEquals(1, Metrics.counter("not_modified"));
+
+            stub.withPage("DTW004", TWO_PRODUCTS.replace("<img src=\"/pics/images/m/b.jpg\" alt=\"B\">", ""));
+            assertEquals(CodeAnalyzer.ResultType.SINGLE_RESULT, engine.lookup("DTW004").join().resultType,
+                "a changed page is downloaded and parsed again");
+        }
+    }
+
+    @Test
+    public void testUnchangedContentHashSkipsParsing() throws Exception {
+        Metrics.reset();
+        try (StubServer stub = new StubServer().withoutValidators().withPage("DTW004", TWO_PRODUCTS);
+             LookupEngine engine = LookupEngine.http(new ContentFetcher(stub.baseUrl(), 4, Duration.ofSeconds(5)),
+                 new ResultCache(dir.resolve("cache.log"), Duration.ZERO, Duration.ZERO, Duration.ZERO), null)) {
+            engine.lookup("DTW004").join();
+            CodeAnalyzer.AnalysisResult second = engine.lookup("DTW004").join();
+
+            assertEquals(0, stub.notModified("DTW004"));
+            assertEquals(CodeAnalyzer.ResultType.MULTIPLE_RESULTS, second.resultType);
+            assertEquals(1, Metrics.counter("content_unchanged"));
+        }
+    }
+}
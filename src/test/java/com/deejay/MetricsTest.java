@@ -0,0 +1,66 @@
+package com.deejay;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import java.nio.file.*;
+import java.time.Duration;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MetricsTest {
+
+    @TempDir
+    Path dir;
+
+    @AfterEach
+    public void reset() {
+        Metrics.reset();
+    }
+
+    @Test
+    public void testBucketsAreContiguous() {
+        for (long value = 0; value < 1_000_000; value++) {
+            int index = LatencyHistogram.index(value);
+            assertTrue(value <= LatencyHistogram.highestEquivalent(index), "value " + value);
+            assertTrue(index == 0 || value > LatencyHistogram.highestEquivalent(index - 1), "value " + value);
+        }
+        long max = LatencyHistogram.highestEquivalent(LatencyHistogram.index(Long.MAX_VALUE));
+        assertEquals(Long.MAX_VALUE, max);
+    }
+
+    @Test
+    public void testQuantilesWithinThreePercent() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long ms = 1; ms <= 1000; ms++) {
+            histogram.record(ms * 1_000_000);
+        }
+        assertEquals(1000, histogram.getCount());
+        assertEquals(500e6, histogram.quantile(0.5), 500e6 * 0.03);
+        assertEquals(990e6, histogram.quantile(0.99), 990e6 * 0.03);
+        assertEquals(1000_000_000, histogram.quantile(1.0));
+        assertEquals(500.5e6, histogram.getMean(), 1);
+        assertEquals(0, new LatencyHistogram().quantile(0.5));
+    }
+
+    @Test
+    public void testExportsJsonAndPrometheus() throws Exception {
+        Metrics.histogram("navigate").record(250_000_000);
+        Metrics.count("timeouts");
+        Metrics.add("bytes_transferred", 4096);
+
+        Path json = dir.resolve("metrics.json");
+        Path prom = dir.resolve("metrics.prom");
+        new Metrics.Exporter(json, prom, Duration.ZERO).close();
+
+        String jsonText = Files.readString(json);
+        assertTrue(jsonText.contains("\"navigate\": {\"count\": 1"), jsonText);
+        assertTrue(jsonText.contains("\"timeouts\": 1"), jsonText);
+        assertTrue(jsonText.contains("\"bytes_transferred\": 4096"), jsonText);
+
+        String promText = Files.readString(prom);
+        assertTrue(promText.contains("deejay_stage_latency_seconds_count{stage=\"navigate\"} 1"), promText);
+        assertTrue(promText.contains("deejay_stage_latency_seconds{stage=\"navigate\",quantile=\"0.99\"} 0.25"),
+            promText);
+        assertTrue(promText.contains("deejay_bytes_transferred_total 4096"), promText);
+    }
+}
@@ -0,0 +1,87 @@
+package com.deejay;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.Duration;
+import java.util.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PageArchiveTest {
+
+    private static final String TWO_PRODUCTS = """
+        <div class="product-list">
+            <img src="/pics/images/m/a.jpg" alt="A">
+            <img src="/pics/images/m/b.jpg" alt="B">
+        </div>
+        """;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    public void testRoundTripAndLaterRecordingsWin() throws Exception {
+        Path base = dir.resolve("archive");
+        try (PageArchive archive = PageArchive.record(base)) {
+            archive.put("dtw004", 200, "first");
+            archive.put("BNS085", 404, "missing");
+            archive.put("DTW 004", 200, TWO_PRODUCTS);
+        }
+        try (PageArchive archive = PageArchive.replay(base)) {
+            assertEquals(2, archive.size());
+            ContentFetcher.FetchResult page = archive.get("DTW004");
+            assertEquals(200, page.statusCode);
+            assertEquals(TWO_PRODUCTS, page.body);
+            assertEquals(404, archive.get("bns085").statusCode);
+            assertNull(archive.get("NOPE001"));
+        }
+    }
+
+    @Test
+    public void testTornTailIsDroppedOnReopen() throws Exception {
+        Path base = dir.resolve("archive");
+        try (PageArchive archive = PageArchive.record(base)) {
+            archive.put("DTW004", 200, TWO_PRODUCTS);
+        }
+        // A killed run: page bytes without index line, then half an index line
+        Files.write(Paths.get(base + ".seg"), new byte[] {1, 2, 3}, StandardOpenOption.APPEND);
+        Files.writeString(Paths.get(base + ".idx"), "BNS085\t200\t", StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+
+        try (PageArchive archive = PageArchive.record(base)) {
+            assertEquals(1, archive.size());
+            archive.put("BNS085", 200, "<p>Sorry, we didn't find anything</p>");
+        }
+        try (PageArchive archive = PageArchive.replay(base)) {
+            assertEquals(TWO_PRODUCTS, archive.get("DTW004").body);
+            assertTrue(archive.get("BNS085").body.contains("Sorry"));
+        }
+    }
+
+    @Test
+    public void testReplayClassifiesRecordedPagesWithoutNetwork() throws Exception {
+        Path base = dir.resolve("archive");
+        List<String> codes = List.of("DTW004", "NBASTWAX016", "NOPE001");
+        List<CodeAnalyzer.AnalysisResult> recorded = new ArrayList<>();
+        try (StubServer stub = new StubServer().withPage("DTW004", TWO_PRODUCTS).withFixture("nbastwax016");
+             LookupEngine engine = LookupEngine.http(new ContentFetcher(stub.baseUrl(), 4, Duration.ofSeconds(5)),
+                 ResultCache.disabled(), null, PageArchive.record(base))) {
+            engine.run(codes.iterator(), List.of(recorded::add));
+        }
+
+        List<CodeAnalyzer.AnalysisResult> replayed = new ArrayList<>();
+        try (LookupEngine engine = LookupEngine.replay(PageArchive.replay(base), null)) {
+            engine.run(List.of("DTW004", "nbastwax016", "NOPE001", "UNKNOWN1").iterator(), List.of(replayed::add));
+        }
+
+        Map<String, CodeAnalyzer.AnalysisResult> byCode = new HashMap<>();
+        replayed.forEach(result -> byCode.put(result.code, result));
+        for (CodeAnalyzer.AnalysisResult result : recorded) {
+            CodeAnalyzer.AnalysisResult replay = byCode.get(result.code);
+            assertEquals(result.resultType, replay.resultType, result.code);
+            assertEquals(result.productCount, replay.productCount, result.code);
+        }
+        assertEquals(CodeAnalyzer.ResultType.MULTIPLE_RESULTS, byCode.get("DTW004").resultType);
+        assertEquals(CodeAnalyzer.ResultType.ERROR, byCode.get("UNKNOWN1").resultType);
+    }
+}
@@ -0,0 +1,206 @@
+package com.deejay;
+
+import org.junit.jupiter.api.Test;
+import java.io.*;
+import java.lang.management.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.*;
+
+public class ProductExtractorTest {
+
+    private static String fixture(String name) throws IOException {
+        try (InputStream in = ProductExtractorTest.class.getResourceAsStream("/" + name + ".html")) {
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    @Test
+    public void testExtractsStructuredEntries() {
+        String html = """
+            <div class="product-list">
+            <article class="product">
+              <a href="/DTW004"><img src="/pics/images/m/dtw004.jpg" alt="Dan Tomas - Waves EP"></a>
+              <div class="artist"><h2>Dan Tomas</h2></div>
+              <div class="title"><h3>Waves &amp; Tides EP</h3></div>
+              <div class="price">12,99 &euro;</div>
+              <a class="buy" href="/addCart/412233">Add to Cart</a>
+            </article>
+            <article class="product">
+              <a href="/QV002"><img src="/pics/images/m/qv002.jpg" alt="Qualiatik - Vol. 2"></a>
+              <div class="price">9,49 &euro;</div>
+              <a class="watchIt" href="stockMail/412244">Notify me</a>
+            </article>
+            </div>
+            """;
+        List<ProductExtractor.Product> products = ProductExtractor.products(html);
+
+        assertEquals(2, products.size());
+        ProductExtractor.Product first = products.get(0);
+        assertEquals("DTW004", first.catalogNumber);
+        assertEquals("Dan Tomas", first.artist);
+        assertEquals("Waves & Tides EP", first.title);
+        assertEquals("12,99 €", first.price);
+        assertEquals("in stock", first.availability);
+        assertEquals("412233", first.cartId);
+
+        ProductExtractor.Product second = products.get(1);
+        assertEquals("QV002", second.catalogNumber);
+        assertEquals("Qualiatik", second.artist);
+        assertEquals("Vol. 2", second.title);
+        assertEquals("sold out", second.availability);
+        assertNull(second.cartId);
+        assertEquals(2, ProductExtractor.extract(html, null).productCount());
+    }
+
+    @Test
+    public void testCountsEntriesHoweverMarkupWraps() {
+        // One product per line, one spread over many lines, and two on a single line
+        String html = "<img src=\"/pics/images/m/a.jpg\" alt=\"A\"><a href=\"/addCart/1\">x</a>\n"
+            + "<img\n  src=\"/pics/images/m/b.jpg\"\n  alt=\"B\"\n>\n<a\n href=\"/addCart/2\">y</a>\n"
+            + "<img src='/pics/images/m/c.jpg' alt='C'><a href='/addCart/3'>z</a><img src=/pics/images/m/d.jpg alt=D>"
+            + "<a href=/addCart/4>w</a><a href=\"/addCart/4\">again</a>";
+
+        assertEquals(List.of("1", "2", "3", "4"), ProductExtractor.products(html).stream().map(p -> p.cartId).toList());
+        assertEquals(4, ProductExtractor.extract(html, null).productCount());
+    }
+
+    @Test
+    public void testIgnoresMarkersOutsideMarkup() {
+        String html = """
+            <script>var img = '<img src="/pics/images/m/x.jpg">'; var cart = "/addCart/9";</script>
+            <!-- <a href="/addCart/8">old</a> -->
+            <p>Links look like /addCart/7 and images like /pics/images/m/ alt=</p>
+            """;
+
+        assertEquals(0, ProductExtractor.extract(html, null).productCount());
+        assertFalse(ProductExtractor.extract(html, null).hasResults());
+        // Classification stays with the substring scanner, which counts a marker anywhere
+        assertTrue(Checker.hasResults(html));
+    }
+
+    @Test
+    public void testMarkersOutsideEntryMarkupOnlyClassify() throws IOException {
+        // A lazy loaded data-src, a form action, a title attribute, a meta tag, a script, a comment
+        // and text mention the markers, but none of them is an img src, an a href or a class token
+        String html = fixture("markers-outside-entries");
+
+        assertEquals(List.of(), ProductExtractor.products(html));
+        assertFalse(ProductExtractor.extract(html, null).hasResults());
+        // Classification keeps matching the markers anywhere, as the substring checks did
+        assertTrue(Checker.hasResults(html));
+        assertTrue(CodeAnalyzer.analyzeContent("X", html).isFound());
+    }
+
+    @Test
+    public void testDecodesEntitiesInTextAndAttributes() {
+        String html = "<img src=\"/pics/images/m/a.jpg\" alt=\"M&ouml;bius &amp; Plank - Rastakraut Pasta\">"
+            + "<div class=\"price\">12,99&nbsp;&#8364;</div><a href=\"/addCart/7&amp;x=1\">+</a>";
+        ProductExtractor.Product product = ProductExtractor.products(html).get(0);
+
+        assertEquals("Möbius & Plank", product.artist);
+        assertEquals("Rastakraut Pasta", product.title);
+        assertEquals("12,99 €", product.price);
+        assertEquals("7", product.cartId);
+    }
+
+    @Test
+    public void testScanDoesNotAllocatePerTag() {
+        StringBuilder html = new StringBuilder();
+        for (int i = 0; i < 5000; i++) {
+            html.append("<div class=\"row cell col-").append(i % 10).append("\" data-id=\"").append(i)
+                .append("\"><span class='label'>x &amp; y</span><a href=\"/info/").append(i).append("\">i</a></div>\n");
+        }
+        String page = html.toString();
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        assumeTrue(threads instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threads;
+        ProductExtractor.extract(page, null);
+
+        long before = allocations.getThreadAllocatedBytes(Thread.currentThread().getId());
+        ProductExtractor.extract(page, null);
+        long allocated = allocations.getThreadAllocatedBytes(Thread.currentThread().getId()) - before;
+
+        // 20000 tags; a String per tag or class token alone would be hundreds of KB
+        assertTrue(allocated < 16 * 1024, allocated + " bytes allocated");
+    }
+
+    @Test
+    public void testListenerCanExtractAnotherDocument() {
+        String outer = "<img src=\"/pics/images/m/a.jpg\"><a href=\"/addCart/1\">+</a>"
+            + "<img src=\"/pics/images/m/b.jpg\"><a href=\"/addCart/2\">+</a>";
+        List<String> inner = new ArrayList<>();
+        ProductExtractor.Page page = ProductExtractor.extract(outer, product -> {
+            inner.add(ProductExtractor.products("<a href=\"/addCart/9" + product.cartId + "\">+</a>").get(0).cartId);
+            return true;
+        });
+
+        assertEquals(2, page.products);
+        assertEquals(List.of("91", "92"), inner);
+    }
+
+    @Test
+    public void testEntriesAreKeyedOnTheCartLink() {
+        // Front and back pictures of one product, with the cart link after or before them
+        String imagesFirst = """
+            <img src="/pics/images/m/a-front.jpg" alt="A"><img src="/pics/images/m/a-back.jpg" alt="A">
+            <a href="/addCart/1">+</a>
+            <img src="/pics/images/m/b-front.jpg" alt="B"><img src="/pics/images/m/b-back.jpg" alt="B">
+            <a href="/addCart/2">+</a>
+            """;
+        String cartFirst = """
+            <a href="/addCart/1">+</a><img src="/pics/images/m/a-front.jpg"><img src="/pics/images/m/a-back.jpg">
+            <a href="/addCart/2">+</a><img src="/pics/images/m/b-front.jpg"><img src="/pics/images/m/b-back.jpg">
+            """;
+
+        for (String html : List.of(imagesFirst, cartFirst)) {
+            List<ProductExtractor.Product> products = ProductExtractor.products(html);
+            assertEquals(List.of("1", "2"), products.stream().map(p -> p.cartId).toList(), html);
+            assertEquals(List.of("/pics/images/m/a-front.jpg", "/pics/images/m/b-front.jpg"),
+                products.stream().map(p -> p.image).toList());
+            assertEquals(2, ProductExtractor.extract(html, null).productCount());
+        }
+
+        // Without cart links every picture is an entry
+        assertEquals(2, ProductExtractor.extract(
+            "<img src=\"/pics/images/m/a.jpg\" alt=\"A\"><img src=\"/pics/images/m/b.jpg\" alt=\"B\">", null).productCount());
+    }
+
+    @Test
+    public void testSorryPageStopsTheScan() {
+        String html = "<p>Sorry, we didn&acute;t find a matching Entry.</p>\n<a href=\"/addCart/1\">x</a>";
+        ProductExtractor.Page page = ProductExtractor.extract(html, null);
+
+        assertTrue(page.sorryMessage);
+        assertFalse(page.complete);
+        assertEquals(0, page.products);
+        assertFalse(page.hasResults());
+    }
+
+    @Test
+    public void testListenerCanStopEarly() throws IOException {
+        StringBuilder html = new StringBuilder("<div class=\"product-list\">");
+        for (int i = 0; i < 100; i++) {
+            html.append("<img src=\"/pics/images/m/").append(i).append(".jpg\"><a href=\"/addCart/").append(i).append("\">+</a>");
+        }
+        List<String> seen = new ArrayList<>();
+        ProductExtractor.Page page = ProductExtractor.extract(new StringReader(html.toString()), product -> {
+            seen.add(product.cartId);
+            return seen.size() < 2;
+        });
+
+        assertEquals(List.of("0", "1"), seen);
+        assertFalse(page.complete);
+        assertEquals(100, ProductExtractor.extract(html, null).products);
+    }
+
+    @Test
+    public void testShellFixturesHaveNoEntries() throws IOException {
+        for (String name : new String[] { "dtw004", "qv002", "nbastwax016", "rawqtroo3" }) {
+            ProductExtractor.Page page = ProductExtractor.extract(new StringReader(fixture(name)), null);
+            assertEquals(0, page.products, name);
+            assertFalse(page.hasResults(), name);
+        }
+    }
+}
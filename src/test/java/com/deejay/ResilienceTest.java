@@ -0,0 +1,177 @@
+package com.deejay;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import java.io.IOException;
+import java.nio.file.*;
+import java.time.Duration;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ResilienceTest {
+
+    @TempDir
+    Path dir;
+
+    private static CodeAnalyzer.AnalysisResult found(String code) {
+        return new CodeAnalyzer.AnalysisResult(code, CodeAnalyzer.ResultType.SINGLE_RESULT, "found", 1);
+    }
+
+    private static Resilience.Options fast() {
+        return new Resilience.Options().setBackoff(Duration.ofMillis(1)).setMaxBackoff(Duration.ofMillis(5));
+    }
+
+    @Test
+    public void testOnlyTransientFailuresAreRetried() {
+        Resilience resilience = new Resilience(fast().setHedge(false).setBreaker(false).setRetries(3));
+        AtomicInteger calls = new AtomicInteger();
+        CodeAnalyzer.AnalysisResult result = resilience.call("DTW004", code -> calls.incrementAndGet() <= 2
+            ? CompletableFuture.failedFuture(new IOException("connection reset"))
+            : CompletableFuture.completedFuture(found(code)), null).join();
+
+        assertEquals(CodeAnalyzer.ResultType.SINGLE_RESULT, result.resultType);
+        assertEquals(3, calls.get());
+        assertEquals(2, resilience.getRetries());
+
+        // A 'Sorry' page and a failure that is not transient are final
+        AtomicInteger sorry = new AtomicInteger();
+        CodeAnalyzer.AnalysisResult notFound = resilience.call("NOPE001", code -> {
+            sorry.incrementAndGet();
+            return CompletableFuture.completedFuture(CodeAnalyzer.analyzeContent(code,
+                "Sorry, we didn´t find a matching Entry."));
+        }, null).join();
+        assertEquals(CodeAnalyzer.ResultType.STATIC_HTML_ONLY, notFound.resultType);
+        assertEquals(1, sorry.get());
+
+        AtomicInteger broken = new AtomicInteger();
+        CodeAnalyzer.AnalysisResult error = resilience.call("BAD001", code -> {
+            broken.incrementAndGet();
+            return CompletableFuture.failedFuture(new IllegalStateException("parser bug"));
+        }, null).join();
+        assertEquals(CodeAnalyzer.ResultType.ERROR, error.resultType);
+        assertFalse(error.transientFailure);
+        assertEquals(1, broken.get());
+
+        // Retries give up after the limit and report the error
+        CodeAnalyzer.AnalysisResult gaveUp = resilience.call("SLOW001",
+            code -> CompletableFuture.failedFuture(new TimeoutException("selector")), null).join();
+        assertEquals(CodeAnalyzer.ResultType.ERROR, gaveUp.resultType);
+        assertTrue(gaveUp.transientFailure);
+    }
+
+    @Test
+    public void testSlowAttemptIsHedged() {
+        Resilience resilience = new Resilience(fast().setBreaker(false).setMinHedgeDelay(Duration.ofMillis(10))
+            .setHedgeBudget(1));
+        // Cache hits come back done; they are no attempts and their latency is not a round trip
+        for (int i = 0; i < 30; i++) {
+            resilience.call("C" + i, code -> CompletableFuture.completedFuture(found(code)), null).join();
+        }
+        assertEquals(0, resilience.getAttempts());
+        assertEquals(0, resilience.hedgeDelay());
+
+        // No hedging before enough latencies of requests are seen
+        for (int i = 0; i < 20; i++) {
+            assertEquals(0, resilience.hedgeDelay());
+            resilience.call("C" + i, code -> new CompletableFuture<CodeAnalyzer.AnalysisResult>()
+                .completeOnTimeout(found(code), 2, TimeUnit.MILLISECONDS), null).join();
+        }
+        assertEquals(20, resilience.getAttempts());
+        assertTrue(resilience.hedgeDelay() >= TimeUnit.MILLISECONDS.toNanos(10));
+
+        CompletableFuture<CodeAnalyzer.AnalysisResult> stuck = new CompletableFuture<>();
+        CodeAnalyzer.AnalysisResult result = resilience.call("HUNG001", code -> stuck,
+            code -> CompletableFuture.completedFuture(found(code))).orTimeout(5, TimeUnit.SECONDS).join();
+
+        assertEquals(CodeAnalyzer.ResultType.SINGLE_RESULT, result.resultType);
+        assertEquals(1, resilience.getHedges());
+        assertEquals(1, resilience.getHedgeWins());
+        assertTrue(stuck.isCancelled(), "The attempt that lost is cancelled");
+
+        // A transient failure of the hedge does not beat the attempt still running
+        CompletableFuture<CodeAnalyzer.AnalysisResult> slow = new CompletableFuture<>();
+        CompletableFuture<CodeAnalyzer.AnalysisResult> hedged = resilience.call("SLOW002", code -> slow,
+            code -> CompletableFuture.failedFuture(new IOException("reset")));
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (resilience.getHedges() < 2 && System.nanoTime() < deadline) {
+            Thread.onSpinWait();
+        }
+        assertFalse(hedged.isDone());
+        slow.complete(found("SLOW002"));
+        assertEquals(CodeAnalyzer.ResultType.SINGLE_RESULT, hedged.join().resultType);
+
+        // The hedge that lost is cancelled too
+        CompletableFuture<CodeAnalyzer.AnalysisResult> late = new CompletableFuture<>();
+        CompletableFuture<CodeAnalyzer.AnalysisResult> lostHedge = new CompletableFuture<>();
+        CompletableFuture<CodeAnalyzer.AnalysisResult> firstWins = resilience.call("SLOW003", code -> late,
+            code -> lostHedge);
+        while (resilience.getHedges() < 3 && System.nanoTime() < deadline) {
+            Thread.onSpinWait();
+        }
+        late.complete(found("SLOW003"));
+        assertEquals(CodeAnalyzer.ResultType.SINGLE_RESULT, firstWins.join().resultType);
+        assertEquals(1, resilience.getHedgeWins());
+        while (!lostHedge.isDone() && System.nanoTime() < deadline) {
+            Thread.onSpinWait();
+        }
+        assertTrue(lostHedge.isCancelled());
+    }
+
+    @Test
+    public void testCancellingTheCallCancelsTheAttempt() {
+        Resilience resilience = new Resilience(fast().setHedge(false).setBreaker(false).setRetries(3));
+        CompletableFuture<CodeAnalyzer.AnalysisResult> attempt = new CompletableFuture<>();
+        AtomicInteger calls = new AtomicInteger();
+        CompletableFuture<CodeAnalyzer.AnalysisResult> result = resilience.call("DTW004", code -> {
+            calls.incrementAndGet();
+            return attempt;
+        }, null);
+
+        result.cancel(true);
+        assertTrue(attempt.isCancelled());
+        assertEquals(1, calls.get(), "a cancelled call is not retried");
+    }
+
+    @Test
+    public void testBreakerOpensAndRecoversAfterTrial() throws Exception {
+        Resilience.CircuitBreaker breaker = new Resilience.CircuitBreaker(4, 0.5, Duration.ofMillis(100));
+        breaker.record(true);
+        breaker.record(false);
+        breaker.record(true);
+        assertEquals(Resilience.CircuitBreaker.State.CLOSED, breaker.state());
+        breaker.record(false);
+        assertEquals(Resilience.CircuitBreaker.State.OPEN, breaker.state());
+        assertTrue(breaker.admit() > 0, "attempts wait out the cooldown");
+
+        Thread.sleep(120);
+        assertEquals(0, breaker.admit(), "one trial goes through");
+        assertTrue(breaker.admit() > 0, "others wait for the trial");
+        breaker.record(false);
+        assertEquals(Resilience.CircuitBreaker.State.OPEN, breaker.state());
+        assertEquals(2, breaker.getOpened());
+
+        Thread.sleep(120);
+        assertEquals(0, breaker.admit());
+        breaker.record(true);
+        assertEquals(Resilience.CircuitBreaker.State.CLOSED, breaker.state());
+        assertEquals(0, breaker.admit());
+    }
+
+    @Test
+    public void testTransientHttpErrorsAreNeitherNotFoundNorCached() throws Exception {
+        ContentFetcher.FetchResult unavailable = new ContentFetcher.FetchResult("DTW004", 503, "", 0);
+        ContentFetcher.FetchResult missing = new ContentFetcher.FetchResult("DTW004", 404, "", 0);
+        assertTrue(CodeAnalyzer.analyzeFetched("DTW004", unavailable, null).transientFailure);
+        assertFalse(CodeAnalyzer.analyzeFetched("DTW004", missing, null).transientFailure);
+        assertEquals(CodeAnalyzer.ResultType.ERROR, CodeAnalyzer.analyzeFetched("DTW004", unavailable, null).resultType);
+
+        ResultCache cache = new ResultCache(dir.resolve("cache.log"), Duration.ofHours(1), Duration.ofHours(1),
+            Duration.ofHours(1));
+        cache.put(CodeAnalyzer.analyzeFetched("DTW004", unavailable, null), 503);
+        cache.put(CodeAnalyzer.analyzeFetched("NOPE001", missing, null), 404);
+        assertNull(cache.get("DTW004"), "a transient error is looked up again");
+        assertNotNull(cache.get("NOPE001"));
+        cache.close();
+    }
+}
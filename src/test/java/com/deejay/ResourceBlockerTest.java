@@ -0,0 +1,42 @@
+package com.deejay;
+
+import org.junit.jupiter.api.Test;
+import java.util.Set;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ResourceBlockerTest {
+
+    @Test
+    public void testDefaultRulesKeepOnlyWhatTheFrameNeeds() {
+        ResourceBlocker blocker = ResourceBlocker.fromOptions(RunOptions.parse(new String[0]));
+
+        assertFalse(blocker.shouldBlock("document", "https://deejay.de/dtw004"));
+        assertFalse(blocker.shouldBlock("document", "https://deejay.de/content.php?param=%2Fdtw004"));
+        assertFalse(blocker.shouldBlock("xhr", "https://deejay.de/ajax/basket.php"));
+        assertFalse(blocker.shouldBlock("script", "https://deejay.de/smarty/templates/js/jquery.min.js"));
+        assertTrue(blocker.shouldBlock("stylesheet", "https://deejay.de/smarty/templates/css/style.min.css?1755686735"));
+        assertTrue(blocker.shouldBlock("image", "https://deejay.de/pics/images/m/vinyl1.jpg"));
+        assertTrue(blocker.shouldBlock("font", "https://deejay.de/fonts/icons.woff2"));
+        assertTrue(blocker.shouldBlock("media", "https://deejay.de/streamit/1.mp3"));
+        assertTrue(blocker.shouldBlock("script", "https://www.googletagmanager.com/gtm.js?id=GTM-ABC"));
+    }
+
+    @Test
+    public void testConfigurableRules() {
+        ResourceBlocker blocker = ResourceBlocker.fromOptions(RunOptions.parse(new String[] {
+            "--block-types=image,script", "--block-hosts=cdn.example.com"}));
+
+        assertTrue(blocker.shouldBlock("script", "https://deejay.de/player.js"));
+        assertFalse(blocker.shouldBlock("stylesheet", "https://deejay.de/style.css"));
+        assertTrue(blocker.shouldBlock("fetch", "https://img.cdn.example.com/a.json"));
+        assertFalse(blocker.shouldBlock("xhr", "https://cdn.example.com.evil/a.json"), "Host suffix must match on a dot");
+    }
+
+    @Test
+    public void testNoBlockOnlyCounts() {
+        ResourceBlocker blocker = new ResourceBlocker(Set.of(), Set.of());
+        assertFalse(blocker.shouldBlock("image", "https://deejay.de/pics/images/m/vinyl1.jpg"));
+        assertEquals(0, blocker.getBlockedRequests());
+        assertTrue(blocker.summary().startsWith("Blocked 0 requests"));
+    }
+}
@@ -0,0 +1,186 @@
+package com.deejay;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import java.nio.file.*;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ResultCacheTest {
+
+    @TempDir
+    Path dir;
+
+    private ResultCache open(Duration ttlNotFound) {
+        return new ResultCache(dir.resolve("results.log"), Duration.ofHours(1), ttlNotFound, Duration.ZERO);
+    }
+
+    private static CodeAnalyzer.AnalysisResult result(String code, CodeAnalyzer.ResultType type, int count) {
+        return new CodeAnalyzer.AnalysisResult(code, type, "test", count);
+    }
+
+    @Test
+    public void testServesFreshEntriesAcrossRuns() throws Exception {
+        try (ResultCache cache = open(Duration.ofHours(1))) {
+            assertNull(cache.get("BNS085"));
+            cache.put(result("BNS085", CodeAnalyzer.ResultType.MULTIPLE_RESULTS, 3), 200);
+        }
+        try (ResultCache cache = open(Duration.ofHours(1))) {
+            CodeAnalyzer.AnalysisResult cached = cache.get(" bns085 ");
+            assertNotNull(cached, "Lookup is keyed by the normalized code");
+            assertEquals(CodeAnalyzer.ResultType.MULTIPLE_RESULTS, cached.resultType);
+            assertEquals(3, cached.productCount);
+            assertEquals(200, cache.getEntry("BNS085").httpStatus);
+            assertEquals(1, cache.getHits());
+        }
+    }
+
+    @Test
+    public void testSeparateTtlsPerResultType() throws Exception {
+        try (ResultCache cache = open(Duration.ZERO)) {
+            cache.put(result("HT005", CodeAnalyzer.ResultType.SINGLE_RESULT, 1), 200);
+            cache.put(result("NOPE001", CodeAnalyzer.ResultType.STATIC_HTML_ONLY, 0), 200);
+            cache.put(result("ERR001", CodeAnalyzer.ResultType.ERROR, 0), 503);
+
+            assertNotNull(cache.get("HT005"));
+            assertNull(cache.get("NOPE001"), "NOT FOUND expired immediately");
+            assertNull(cache.get("ERR001"), "ERROR expired immediately");
+            assertNotNull(cache.getEntry("ERR001"), "Stale entries are still readable");
+        }
+    }
+
+    @Test
+    public void testSkipsTornLinesAndCompacts() throws Exception {
+        Path file = dir.resolve("results.log");
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            lines.add("KW053\tSINGLE_RESULT\t1\t" + System.currentTimeMillis() + "\t200");
+        }
+        lines.add("KW05");
+        Files.write(file, lines);
+
+        try (ResultCache cache = open(Duration.ofHours(1))) {
+            assertNotNull(cache.get("KW053"));
+        }
+        assertEquals(1, Files.readAllLines(file).size(), "Superseded and torn lines are compacted away");
+    }
+
+    @Test
+    public void testAppendsAfterTornLine() throws Exception {
+        Path file = dir.resolve("results.log");
+        Files.writeString(file, "KW053\tSINGLE_RESULT\t1\t" + System.currentTimeMillis() + "\t200\nKW05");
+
+        try (ResultCache cache = open(Duration.ofHours(1))) {
+            cache.put(result("HT005", CodeAnalyzer.ResultType.SINGLE_RESULT, 1), 200);
+        }
+        try (ResultCache cache = open(Duration.ofHours(1))) {
+            assertNotNull(cache.get("KW053"));
+            assertNotNull(cache.get("HT005"), "The first new entry is not glued onto the torn line");
+        }
+        assertEquals(2, Files.readAllLines(file).size());
+    }
+
+    @Test
+    public void testConcurrentWriters() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try (ResultCache cache = open(Duration.ofHours(1))) {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < 400; i++) {
+                String code = "C" + i;
+                futures.add(executor.submit(() -> cache.put(result(code, CodeAnalyzer.ResultType.SINGLE_RESULT, 1), 200)));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        try (ResultCache cache = open(Duration.ofHours(1))) {
+            for (int i = 0; i < 400; i++) {
+                assertNotNull(cache.get("C" + i));
+            }
+        }
+    }
+
+    /**
+     * Appends entries from another JVM: the log file, a code prefix and a count. The codes
+     * repeat every 200 lines and carry their line number as the product count.
+     */
+    public static class Appender {
+        public static void main(String[] args) throws Exception {
+            try (ResultCache cache = new ResultCache(Paths.get(args[0]), Duration.ofHours(1), Duration.ofHours(1),
+                     Duration.ofHours(1))) {
+                for (int i = 0; i < Integer.parseInt(args[2]); i++) {
+                    cache.put(result(args[1] + (i % 200), CodeAnalyzer.ResultType.SINGLE_RESULT, i), 200);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testProcessesShareTheLog() throws Exception {
+        Path file = dir.resolve("results.log");
+        int count = 40000;
+        String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+        List<Process> appenders = new ArrayList<>();
+        for (String prefix : List.of("A", "B")) {
+            appenders.add(new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                Appender.class.getName(), file.toString(), prefix, String.valueOf(count)).inheritIO().start());
+        }
+        // This process keeps compacting the mostly superseded log while the others append
+        int rounds = 0;
+        while (appenders.stream().anyMatch(Process::isAlive)) {
+            try (ResultCache cache = open(Duration.ofHours(1))) {
+                cache.put(result("M" + rounds++, CodeAnalyzer.ResultType.SINGLE_RESULT, 1), 200);
+            }
+        }
+        for (Process appender : appenders) {
+            assertTrue(appender.waitFor(60, TimeUnit.SECONDS));
+            assertEquals(0, appender.exitValue());
+        }
+
+        for (String line : Files.readAllLines(file)) {
+            assertNotNull(ResultCache.Entry.parse(line), "torn or interleaved line: " + line);
+        }
+        try (ResultCache cache = open(Duration.ofHours(1))) {
+            for (int code = 0; code < 200; code++) {
+                // The last line of every code survives, no append went to a replaced file
+                assertEquals(count - 200 + code, cache.getEntry("A" + code).productCount, "A" + code);
+                assertEquals(count - 200 + code, cache.getEntry("B" + code).productCount, "B" + code);
+            }
+            for (int round = 0; round < rounds; round++) {
+                assertNotNull(cache.getEntry("M" + round), "M" + round);
+            }
+        }
+    }
+
+    @Test
+    public void testDisabledCacheStoresNothing() throws Exception {
+        try (ResultCache cache = ResultCache.disabled()) {
+            cache.put(result("BNS085", CodeAnalyzer.ResultType.SINGLE_RESULT, 1), 200);
+            assertNull(cache.get("BNS085"));
+        }
+    }
+
+    @Test
+    public void testKeepsValidatorsAndReadsOldLines() throws Exception {
+        Files.writeString(dir.resolve("results.log"),
+            "KW053\tSINGLE_RESULT\t1\t" + System.currentTimeMillis() + "\t200\n");
+        try (ResultCache cache = open(Duration.ofHours(1))) {
+            ResultCache.Entry old = cache.getEntry("KW053");
+            assertNotNull(old, "Lines without validators still parse");
+            assertFalse(old.hasValidators());
+            cache.put(result("BNS085", CodeAnalyzer.ResultType.MULTIPLE_RESULTS, 3), 200,
+                "\"abc\"", "Mon, 01 Sep 2025 10:00:00 GMT", null);
+        }
+        try (ResultCache cache = open(Duration.ofHours(1))) {
+            ResultCache.Entry entry = cache.getEntry("BNS085");
+            assertEquals("\"abc\"", entry.etag);
+            assertEquals("Mon, 01 Sep 2025 10:00:00 GMT", entry.lastModified);
+            assertNull(entry.contentHash);
+            assertTrue(entry.hasValidators());
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package com.deejay;
+
+import org.junit.jupiter.api.Test;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ResultPipelineTest {
+
+    private static CodeAnalyzer.AnalysisResult found(String code) {
+        return new CodeAnalyzer.AnalysisResult(code, CodeAnalyzer.ResultType.SINGLE_RESULT, "Single product", 1);
+    }
+
+    @Test
+    public void testResultsArriveInCompletionOrder() throws Exception {
+        CountDownLatch fastWritten = new CountDownLatch(3);
+        List<String> written = Collections.synchronizedList(new ArrayList<>());
+
+        long count = new ResultPipeline(4, 8).run(List.of("SLOW", "A", "B", "C").iterator(), code -> {
+            if (code.equals("SLOW")) {
+                assertTrue(fastWritten.await(5, TimeUnit.SECONDS), "Fast results are not held back");
+            }
+            return found(code);
+        }, result -> {
+            written.add(result.code);
+            fastWritten.countDown();
+        });
+
+        assertEquals(4, count);
+        assertEquals("SLOW", written.get(3));
+    }
+
+    @Test
+    public void testInputIsReadOnlyAsFarAsQueuesAllow() throws Exception {
+        AtomicInteger read = new AtomicInteger();
+        Iterator<String> codes = IntStream.range(0, 100_000).mapToObj(i -> {
+            read.incrementAndGet();
+            return "CODE" + i;
+        }).iterator();
+        int[] maxAhead = new int[1];
+        AtomicInteger done = new AtomicInteger();
+
+        long count = new ResultPipeline(2, 4).run(codes, ResultPipelineTest::found, result -> {
+            int ahead = read.get() - done.incrementAndGet();
+            maxAhead[0] = Math.max(maxAhead[0], ahead);
+        });
+
+        assertEquals(100_000, count);
+        // 4 queued codes, 2 in the workers, 4 queued results and one being produced
+        assertTrue(maxAhead[0] <= 12, "Read ahead " + maxAhead[0] + " codes");
+    }
+
+    @Test
+    public void testWithoutReadAheadCodesArePulledOnlyForFreeWorkers() throws Exception {
+        AtomicInteger read = new AtomicInteger();
+        AtomicInteger finished = new AtomicInteger();
+        int[] maxUnfinished = new int[1];
+        Iterator<String> codes = IntStream.range(0, 200).mapToObj(i -> {
+            read.incrementAndGet();
+            return "CODE" + i;
+        }).iterator();
+
+        long count = new ResultPipeline(3, 0).run(codes, code -> {
+            synchronized (maxUnfinished) {
+                maxUnfinished[0] = Math.max(maxUnfinished[0], read.get() - finished.get());
+            }
+            Thread.sleep(1);
+            finished.incrementAndGet();
+            return found(code);
+        }, result -> { });
+
+        assertEquals(200, count);
+        // Never more codes taken from the input than there are workers
+        assertTrue(maxUnfinished[0] <= 3, "Unfinished codes " + maxUnfinished[0]);
+    }
+
+    @Test
+    public void testFailedLookupBecomesErrorResult() throws Exception {
+        List<CodeAnalyzer.AnalysisResult> results = new ArrayList<>();
+        new ResultPipeline(1, 1).run(List.of("BROKEN").iterator(), code -> {
+            throw new ExecutionException(new java.io.IOException("connection reset"));
+        }, results::add);
+
+        assertEquals(CodeAnalyzer.ResultType.ERROR, results.get(0).resultType);
+        assertTrue(results.get(0).description.contains("connection reset"));
+    }
+
+    @Test
+    public void testCancelStopsReadingAndWorkers() throws Exception {
+        ResultPipeline pipeline = new ResultPipeline(2, 2);
+        AtomicInteger read = new AtomicInteger();
+        Iterator<String> endless = Stream.generate(() -> "CODE" + read.incrementAndGet()).iterator();
+        List<String> written = new ArrayList<>();
+
+        long count = pipeline.run(endless, code -> {
+            Thread.sleep(code.equals("CODE1") ? 0 : 60_000);
+            return found(code);
+        }, result -> {
+            written.add(result.code);
+            pipeline.cancel();
+        });
+
+        assertTrue(pipeline.isCancelled());
+        assertEquals(1, count);
+        assertEquals(List.of("CODE1"), written);
+        assertTrue(read.get() < 10);
+    }
+}
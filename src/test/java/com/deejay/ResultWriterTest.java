@@ -0,0 +1,64 @@
+package com.deejay;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import java.nio.file.*;
+import java.util.List;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ResultWriterTest {
+
+    @TempDir
+    Path dir;
+
+    private static final CodeAnalyzer.AnalysisResult FOUND = new CodeAnalyzer.AnalysisResult("WH03/21",
+        CodeAnalyzer.ResultType.MULTIPLE_RESULTS, "Multiple products found in iframe", 4);
+    private static final CodeAnalyzer.AnalysisResult ERROR = new CodeAnalyzer.AnalysisResult("BNS085",
+        CodeAnalyzer.ResultType.ERROR, "Error analyzing code: \"timeout\", retry\n", 0);
+
+    @Test
+    public void testJsonLines() throws Exception {
+        Path file = dir.resolve("results.jsonl");
+        ResultWriter writer = new ResultWriter(file, ResultWriter.Format.JSONL);
+        writer.accept(FOUND);
+        writer.accept(ERROR);
+        writer.finish();
+
+        assertEquals(List.of(
+            "{\"code\":\"WH03/21\",\"result\":\"MULTIPLE_RESULTS\",\"found\":true,\"products\":4,"
+                + "\"description\":\"Multiple products found in iframe\"}",
+            "{\"code\":\"BNS085\",\"result\":\"ERROR\",\"found\":false,\"products\":0,"
+                + "\"description\":\"Error analyzing code: \\\"timeout\\\", retry\\n\"}"),
+            Files.readAllLines(file));
+    }
+
+    @Test
+    public void testCsv() throws Exception {
+        Path file = dir.resolve("results.csv");
+        ResultWriter writer = new ResultWriter(file, ResultWriter.Format.CSV);
+        writer.accept(FOUND);
+        writer.accept(ERROR);
+        writer.finish();
+
+        assertEquals("code,result,found,products,description\n"
+            + "WH03/21,MULTIPLE_RESULTS,true,4,Multiple products found in iframe\n"
+            + "BNS085,ERROR,false,0,\"Error analyzing code: \"\"timeout\"\", retry\n\"\n",
+            Files.readString(file));
+    }
+
+    @Test
+    public void testRunningCountsAndProgress() {
+        ResultStats stats = new ResultStats(10, 0);
+        stats.accept(FOUND);
+        stats.accept(FOUND);
+        stats.accept(ERROR);
+
+        assertEquals(3, stats.total());
+        assertEquals(2, stats.count(CodeAnalyzer.ResultType.MULTIPLE_RESULTS));
+        assertEquals(1, stats.count(CodeAnalyzer.ResultType.ERROR));
+        assertEquals("Errors: 1", stats.summaryLines()[4]);
+
+        String progress = stats.progressLine(System.nanoTime() + 3_000_000_000L);
+        assertTrue(progress.matches("Progress: 3/10 codes \\(30.0%\\), 1.0 codes/s, ETA 0:0[78]"), progress);
+    }
+}
@@ -0,0 +1,106 @@
+package com.deejay;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RunJournalTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    public void testResumeSkipsFinishedCodes() throws Exception {
+        Path file = dir.resolve("results.txt.journal");
+        try (RunJournal journal = new RunJournal(file, false)) {
+            journal.record(new CodeAnalyzer.AnalysisResult("BNS085", CodeAnalyzer.ResultType.SINGLE_RESULT,
+                "Single product found in iframe", 1));
+            journal.record(new CodeAnalyzer.AnalysisResult("WH03/21", CodeAnalyzer.ResultType.MULTIPLE_RESULTS,
+                "Multiple\tproducts", 4));
+            journal.record(new CodeAnalyzer.AnalysisResult("ERR001", CodeAnalyzer.ResultType.ERROR,
+                "Error analyzing code: HTTP 503", 0));
+        }
+
+        try (RunJournal journal = new RunJournal(file, true)) {
+            assertEquals(3, journal.completedCount());
+            assertEquals(CodeAnalyzer.ResultType.SINGLE_RESULT, journal.completed("BNS085").resultType);
+            assertEquals(4, journal.completed("WH03/21").productCount);
+            assertEquals("Multiple products", journal.completed("WH03/21").description);
+            assertNull(journal.completed("ERR001"), "Errors are looked up again");
+            assertNull(journal.completed("HT005"));
+        }
+    }
+
+    @Test
+    public void testTornLastLineIsDropped() throws Exception {
+        Path file = dir.resolve("results.txt.journal");
+        Files.writeString(file, "BNS085\tSINGLE_RESULT\t1\tSingle product found in iframe\nHT005\tSING",
+            StandardCharsets.UTF_8);
+
+        try (RunJournal journal = new RunJournal(file, true)) {
+            assertEquals(1, journal.completedCount());
+            journal.record(new CodeAnalyzer.AnalysisResult("HT005", CodeAnalyzer.ResultType.SINGLE_RESULT,
+                "Single product found in iframe", 1));
+        }
+        try (RunJournal journal = new RunJournal(file, true)) {
+            assertNotNull(journal.completed("BNS085"));
+            assertNotNull(journal.completed("HT005"));
+        }
+    }
+
+    @Test
+    public void testFreshRunStartsNewJournal() throws Exception {
+        Path file = dir.resolve("results.txt.journal");
+        Files.writeString(file, "BNS085\tSINGLE_RESULT\t1\tSingle product found in iframe\n", StandardCharsets.UTF_8);
+
+        try (RunJournal journal = new RunJournal(file, false)) {
+            assertEquals(0, journal.completedCount());
+            assertNull(journal.completed("BNS085"));
+        }
+        assertEquals(0, Files.size(file));
+    }
+
+    @Test
+    public void testCheckpointedLookupJournalsResult() throws Exception {
+        Path file = dir.resolve("results.txt.journal");
+        try (RunJournal journal = new RunJournal(file, false)) {
+            CodeAnalyzer.AnalysisResult result = CodeAnalyzer.checkpointed(journal, "KW053",
+                () -> java.util.concurrent.CompletableFuture.completedFuture(CodeAnalyzer.analyzeContent("KW053",
+                    "<img src=\"/pics/images/m/a.jpg\" alt=\"A\"><a href=\"/addCart/1\">x</a>"))).join();
+            assertEquals(CodeAnalyzer.ResultType.SINGLE_RESULT, result.resultType);
+        }
+        try (RunJournal journal = new RunJournal(file, true)) {
+            CodeAnalyzer.AnalysisResult resumed = CodeAnalyzer.checkpointed(journal, "KW053",
+                () -> { throw new AssertionError("Finished codes must not be looked up again"); }).join();
+            assertEquals(1, resumed.productCount);
+        }
+    }
+
+    @Test
+    public void testRecordsAreSyncedInTheBackground() throws Exception {
+        Path file = dir.resolve("results.txt.journal");
+        try (RunJournal journal = new RunJournal(file, false)) {
+            journal.record(new CodeAnalyzer.AnalysisResult("BNS085", CodeAnalyzer.ResultType.SINGLE_RESULT,
+                "Single product found in iframe", 1));
+            // record() leaves the write to the syncer, which writes a partial batch within about a second
+            long deadline = System.nanoTime() + 5_000_000_000L;
+            while (Files.size(file) == 0 && System.nanoTime() < deadline) {
+                Thread.sleep(20);
+            }
+            assertEquals(1, Files.readAllLines(file).size());
+
+            // A full batch wakes it right away
+            for (int i = 0; i < 32; i++) {
+                journal.record(new CodeAnalyzer.AnalysisResult(String.format("ABC%03d", i),
+                    CodeAnalyzer.ResultType.STATIC_HTML_ONLY, "none", 0));
+            }
+            deadline = System.nanoTime() + 500_000_000L;
+            while (Files.readAllLines(file).size() < 33 && System.nanoTime() < deadline) {
+                Thread.sleep(5);
+            }
+            assertEquals(33, Files.readAllLines(file).size());
+        }
+    }
+}
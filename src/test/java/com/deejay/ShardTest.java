@@ -0,0 +1,44 @@
+package com.deejay;
+
+import org.junit.jupiter.api.Test;
+import java.util.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ShardTest {
+
+    @Test
+    public void testShardsPartitionCodes() {
+        List<Shard> shards = List.of(Shard.parse("0/4"), Shard.parse("1/4"), Shard.parse("2/4"), Shard.parse("3/4"));
+        int[] sizes = new int[4];
+        for (int i = 0; i < 10_000; i++) {
+            String code = CodeCanonicalizer.canonical("code" + i);
+            int owners = 0;
+            for (int s = 0; s < shards.size(); s++) {
+                if (shards.get(s).owns(code)) {
+                    owners++;
+                    sizes[s]++;
+                }
+            }
+            assertEquals(1, owners, code);
+        }
+        for (int size : sizes) {
+            assertTrue(size > 2_000 && size < 3_000, Arrays.toString(sizes));
+        }
+    }
+
+    @Test
+    public void testHashIsStable() {
+        // FNV-1a reference values, must never change or shards would reshuffle between releases
+        assertEquals(0xcbf29ce484222325L, Shard.hash(""));
+        assertEquals(0xaf63dc4c8601ec8cL, Shard.hash("a"));
+        assertTrue(Shard.ALL.owns("BNS085"));
+    }
+
+    @Test
+    public void testRejectsInvalidSpecs() {
+        assertThrows(IllegalArgumentException.class, () -> Shard.parse("4/4"));
+        assertThrows(IllegalArgumentException.class, () -> Shard.parse("1"));
+        assertThrows(IllegalArgumentException.class, () -> Shard.parse("a/b"));
+        assertThrows(IllegalArgumentException.class, () -> Shard.parse("0/0"));
+    }
+}
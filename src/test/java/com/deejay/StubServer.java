@@ -0,0 +1,302 @@
+package com.deejay;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Local stand-in for deejay.de that serves content.php documents from the test fixtures.
+ *
+ * Besides the iframe documents it serves the /&lt;code&gt; shell page, built from a captured
+ * fixture, so browser mode can run against it too. For load tests it can generate pages for
+ * any code and inject latency, errors, hanging requests and rate limiting.
+ */
+public class StubServer implements AutoCloseable {
+    private static final String SORRY_PAGE =
+            "<div class=\"no-results\"><p>Sorry, we didn´t find a matching Entry.</p></div>";
+
+    private final HttpServer server;
+    private final Map<String, String> pages = new ConcurrentHashMap<>();
+    private final Map<String, Integer> hits = new ConcurrentHashMap<>();
+    private final Map<String, Integer> notModified = new ConcurrentHashMap<>();
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+    private final AtomicLong hangs = new AtomicLong();
+    private final AtomicLong throttled = new AtomicLong();
+    private volatile LongSupplier latencyMillis = () -> 0;
+    private volatile boolean validators = true;
+    private volatile boolean generated;
+    private volatile double errorRate;
+    private volatile double hangRate;
+    private volatile double requestsPerSecond;
+    private double tokens;
+    private long refilledAt = System.nanoTime();
+    private String shellTemplate;
+
+    public StubServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/content.php", this::handleContent);
+        server.createContext("/", this::handleShell);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+    }
+
+    /**
+     * Serves a fixture from src/test/resources as the iframe document of its code
+     */
+    public StubServer withFixture(String code) throws IOException {
+        try (InputStream in = StubServer.class.getResourceAsStream("/" + code + ".html")) {
+            return withPage(code, new String(in.readAllBytes(), StandardCharsets.UTF_8));
+        }
+    }
+
+    public StubServer withPage(String code, String html) {
+        pages.put(CodeCanonicalizer.canonical(code), html);
+        return this;
+    }
+
+    /**
+     * Holds every response back for a while, e.g. to keep requests in flight
+     */
+    public StubServer withDelay(long millis) {
+        return withLatency(() -> millis);
+    }
+
+    /**
+     * Delays every response by a value drawn from the given distribution, in milliseconds
+     */
+    public StubServer withLatency(LongSupplier millis) {
+        this.latencyMillis = millis;
+        return this;
+    }
+
+    /**
+     * Log-normal latency with the given median and p99, the usual shape of web response times
+     */
+    public static LongSupplier logNormal(double medianMillis, double p99Millis) {
+        double mu = Math.log(Math.max(medianMillis, 0.001));
+        // 2.326 is the z-score of the 99th percentile
+        double sigma = p99Millis > medianMillis ? Math.log(p99Millis / medianMillis) / 2.326 : 0;
+        return () -> Math.round(Math.exp(mu + sigma * ThreadLocalRandom.current().nextGaussian()));
+    }
+
+    /**
+     * Answers this share of content.php requests with 503
+     */
+    public StubServer withErrorRate(double errorRate) {
+        this.errorRate = errorRate;
+        return this;
+    }
+
+    /**
+     * Lets this share of content.php requests hang until the server is closed, so clients time out
+     */
+    public StubServer withHangRate(double hangRate) {
+        this.hangRate = hangRate;
+        return this;
+    }
+
+    /**
+     * Answers content.php requests beyond this rate with 429, 0 for no limit
+     */
+    public StubServer withRateLimit(double requestsPerSecond) {
+        synchronized (this) {
+            this.requestsPerSecond = requestsPerSecond;
+            this.tokens = requestsPerSecond;
+        }
+        return this;
+    }
+
+    /**
+     * Serves a generated page for every code without a page of its own instead of the 'Sorry'
+     * page: about 60% not found, 30% with one product and 10% with several, fixed per code
+     */
+    public StubServer withGeneratedPages() {
+        this.generated = true;
+        return this;
+    }
+
+    /**
+     * Sends no ETag or Last-Modified and ignores conditional requests, like a site without validators
+     */
+    public StubServer withoutValidators() {
+        this.validators = false;
+        return this;
+    }
+
+    public String baseUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/";
+    }
+
+    public int hits(String code) {
+        return hits.getOrDefault(CodeCanonicalizer.canonical(code), 0);
+    }
+
+    /**
+     * Requests of a code answered with 304 Not Modified
+     */
+    public int notModified(String code) {
+        return notModified.getOrDefault(CodeCanonicalizer.canonical(code), 0);
+    }
+
+    /**
+     * content.php requests seen, and how many of them got an injected 503, hang or 429
+     */
+    public long requests() {
+        return requests.get();
+    }
+
+    public long errors() {
+        return errors.get();
+    }
+
+    public long hangs() {
+        return hangs.get();
+    }
+
+    public long throttled() {
+        return throttled.get();
+    }
+
+    private synchronized boolean admit() {
+        if (requestsPerSecond <= 0) {
+            return true;
+        }
+        long now = System.nanoTime();
+        tokens = Math.min(requestsPerSecond, tokens + (now - refilledAt) / 1e9 * requestsPerSecond);
+        refilledAt = now;
+        if (tokens < 1) {
+            return false;
+        }
+        tokens--;
+        return true;
+    }
+
+    private void handleContent(HttpExchange exchange) throws IOException {
+        requests.incrementAndGet();
+        String query = exchange.getRequestURI().getRawQuery();
+        String param = query != null && query.startsWith("param=")
+                ? URLDecoder.decode(query.substring("param=".length()), StandardCharsets.UTF_8) : "";
+        // The shop search ignores case, so does the stub
+        String code = CodeCanonicalizer.canonical(param.startsWith("/") ? param.substring(1) : param);
+        hits.merge(code, 1, Integer::sum);
+
+        if (!admit()) {
+            throttled.incrementAndGet();
+            exchange.getResponseHeaders().set("Retry-After", "1");
+            exchange.sendResponseHeaders(429, -1);
+            exchange.close();
+            return;
+        }
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        try {
+            if (hangRate > 0 && random.nextDouble() < hangRate) {
+                hangs.incrementAndGet();
+                // Until the client gives up or the server closes
+                Thread.sleep(TimeUnit.MINUTES.toMillis(10));
+            }
+            long delay = latencyMillis.getAsLong();
+            if (delay > 0) {
+                Thread.sleep(delay);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            exchange.close();
+            return;
+        }
+        if (errorRate > 0 && random.nextDouble() < errorRate) {
+            errors.incrementAndGet();
+            exchange.sendResponseHeaders(503, -1);
+            exchange.close();
+            return;
+        }
+        String html = pages.get(code);
+        if (html == null) {
+            html = generated ? generatedPage(code) : SORRY_PAGE;
+        }
+        if (validators) {
+            // The ETag changes with the page, Last-Modified is not used so ETags alone decide
+            String etag = "\"" + ContentFetcher.contentHash(html) + "\"";
+            exchange.getResponseHeaders().set("ETag", etag);
+            if (etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                notModified.merge(code, 1, Integer::sum);
+                exchange.sendResponseHeaders(304, -1);
+                exchange.close();
+                return;
+            }
+        }
+        byte[] body = html.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/html; charset=UTF-8");
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    /**
+     * Deterministic page for a code, see withGeneratedPages()
+     */
+    static String generatedPage(String code) {
+        long hash = Shard.hash(code);
+        int bucket = (int) Long.remainderUnsigned(hash, 10);
+        if (bucket < 6) {
+            return SORRY_PAGE;
+        }
+        int products = bucket < 9 ? 1 : 2 + (int) Long.remainderUnsigned(hash >>> 8, 19);
+        StringBuilder sb = new StringBuilder("<!DOCTYPE html>\n<html><body>\n<div class=\"product-list\">\n");
+        for (int i = 0; i < products; i++) {
+            sb.append("<article class=\"product\">\n");
+            sb.append("  <a href=\"/").append(code).append('-').append(i).append("\"><img src=\"/pics/images/m/")
+              .append(code.toLowerCase(Locale.ROOT)).append('-').append(i).append(".jpg\" alt=\"Artist - Title ")
+              .append(i).append("\"></a>\n");
+            sb.append("  <div class=\"price\">12,99 &euro;</div>\n");
+            sb.append("  <a class=\"cart\" href=\"/addCart/").append(Long.remainderUnsigned(hash, 900000) + 100000 + i)
+              .append("\">Add to Cart</a>\n");
+            sb.append("</article>\n");
+        }
+        return sb.append("</div>\n</body></html>\n").toString();
+    }
+
+    /**
+     * The /&lt;code&gt; shell page: a captured fixture whose iframe points at the code's content.php
+     */
+    private void handleShell(HttpExchange exchange) throws IOException {
+        String code = exchange.getRequestURI().getPath().substring(1);
+        if (code.isEmpty() || code.contains(".")) {
+            // Scripts, styles and images of the shell are not part of the stub
+            exchange.sendResponseHeaders(404, -1);
+            exchange.close();
+            return;
+        }
+        String param = URLEncoder.encode("/" + code, StandardCharsets.UTF_8);
+        byte[] body = shellTemplate().replace("%2Fdtw004", param).getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/html; charset=UTF-8");
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private synchronized String shellTemplate() throws IOException {
+        if (shellTemplate == null) {
+            try (InputStream in = StubServer.class.getResourceAsStream("/dtw004.html")) {
+                shellTemplate = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+            }
+        }
+        return shellTemplate;
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        ((ExecutorService) server.getExecutor()).shutdownNow();
+    }
+}
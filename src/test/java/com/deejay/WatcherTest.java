@@ -0,0 +1,105 @@
+package com.deejay;
+
+import org.junit.jupiter.api.Test;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class WatcherTest {
+
+    private static CompletableFuture<CodeAnalyzer.AnalysisResult> result(String code, CodeAnalyzer.ResultType type,
+                                                                         int products) {
+        return CompletableFuture.completedFuture(new CodeAnalyzer.AnalysisResult(code, type, "", products));
+    }
+
+    @Test
+    public void testReportsWhenACodeAppears() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        List<Watcher.Event> events = Collections.synchronizedList(new ArrayList<>());
+        Watcher watcher = new Watcher(code -> calls.incrementAndGet() <= 2
+                ? result(code, CodeAnalyzer.ResultType.STATIC_HTML_ONLY, 0)
+                : result(code, CodeAnalyzer.ResultType.SINGLE_RESULT, 1),
+            new Watcher.Options().setMinInterval(Duration.ofMillis(10)).setMaxInterval(Duration.ofMillis(20))
+                .setChecksPerSecond(1000), events::add);
+        watcher.add("abc 001");
+
+        watcher.run(Duration.ofMillis(400));
+
+        assertTrue(watcher.getChecks() > 3, "checks: " + watcher.getChecks());
+        assertEquals(1, events.size());
+        Watcher.Event event = events.get(0);
+        assertEquals("ABC001", event.code);
+        assertEquals(CodeAnalyzer.ResultType.STATIC_HTML_ONLY, event.from);
+        assertEquals(CodeAnalyzer.ResultType.SINGLE_RESULT, event.to);
+        assertEquals("ABC001: NOT FOUND -> FOUND (single) (0 -> 1 products)", event.toString());
+        assertTrue(event.toJson().contains("\"code\":\"ABC001\",\"from\":\"STATIC_HTML_ONLY\""), event.toJson());
+        assertEquals(1, watcher.getEvents());
+    }
+
+    @Test
+    public void testIntervalsGrowUntilSomethingChanges() throws Exception {
+        Map<String, AtomicInteger> calls = new ConcurrentHashMap<>();
+        List<Watcher.Event> events = Collections.synchronizedList(new ArrayList<>());
+        Watcher watcher = new Watcher(code -> {
+            int n = calls.computeIfAbsent(code, c -> new AtomicInteger()).incrementAndGet();
+            return switch (code) {
+                case "STILL1" -> result(code, CodeAnalyzer.ResultType.STATIC_HTML_ONLY, 0);
+                case "FOUND1" -> result(code, CodeAnalyzer.ResultType.MULTIPLE_RESULTS, 3);
+                // Product count changes on every check, the type never does
+                default -> result(code, CodeAnalyzer.ResultType.MULTIPLE_RESULTS, 2 + n % 2);
+            };
+        }, new Watcher.Options().setMinInterval(Duration.ofMillis(10)).setMaxInterval(Duration.ofMillis(80))
+            .setMaxFoundInterval(Duration.ofMillis(160)).setChecksPerSecond(1000), events::add);
+        watcher.add("STILL1");
+        watcher.add("FOUND1");
+        watcher.add("MOVING1");
+
+        watcher.run(Duration.ofMillis(1500));
+
+        assertEquals(80, watcher.intervalOf("STILL1"));
+        assertEquals(160, watcher.intervalOf("FOUND1"));
+        assertEquals(10, watcher.intervalOf("MOVING1"));
+        assertTrue(calls.get("MOVING1").get() > 2 * calls.get("FOUND1").get(),
+            "changing codes are checked more often: " + calls);
+        assertTrue(events.isEmpty(), "count changes are no events: " + events);
+        assertEquals(3, watcher.size());
+    }
+
+    @Test
+    public void testChecksStayWithinTheBudget() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        Watcher watcher = new Watcher(code -> {
+            calls.incrementAndGet();
+            return result(code, CodeAnalyzer.ResultType.STATIC_HTML_ONLY, 0);
+        }, new Watcher.Options().setMinInterval(Duration.ofMillis(1)).setMaxInterval(Duration.ofMillis(1))
+            .setChecksPerSecond(20), event -> fail("no change expected"));
+        for (int i = 0; i < 5; i++) {
+            watcher.add("ABC00" + i);
+        }
+
+        watcher.run(Duration.ofMillis(500));
+
+        // 20 per second over half a second, however overdue the codes are
+        assertTrue(calls.get() >= 5 && calls.get() <= 12, "checks: " + calls.get());
+        assertEquals(calls.get(), watcher.getChecks());
+    }
+
+    @Test
+    public void testFailedChecksAreRetried() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        Watcher watcher = new Watcher(code -> {
+            if (calls.incrementAndGet() == 1) {
+                throw new IllegalStateException("boom");
+            }
+            return result(code, CodeAnalyzer.ResultType.STATIC_HTML_ONLY, 0);
+        }, new Watcher.Options().setMinInterval(Duration.ofMillis(10)).setChecksPerSecond(1000),
+            event -> fail("errors are no events"));
+        watcher.add("ABC001");
+
+        watcher.run(Duration.ofMillis(200));
+
+        assertTrue(calls.get() >= 2, "calls: " + calls.get());
+    }
+}